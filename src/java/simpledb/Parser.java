@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -25,6 +27,15 @@ import simpledb.transaction.TransactionId;
 public class Parser {
     static boolean explain = false;
 
+    // Zql has no LIMIT/OFFSET, so a trailing clause of that form is cut off
+    // the statement text before parsing and applied to the logical plan.
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*(;?)\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    private int limit = -1;
+    private int offset = 0;
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -48,6 +59,36 @@ public class Parser {
         throw new simpledb.ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Strips a trailing "LIMIT n [OFFSET m]" clause from the statement and
+     * remembers its values for {@link #applyLimit}.
+     *
+     * @return the statement text without the clause
+     * @throws simpledb.ParsingException if a value does not fit in an int
+     */
+    String stripLimitClause(String s) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find())
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(1));
+            if (m.group(2) != null)
+                offset = Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            limit = -1;
+            offset = 0;
+            throw new simpledb.ParsingException("LIMIT and OFFSET must be at most " + Integer.MAX_VALUE);
+        }
+        return s.substring(0, m.start()) + m.group(3);
+    }
+
+    void applyLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        if (limit >= 0)
+            lp.addLimit(limit, offset);
+    }
+
     void processExpression(TransactionId tid, ZExpression wx, LogicalPlan lp)
             throws simpledb.ParsingException, IOException, ParseException {
         if (wx.getOperator().equals("AND")) {
@@ -284,6 +325,7 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -383,6 +425,7 @@ public class Parser {
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            applyLimit(lp);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -404,6 +447,8 @@ public class Parser {
             throw new simpledb.ParsingException("Unknown table : "
                     + s.getTable());
         }
+        if (limit >= 0)
+            throw new simpledb.ParsingException("LIMIT is not supported in DELETE statements.");
         String name = s.getTable();
         Query sdbq = new Query(tid);
 
@@ -465,12 +510,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimitClause(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                applyLimit(lp);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -495,7 +542,13 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                text.write(buf, 0, n);
+            String stmt = stripLimitClause(new String(text.toByteArray(), StandardCharsets.UTF_8));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(stmt.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -567,11 +620,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit", "offset" };
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,7 +634,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel n] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -602,6 +655,15 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected worker count after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    LogicalPlan.setParallelism(Integer.parseInt(argv[i]));
+                    System.out.println("Parallel plans enabled with "
+                            + argv[i] + " workers.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -1,9 +1,13 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -11,6 +15,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -32,6 +37,10 @@ public class Catalog {
         private String tableName;
         private String pkeyField;
         private TupleDesc tupleDesc;
+        // the secondary indexes on this table
+        private final List<SecondaryIndex> indexes = new CopyOnWriteArrayList<>();
+        // whether this is the file of a secondary index rather than a table
+        private boolean isIndex = false;
 
         public Table(int id, DbFile dbfile, String tableName, String pkeyField, TupleDesc tableSchema) {
             this.id = id;
@@ -107,6 +116,68 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add a secondary index on a field of a HeapFile table already in the
+     * catalog. Does not build the index; see {@link SecondaryIndex#build}.
+     * The index's file is registered by its id too, so that its pages can
+     * be read, but it is not listed by {@link #tableIdIterator}.
+     * @param tableid the id of the table to index
+     * @param fieldName the name of the field to index
+     * @param include the names of the fields whose values the index stores
+     *    in its entries too, so that queries reading only them and the
+     *    indexed field can be answered from the index alone
+     * @param file the B+ tree or HashFile holding the index entries, as
+     *    returned by {@link SecondaryIndex#openFile} or
+     *    {@link SecondaryIndex#openHashFile}
+     * @return the new index
+     * @throws NoSuchElementException if the table or a field doesn't exist
+     * @throws IllegalArgumentException if the table is not a HeapFile, the
+     *    file is neither a BTreeFile nor a HashFile, or it doesn't have the
+     *    TupleDesc of an index on the fields
+     */
+    public SecondaryIndex addIndex(int tableid, String fieldName, String[] include, DbFile file) {
+        Table tb = tableID2TableMap.get(tableid);
+        if (tb == null || tb.isIndex) {
+            throw new NoSuchElementException();
+        }
+        if (!(tb.getDbfile() instanceof HeapFile)) {
+            throw new IllegalArgumentException("only HeapFiles can have secondary indexes");
+        }
+        TupleDesc td = tb.getTupleDesc();
+        int field = td.fieldNameToIndex(fieldName);
+        int[] includeFields = new int[include.length];
+        Type[] includeTypes = new Type[include.length];
+        for (int i = 0; i < include.length; i++) {
+            includeFields[i] = td.fieldNameToIndex(include[i]);
+            includeTypes[i] = td.getFieldType(includeFields[i]);
+        }
+        if (!file.getTupleDesc().equals(SecondaryIndex.getTupleDesc(td.getFieldType(field), includeTypes))) {
+            throw new IllegalArgumentException("index file does not match field " + fieldName);
+        }
+        SecondaryIndex index = new SecondaryIndex(tableid, field, includeFields, file);
+        Table indexTb = new Table(file.getId(), file, tb.getTableName() + "." + fieldName, "", file.getTupleDesc());
+        indexTb.isIndex = true;
+        tableID2TableMap.put(file.getId(), indexTb);
+        tb.indexes.add(index);
+        return index;
+    }
+
+    public SecondaryIndex addIndex(int tableid, String fieldName, DbFile file) {
+        return addIndex(tableid, fieldName, new String[0], file);
+    }
+
+    /**
+     * Returns the secondary indexes on the specified table, which is empty
+     * if the table has none or doesn't exist.
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        Table tb = tableID2TableMap.get(tableid);
+        if (tb == null) {
+            return Collections.emptyList();
+        }
+        return tb.indexes;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -167,7 +238,9 @@ public class Catalog {
         // TODO: fix this with FP
         List<Integer> ret = new LinkedList<>();
         for (Table tb : tableID2TableMap.values()) {
-            ret.add(tb.id);
+            if (!tb.isIndex) {
+                ret.add(tb.id);
+            }
         }
         return ret.iterator();
     }
@@ -194,6 +267,12 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes a table as <tt>name (field type [pk] [index|hashindex], ...)</tt>;
+     * a field annotated with <tt>index</tt> gets a secondary B+ tree index,
+     * stored in <tt>name.field.idx</tt>, and one annotated with
+     * <tt>hashindex</tt> gets a secondary hash index, stored in
+     * <tt>name.field.hidx</tt>. An index is built from the table if its file
+     * does not exist yet.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -211,6 +290,8 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                List<String> indexed = new ArrayList<>();
+                List<String> hashIndexed = new ArrayList<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -222,11 +303,15 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(els2[0].trim());
+                        else if (els2[i].trim().equals("hashindex"))
+                            hashIndexed.add(els2[0].trim());
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -237,7 +322,14 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : indexed)
+                    loadIndex(tabHf, name, field, false, baseFolder);
+                for (String field : hashIndexed)
+                    loadIndex(tabHf, name, field, true, baseFolder);
             }
+        } catch (DbException | TransactionAbortedException e) {
+            System.out.println("Could not build index : " + e.getMessage());
+            System.exit(0);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
@@ -246,5 +338,25 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Add a secondary index on a field of a table read by loadSchema,
+     * stored next to the table, and build it if its file does not exist yet.
+     */
+    private void loadIndex(HeapFile table, String name, String field, boolean hash, String baseFolder)
+            throws DbException, IOException, TransactionAbortedException {
+        File idxFile = new File(baseFolder+"/"+name + "." + field + (hash ? ".hidx" : ".idx"));
+        boolean exists = idxFile.exists();
+        Type keyType = table.getTupleDesc().getFieldType(table.getTupleDesc().fieldNameToIndex(field));
+        SecondaryIndex index = addIndex(table.getId(), field,
+                hash ? SecondaryIndex.openHashFile(idxFile, keyType) : SecondaryIndex.openFile(idxFile, keyType));
+        if (!exists) {
+            Transaction tx = new Transaction();
+            tx.start();
+            index.build(tx.getId());
+            tx.commit();
+        }
+        System.out.println("Added " + (hash ? "hash index" : "index") + " : " + name + "." + field);
+    }
 }
 
@@ -55,10 +55,17 @@ public class Database {
 
     /**
      * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * return it.  Committed pages that the old pool has not written out yet
+     * are written first, as on a clean shutdown.
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
+        try {
+            getBufferPool().flushCommittedPages();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        getBufferPool().stopWriter();
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
@@ -71,7 +78,12 @@ public class Database {
     }
 
     // reset the database, used for unit tests only.
+    // like a crash, nothing is written out, but the old buffer pool's
+    // background writer and the old log's background threads must not
+    // keep writing after the reset
     public static void reset() {
+        getBufferPool().stopWriter();
+        getLogFile().stopBackgroundWork();
         _instance.set(new Database());
     }
 
@@ -125,7 +125,14 @@ public class AbstractAggregator implements Aggregator {
         // some code goes here
         List<Tuple> tuples = new LinkedList<>();
 
-        if (gbfield == NO_GROUPING) {
+        if (gbfield == NO_GROUPING && !gbMap.containsKey(DEFAULT_KEY)) {
+            // no input: COUNT is 0, the other aggregates have no value
+            if (this.what == Op.COUNT) {
+                Tuple onlyTuple = new Tuple(tupleDesc);
+                onlyTuple.setField(GROUP_VALUE_INDEX, new IntField(0));
+                tuples.add(onlyTuple);
+            }
+        } else if (gbfield == NO_GROUPING) {
             Tuple onlyTuple = new Tuple(tupleDesc);
             IntField valueField;
             if (this.what == Op.AVG) {
@@ -0,0 +1,180 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Gather is an exchange operator that runs each of its children on a worker
+ * thread and merges their output, in no particular order, into a single
+ * stream. All children must produce tuples with the same TupleDesc.
+ * <p>
+ * Workers push tuples into a bounded queue, so a slow consumer throttles
+ * them instead of letting the whole input pile up in memory.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples buffered between the workers and the consumer. */
+    public static final int QUEUE_SIZE = 1024;
+
+    /** Marks the end of one worker's output. */
+    private static final Tuple END = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}));
+
+    /** Worker threads shared by all exchange operators. */
+    static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-gather");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private OpIterator[] children;
+    private final TupleDesc td;
+    private transient BlockingQueue<Tuple> queue;
+    private transient List<Future<?>> workers;
+    private transient volatile Exception failure;
+    private transient volatile boolean cancelled;
+    private int finished;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the pipelines to run concurrently; there must be at least one
+     */
+    public Gather(OpIterator[] children) {
+        if (children.length == 0) {
+            throw new IllegalArgumentException("Gather needs at least one child");
+        }
+        this.children = children;
+        this.td = children[0].getTupleDesc();
+    }
+
+    /**
+     * @return the available parallelism of this machine, used as the default
+     *         number of pipelines to split a scan into
+     */
+    public static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        workers = new ArrayList<>(children.length);
+        failure = null;
+        cancelled = false;
+        finished = 0;
+        for (OpIterator child : children) {
+            workers.add(WORKERS.submit(() -> drain(child)));
+        }
+        super.open();
+    }
+
+    private void drain(OpIterator child) {
+        try {
+            child.open();
+            while (!cancelled && child.hasNext()) {
+                put(child.next());
+            }
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // cancelled by close()
+        } finally {
+            child.close();
+            try {
+                put(END);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private void put(Tuple t) throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(t, 10, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        super.close();
+        cancelled = true;
+        if (workers != null) {
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ignored) {
+                    // failures are recorded by the worker itself
+                }
+            }
+        }
+        workers = null;
+        queue = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple produced by
+     * any of the workers.
+     *
+     * @return The next tuple, or null once every worker has finished
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (finished < children.length) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for workers");
+            }
+            if (t == END) {
+                finished++;
+                rethrowFailure();
+            } else {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private void rethrowFailure() throws TransactionAbortedException, DbException {
+        Exception e = failure;
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        } else if (e instanceof DbException) {
+            throw (DbException) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children;
+    }
+
+}
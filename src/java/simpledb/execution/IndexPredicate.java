@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.storage.Field;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * IndexPredicate compares a field which has index on it against a given value
@@ -14,6 +15,8 @@ public class IndexPredicate implements Serializable {
 	
     private final Predicate.Op op;
     private final Field fieldvalue;
+    private final Predicate.Op upperOp;
+    private final Field upperValue;
 
     /**
      * Constructor.
@@ -27,6 +30,32 @@ public class IndexPredicate implements Serializable {
     public IndexPredicate(Predicate.Op op, Field fvalue) {
         this.op = op;
         this.fieldvalue = fvalue;
+        this.upperOp = null;
+        this.upperValue = null;
+    }
+
+    /**
+     * Constructor for a range predicate, which matches the keys that satisfy
+     * both a lower and an upper bound. With a composite key, bounds sharing
+     * their leading fields select a range of a trailing field, such as
+     * (5, 100) &lt;= key &lt; (5, 200).
+     *
+     * @param op The operation comparing keys to the lower bound; either
+     *   Predicate.Op.GREATER_THAN or Predicate.Op.GREATER_THAN_OR_EQ
+     * @param fvalue The lower bound.
+     * @param upperOp The operation comparing keys to the upper bound; either
+     *   Predicate.Op.LESS_THAN or Predicate.Op.LESS_THAN_OR_EQ
+     * @param upperValue The upper bound.
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue, Predicate.Op upperOp, Field upperValue) {
+        if (op != Predicate.Op.GREATER_THAN && op != Predicate.Op.GREATER_THAN_OR_EQ)
+            throw new IllegalArgumentException("the lower bound of a range must be > or >=, not " + op);
+        if (upperOp != Predicate.Op.LESS_THAN && upperOp != Predicate.Op.LESS_THAN_OR_EQ)
+            throw new IllegalArgumentException("the upper bound of a range must be < or <=, not " + upperOp);
+        this.op = op;
+        this.fieldvalue = fvalue;
+        this.upperOp = upperOp;
+        this.upperValue = upperValue;
     }
 
     public Field getField() {
@@ -37,6 +66,40 @@ public class IndexPredicate implements Serializable {
         return op;
     }
 
+    /**
+     * @return the operation comparing keys to the upper bound, or null if
+     *   this is not a range predicate
+     */
+    public Predicate.Op getUpperOp() {
+        return upperOp;
+    }
+
+    /**
+     * @return the upper bound, or null if this is not a range predicate
+     */
+    public Field getUpperField() {
+        return upperValue;
+    }
+
+    /**
+     * @return true if the key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        return key.compare(op, fieldvalue) && (upperOp == null || key.compare(upperOp, upperValue));
+    }
+
+    /**
+     * For scans that visit the keys in increasing order.
+     * @return true if neither the key nor any greater key satisfies this predicate
+     */
+    public boolean isPastEnd(Field key) {
+        if ((op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ) && !key.compare(op, fieldvalue))
+            return true;
+        if (op == Predicate.Op.EQUALS && key.compare(Predicate.Op.GREATER_THAN, fieldvalue))
+            return true;
+        return upperOp != null && !key.compare(upperOp, upperValue);
+    }
+
     /** Return true if the fieldvalue in the supplied predicate
         is satisfied by this predicate's fieldvalue and
         operator.
@@ -45,7 +108,8 @@ public class IndexPredicate implements Serializable {
     public boolean equals(IndexPredicate ipd) {
         if (ipd == null)
             return false;
-        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue));
+        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue)
+                && Objects.equals(upperOp, ipd.upperOp) && Objects.equals(upperValue, ipd.upperValue));
     }
 
 }
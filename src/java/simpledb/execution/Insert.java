@@ -11,6 +11,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -20,6 +22,8 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
     private static final TupleDesc TUPLE_DESC = new TupleDesc(new Type[]{Type.INT_TYPE});
+    /** Child tuples handed to the buffer pool at a time. */
+    private static final int BATCH_SIZE = 1024;
 
     private final TransactionId txID;
     private OpIterator child;
@@ -88,11 +92,14 @@ public class Insert extends Operator {
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
+     * <p>
+     * Child tuples are inserted in batches (see BufferPool.insertTuples),
+     * so the table fills a page at a time.
      *
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -101,11 +108,14 @@ public class Insert extends Operator {
         }
 
         BufferPool bufferPool = Database.getBufferPool();
+        List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
         while (child.hasNext()) {
-            Tuple nextTuple = child.next();
+            batch.clear();
+            while (batch.size() < BATCH_SIZE && child.hasNext()) {
+                batch.add(child.next());
+            }
             try {
-                bufferPool.insertTuple(txID, tableId, nextTuple);
-                insertedNumber++;
+                insertedNumber += bufferPool.insertTuples(txID, tableId, batch.iterator());
             } catch (IOException e) {
                 // TODO: don't know if this is right
                 throw new DbException("IOException");
@@ -0,0 +1,107 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements LIMIT/OFFSET over an unordered input.
+ * It streams tuples from its child, skipping the first <code>offset</code>
+ * and stopping after <code>limit</code> have been returned.
+ *
+ * @see TopN for the ORDER BY ... LIMIT case
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+    private int returned;
+    private boolean skipped;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param offset
+     *            the number of leading tuples to skip.
+     * @param child
+     *            the child operator
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("limit and offset must be non-negative");
+        }
+        this.child = child;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        skipped = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+        skipped = false;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Skips the first offset tuples of the
+     * child and then returns at most limit tuples.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!skipped) {
+            for (int i = 0; i < offset && child.hasNext(); i++) {
+                child.next();
+            }
+            skipped = true;
+        }
+        if (returned >= limit || !child.hasNext()) {
+            return null;
+        }
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,193 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A hash equi-join that runs on several worker threads. Both inputs are
+ * first split into partitions by the hash of their join key, so matching
+ * tuples always land in the same partition. Each worker then builds a hash
+ * table over one partition of the left input and probes it with the same
+ * partition of the right input; the partitions are joined concurrently and
+ * their results are streamed back through a {@link Gather}.
+ */
+public class ParallelHashEquiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int partitions;
+    private transient Gather gather;
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on and the number of partitions to join concurrently
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(build) relation to join
+     * @param child2
+     *            Iterator for the right(probe) relation to join
+     * @param partitions
+     *            The number of partitions, i.e. the number of workers
+     */
+    public ParallelHashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int partitions) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("a hash join needs an equality predicate");
+        }
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be at least 1");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.partitions = partitions;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Maps a join key to its partition. The key's own hash is mixed first:
+     * IntField hashes to its value, so taking it modulo the partition count
+     * directly would leave every key in a partition sharing its low bits and
+     * crowd them into a fraction of the buckets of the per-partition table.
+     */
+    private int partitionOf(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+
+    private List<List<Tuple>> partition(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        List<List<Tuple>> parts = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            parts.add(new ArrayList<>());
+        }
+        child.open();
+        try {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                parts.get(partitionOf(t.getField(field))).add(t);
+            }
+        } finally {
+            child.close();
+        }
+        return parts;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // partition the probe side on a worker while this thread partitions
+        // the build side
+        Future<List<List<Tuple>>> right = Gather.WORKERS.submit(
+                () -> partition(child2, pred.getField2()));
+        List<List<Tuple>> left;
+        try {
+            left = partition(child1, pred.getField1());
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            right.cancel(true);
+            throw e;
+        }
+        List<List<Tuple>> rightParts = await(right);
+
+        TupleDesc td1 = child1.getTupleDesc();
+        TupleDesc td2 = child2.getTupleDesc();
+        List<OpIterator> joins = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            if (left.get(i).isEmpty() || rightParts.get(i).isEmpty())
+                continue;
+            joins.add(new HashEquiJoin(pred, new TupleIterator(td1, left.get(i)),
+                    new TupleIterator(td2, rightParts.get(i))));
+        }
+        if (joins.isEmpty()) {
+            // nothing can match; keep a single empty pipeline so the gather
+            // still has the right tuple descriptor
+            joins.add(new HashEquiJoin(pred, new TupleIterator(td1, Collections.emptyList()),
+                    new TupleIterator(td2, Collections.emptyList())));
+        }
+        gather = new Gather(joins.toArray(new OpIterator[0]));
+        gather.open();
+        super.open();
+    }
+
+    private static List<List<Tuple>> await(Future<List<List<Tuple>>> f)
+            throws DbException, TransactionAbortedException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while partitioning join input");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("join partitioning failed: " + cause);
+        }
+    }
+
+    public void close() {
+        if (gather != null) {
+            gather.close();
+            gather = null;
+        }
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (gather == null) {
+            // closed, so the partitions are gone; build them again
+            open();
+            return;
+        }
+        // the partitions are already materialized; just join them again
+        gather.rewind();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return gather.hasNext() ? gather.next() : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
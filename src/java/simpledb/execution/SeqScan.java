@@ -24,6 +24,10 @@ public class SeqScan implements OpIterator {
     private boolean open = false;
     private HeapFile heapFile;
     private DbFileIterator dbFileIterator;
+    private int startPage = 0;
+    private int endPage = -1;
+    private final List<Predicate> predicates = new ArrayList<>();
+    private int[] columns = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -89,6 +93,97 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a sequential scan over pages [startPage, endPage) of the
+     * specified table. Used to split one scan across the workers of a
+     * {@link Gather}.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param startPage
+     *            the first page to scan
+     * @param endPage
+     *            one past the last page to scan
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage) {
+        this.txId = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.startPage = startPage;
+        this.endPage = endPage;
+        this.dbFileIterator = heapFile.iterator(tid, startPage, endPage);
+    }
+
+    /**
+     * Pushes a predicate down into this scan: only tuples satisfying it are
+     * returned. Pushed-down predicates are evaluated by each HeapPage on its
+     * byte image before tuples are materialized, which is cheaper than a
+     * {@link Filter} over the scan. Must be called before the scan is opened.
+     *
+     * @param p
+     *            a predicate over the fields of the table, numbered as in the
+     *            table's TupleDesc even if the scan only returns some columns
+     */
+    public void addPredicate(Predicate p) {
+        if (open) {
+            throw new IllegalStateException("cannot add a predicate to an open scan");
+        }
+        predicates.add(p);
+        rebuildIterator();
+    }
+
+    /**
+     * Restricts the scan to the given columns of the table: only those
+     * fields are decoded from each page, and the tuples returned (and the
+     * TupleDesc of this scan) contain just those fields, in the given order.
+     * Must be called before the scan is opened.
+     *
+     * @param columns
+     *            indices into the table's TupleDesc, or null for all columns
+     */
+    public void setColumns(int[] columns) {
+        if (open) {
+            throw new IllegalStateException("cannot project an open scan");
+        }
+        if (columns != null && columns.length == 0) {
+            throw new IllegalArgumentException("a scan must return at least one column");
+        }
+        this.columns = columns == null ? null : columns.clone();
+        rebuildIterator();
+    }
+
+    /**
+     * @return the table columns this scan returns, or null if it returns all
+     *         of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    private void rebuildIterator() {
+        dbFileIterator = heapFile.iterator(txId, startPage, endPage,
+                predicates.toArray(new Predicate[0]), columns);
+    }
+
+    /**
+     * @return the predicates pushed down into this scan
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         open = true;
@@ -102,6 +197,9 @@ public class SeqScan implements OpIterator {
      * name.  The alias and name should be separated with a "." character
      * (e.g., "alias.fieldName").
      *
+     * If the scan was restricted with {@link #setColumns}, only those
+     * columns are included.
+     *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
      */
@@ -114,23 +212,19 @@ public class SeqScan implements OpIterator {
             prefix = tableAlias;
         }
         TupleDesc originTupleDesc = Database.getCatalog().getTupleDesc(tableId);
-        Iterator<TupleDesc.TDItem> originItems = originTupleDesc.iterator();
+        int numFields = columns == null ? originTupleDesc.numFields() : columns.length;
 
-        Type[] newTypeArray = new Type[originTupleDesc.numFields()];
-        String[] newFieldArray = new String[originTupleDesc.numFields()];
+        Type[] newTypeArray = new Type[numFields];
+        String[] newFieldArray = new String[numFields];
 
-        int index = 0;
-        while (originItems.hasNext()) {
-            String postFix = null;
-            TupleDesc.TDItem tdItem = originItems.next();
-            if (tdItem.getFieldName() == null) {
+        for (int index = 0; index < numFields; index++) {
+            int field = columns == null ? index : columns[index];
+            String postFix = originTupleDesc.getFieldName(field);
+            if (postFix == null) {
                 postFix = "null";
-            } else {
-                postFix = tdItem.getFieldName();
             }
-            newTypeArray[index] = tdItem.getFieldType();
+            newTypeArray[index] = originTupleDesc.getFieldType(field);
             newFieldArray[index] = prefix + '.' + postFix;
-            index++;
         }
 
         return new TupleDesc(newTypeArray, newFieldArray);
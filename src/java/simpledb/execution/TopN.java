@@ -0,0 +1,149 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT. Unlike
+ * {@link OrderBy}, which materializes and sorts its whole input, TopN keeps
+ * only the best <code>offset + limit</code> tuples seen so far in a bounded
+ * heap, so it runs in O(n log N) time and O(N) memory.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private static final int INITIAL_HEAP_SIZE = 1024;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final String orderByFieldName;
+    private final boolean asc;
+    private final int limit;
+    private final int offset;
+    private final List<Tuple> topTups = new ArrayList<>();
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param offset
+     *            the number of leading tuples (in sort order) to skip.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("limit and offset must be non-negative");
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        this(orderbyField, asc, limit, 0, child);
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        topTups.clear();
+        // offset + limit may not fit in an int, and may be far more than the
+        // child returns, so the heap starts small and grows as it fills
+        int capacity = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        if (capacity > 0) {
+            // the heap root is the worst tuple we are currently keeping, so a
+            // new tuple only displaces it if it sorts strictly before it
+            Comparator<Tuple> order = new OrderBy.TupleComparator(orderByField, asc);
+            PriorityQueue<Tuple> heap = new PriorityQueue<>(Math.min(capacity, INITIAL_HEAP_SIZE), order.reversed());
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < capacity) {
+                    heap.add(t);
+                } else if (order.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+            topTups.addAll(heap);
+            topTups.sort(order);
+            if (offset > 0) {
+                topTups.subList(0, Math.min(offset, topTups.size())).clear();
+            }
+        }
+        it = topTups.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+    }
+
+    public void rewind() {
+        it = topTups.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the retained tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,268 @@
+package simpledb.index;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompositeField;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * BTreeBulkLoader builds the pages of a B+ tree bottom-up from tuples that
+ * arrive sorted on the key field, for {@link BTreeFile#bulkLoad}. Leaves are
+ * filled to the fill factor one after the other, and an internal page is
+ * built as soon as enough pages of the level below are waiting for a
+ * parent, so only the last few pages of each level are kept in memory.
+ * Pages are written straight to the end of the file once their parent is
+ * known, without going through the buffer pool or the log.
+ * <p>
+ * Like BTreeFileEncoder, the loader holds back enough tuples and children
+ * that whatever is left at the end can be shared by the last two pages of
+ * a level, so no page but the root ends up less than half full unless the
+ * fill factor asks for it.
+ * <p>
+ * Internal pages of a tree keyed on a string are compressed, so they are
+ * filled by the bytes their entries take up rather than by their number,
+ * and the keys between leaves are cut down as in {@link BTreeFile#splitLeafPage}.
+ */
+class BTreeBulkLoader {
+
+	// offsets of the pointers in the page formats, see the page constructors
+	private static final int PARENT = 0;
+	private static final int LEFT_SIBLING = 4;
+	private static final int RIGHT_SIBLING = 8;
+
+	/** A page that has been built and is waiting for its parent. */
+	private static class Node {
+		final BTreePageId id;
+		final byte[] data;
+		final Field minKey; // the key separating the page from the one before it
+		int size; // what the entry for the page takes up of its parent
+
+		Node(BTreePageId id, byte[] data, Field minKey) {
+			this.id = id;
+			this.data = data;
+			this.minKey = minKey;
+		}
+	}
+
+	private final int tableid;
+	private final int[] keyFields;
+	private final Type[] keyTypes;
+	private final TupleDesc td;
+	private final Type[] types;
+	private final int pageSize = BufferPool.getPageSize();
+
+	private final int maxTuples;
+	private final int leafFill; // tuples per leaf
+	private final int leafMin; // fewest tuples a leaf other than the root may hold
+	// internal pages are measured in entries, or in bytes if they are compressed
+	private final boolean compressed;
+	private final int maxEntrySize;
+	private final int internalCapacity;
+	private final int internalFill; // what an internal page is filled up to
+	private final int internalMin; // least an internal page other than the root may hold
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private int nextPageNo;
+
+	// tuples not on a leaf yet
+	private final List<Tuple> tuples = new ArrayList<>();
+	// levels.get(h) holds the pages of height h, leaves being 0, that have no parent yet
+	private final List<List<Node>> levels = new ArrayList<>();
+	private Field lastKey = null;
+	// the last key on the last leaf built
+	private Field lastLeafKey = null;
+
+	/**
+	 * @param bf - the B+ tree to build
+	 * @param firstPageNo - the number of the first page to write; pages are numbered on from it
+	 * @param fillFactor - the fraction of each page to fill, greater than 0 and at most 1
+	 */
+	BTreeBulkLoader(BTreeFile bf, int firstPageNo, double fillFactor) throws IOException {
+		this.tableid = bf.getId();
+		this.keyFields = bf.keyFields();
+		this.td = bf.getTupleDesc();
+		this.types = new Type[td.numFields()];
+		for (int i = 0; i < types.length; i++)
+			types[i] = td.getFieldType(i);
+		this.keyTypes = new Type[keyFields.length];
+		for (int i = 0; i < keyTypes.length; i++)
+			keyTypes[i] = types[keyFields[i]];
+
+		maxTuples = new BTreeLeafPage(new BTreePageId(tableid, firstPageNo, BTreePageId.LEAF),
+				BTreeLeafPage.createEmptyPageData(), keyFields).getMaxTuples();
+		leafFill = Math.max(1, Math.min(maxTuples, (int) (fillFactor * maxTuples)));
+		leafMin = Math.max(1, maxTuples / 2);
+		compressed = BTreeInternalPage.isCompressed(keyTypes);
+		if (compressed) {
+			// entries are measured by their size after the entry before them,
+			// and the first entry on a page is stored whole, so leave room for it
+			maxEntrySize = BTreeInternalPage.getMaxEntrySize(keyTypes);
+			internalCapacity = pageSize - BTreeInternalPage.COMPRESSED_HEADER_SIZE - BTreeInternalPage.INDEX_SIZE
+					- maxEntrySize;
+		}
+		else {
+			maxEntrySize = 1;
+			internalCapacity = new BTreeInternalPage(new BTreePageId(tableid, firstPageNo, BTreePageId.INTERNAL),
+					BTreeInternalPage.createEmptyPageData(), keyFields).getMaxEntries();
+		}
+		internalFill = Math.max(maxEntrySize, Math.min(internalCapacity, (int) (fillFactor * internalCapacity)));
+		internalMin = Math.max(1, internalCapacity / 2);
+
+		this.nextPageNo = firstPageNo;
+		this.raf = new RandomAccessFile(bf.getFile(), "rw");
+		this.channel = raf.getChannel();
+	}
+
+	/**
+	 * Add the next tuple to the tree.
+	 *
+	 * @throws DbException if the tuple doesn't match the tree's TupleDesc or
+	 * its key is less than the key of the tuple before it
+	 */
+	void add(Tuple t) throws DbException, IOException {
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch in bulk load");
+		Field key = CompositeField.of(t, keyFields);
+		if (lastKey != null && key.compare(Op.LESS_THAN, lastKey))
+			throw new DbException("bulk load input is not sorted on fields " + Arrays.toString(keyFields));
+		lastKey = key;
+		tuples.add(t);
+		// keep enough tuples back for the last leaf to be at least half full
+		if (tuples.size() >= leafFill + leafMin)
+			addLeaf(leafFill);
+	}
+
+	/**
+	 * Build the pages that are still missing, and write out every page that
+	 * hasn't been written yet. The file is forced to disk before returning.
+	 *
+	 * @return the id of the root page, or null if no tuples were added
+	 */
+	BTreePageId finish() throws DbException, IOException {
+		if (tuples.isEmpty() && levels.isEmpty())
+			return null;
+		if (tuples.size() > maxTuples)
+			addLeaf(tuples.size() / 2);
+		addLeaf(tuples.size());
+
+		for (int height = 0; ; height++) {
+			List<Node> pages = levels.get(height);
+			if (height == levels.size() - 1 && pages.size() == 1) {
+				Node root = pages.get(0);
+				write(root, 0);
+				channel.force(true);
+				return root.id;
+			}
+			// the pages left can share one or two parents
+			int size = size(pages, pages.size());
+			if (size > internalCapacity)
+				addInternal(height, fit(pages, (size - maxEntrySize) / 2));
+			addInternal(height, pages.size());
+		}
+	}
+
+	void close() throws IOException {
+		raf.close();
+	}
+
+	private List<Node> level(int height) {
+		while (levels.size() <= height)
+			levels.add(new ArrayList<>());
+		return levels.get(height);
+	}
+
+	/** Put the first n tuples waiting for a leaf on a new leaf. */
+	private void addLeaf(int n) throws DbException, IOException {
+		List<Tuple> page = tuples.subList(0, n);
+		BTreePageId pid = new BTreePageId(tableid, nextPageNo++, BTreePageId.LEAF);
+		byte[] data = BTreeFileEncoder.convertToLeafPage(page, pageSize, types.length, types, keyFields);
+		List<Node> leaves = level(0);
+		if (!leaves.isEmpty()) {
+			// the leaf before this one always still waits for its parent
+			Node prev = leaves.get(leaves.size() - 1);
+			setPointer(data, LEFT_SIBLING, prev.id);
+			setPointer(prev.data, RIGHT_SIBLING, pid);
+		}
+		Field minKey = CompositeField.of(page.get(0), keyFields);
+		if (lastLeafKey != null)
+			minKey = BTreeInternalPage.getSeparator(lastLeafKey, minKey);
+		lastLeafKey = CompositeField.of(page.get(page.size() - 1), keyFields);
+		page.clear();
+		add(0, new Node(pid, data, minKey));
+	}
+
+	private void add(int height, Node node) throws DbException, IOException {
+		List<Node> pages = level(height);
+		if (!pages.isEmpty())
+			node.size = compressed ?
+					BTreeInternalPage.getEntrySize(pages.get(pages.size() - 1).minKey, node.minKey, keyTypes) : 1;
+		pages.add(node);
+		// keep enough pages back for their last parent to be at least half full
+		if (size(pages, pages.size()) >= internalFill + internalMin + maxEntrySize)
+			addInternal(height, fit(pages, internalFill));
+	}
+
+	/** @return what the entries of a parent of the first n pages take up */
+	private static int size(List<Node> pages, int n) {
+		int size = 0;
+		for (int i = 1; i < n; i++)
+			size += pages.get(i).size;
+		return size;
+	}
+
+	/** @return the most of the first pages whose parent's entries take up at most size */
+	private static int fit(List<Node> pages, int size) {
+		int n = 1;
+		int total = 0;
+		while (n < pages.size() && total + pages.get(n).size <= size)
+			total += pages.get(n++).size;
+		return n;
+	}
+
+	/** Make a parent for the first n pages of a level, and write them out. */
+	private void addInternal(int height, int n) throws DbException, IOException {
+		List<Node> children = levels.get(height).subList(0, n);
+		BTreePageId pid = new BTreePageId(tableid, nextPageNo++, BTreePageId.INTERNAL);
+		List<BTreeEntry> entries = new ArrayList<>(n - 1);
+		for (int i = 1; i < n; i++) {
+			entries.add(new BTreeEntry(children.get(i).minKey, children.get(i - 1).id, children.get(i).id));
+		}
+		byte[] data = BTreeFileEncoder.convertToInternalPage(entries, pageSize, keyTypes,
+				height == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+		for (Node child : children) {
+			write(child, pid.getPageNumber());
+		}
+		Field minKey = children.get(0).minKey;
+		children.clear();
+		add(height + 1, new Node(pid, data, minKey));
+	}
+
+	private void write(Node node, int parent) throws IOException {
+		ByteBuffer.wrap(node.data).putInt(PARENT, parent);
+		ByteBuffer buf = ByteBuffer.wrap(node.data);
+		long offset = BTreeRootPtrPage.getPageSize() + (long) (node.id.getPageNumber() - 1) * pageSize;
+		while (buf.hasRemaining()) {
+			offset += channel.write(buf, offset);
+		}
+		// nothing should have cached a page past the end of the file, but make sure
+		Database.getBufferPool().discardPage(node.id);
+	}
+
+	private static void setPointer(byte[] data, int offset, BTreePageId pid) {
+		ByteBuffer.wrap(data).putInt(offset, pid.getPageNumber());
+	}
+}
@@ -3,10 +3,12 @@ package simpledb.index;
 import java.io.*;
 import java.security.Permission;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
@@ -32,7 +34,79 @@ public class BTreeFile implements DbFile {
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
-	private final int keyField;
+	private final int[] keyFields;
+
+	// Short-term latch over the structure of the tree, separate from the
+	// transaction locks. Lookups hold it shared while they descend, reading
+	// the root pointer and internal pages without locking them; structure
+	// modifications (splits, merges, redistributions and root changes)
+	// hold it exclusively. See findLeafPage and modifyStructure.
+	private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+	// bumped by every structure modification, under the exclusive latch
+	private volatile long modifications = 0;
+	// what the pages changed by the running structure modification looked
+	// like before it, so that it can start over; only used by the latch holder
+	private Map<PageId, byte[]> smoImages = null;
+	// the right-most leaf, for inserting increasing keys without descending; see findAppendLeaf
+	private volatile AppendHint appendHint = null;
+	// where getEmptyPageNo starts looking for a free page; guarded by this
+	private FreePageHint freePageHint = null;
+	// the last page number getEmptyPageNo took past the end of the file,
+	// which may not have been written yet; guarded by this
+	private int lastNewPage = 0;
+
+	/**
+	 * Thrown inside a structure modification when a page it needs is locked
+	 * by another transaction, since it must not wait with the latch held.
+	 */
+	private static class LockConflict extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final BTreePageId pid;
+		final Permissions perm;
+
+		LockConflict(BTreePageId pid, Permissions perm) {
+			super(null, null, false, false);
+			this.pid = pid;
+			this.perm = perm;
+		}
+	}
+
+	/** The right-most leaf, as of the last tuple inserted there. */
+	private static class AppendHint {
+		final BTreePageId pid;
+		final Field key; // the key of that tuple
+		final long modifications; // the structure modification count then
+
+		AppendHint(BTreePageId pid, Field key, long modifications) {
+			this.pid = pid;
+			this.key = key;
+			this.modifications = modifications;
+		}
+	}
+
+	/**
+	 * Where getEmptyPageNo left off: no header page before this one has an
+	 * empty slot, and neither has this one before slot. setEmptyPage moves
+	 * it back when it frees a page before it. An abort puts back the header
+	 * pages it changed, which may free slots before it, so the hint only
+	 * holds while the header page in the cache is the one it was taken from.
+	 */
+	private static class FreePageHint {
+		final BTreeHeaderPage page;
+		final int headerPageCount; // the number of header pages before it
+		final int slot;
+
+		FreePageHint(BTreeHeaderPage page, int headerPageCount, int slot) {
+			this.page = page;
+			this.headerPageCount = headerPageCount;
+			this.slot = slot;
+		}
+	}
+
+	/** A change to the structure of the tree, run by modifyStructure. */
+	private interface StructureChange<T> {
+		T apply() throws DbException, IOException, TransactionAbortedException;
+	}
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -43,9 +117,28 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, new int[] { key }, td);
+	}
+
+	/**
+	 * Constructs a B+ tree file keyed on several fields, backed by the
+	 * specified file. The keys are CompositeFields of the key fields, so the
+	 * tuples are sorted on the first key field, then the second, and so on,
+	 * and a CompositeField of the leading key fields (or just the first key
+	 * field) finds all the tuples with that prefix.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param keyFields - the fields which index is keyed on, in order
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @see CompositeField
+	 */
+	public BTreeFile(File f, int[] keyFields, TupleDesc td) {
+		if (keyFields.length == 0)
+			throw new IllegalArgumentException("a B+ tree needs at least one key field");
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
-		this.keyField = key;
+		this.keyFields = keyFields.clone();
 		this.td = td;
 	}
 
@@ -118,9 +211,9 @@ public class BTreeFile implements DbFile {
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
+                    return new BTreeInternalPage(id, pageBuf, keyFields);
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
+                    return new BTreeLeafPage(id, pageBuf, keyFields);
                 } else { // id.pgcateg() == BTreePageId.HEADER
                     return new BTreeHeaderPage(id, pageBuf);
                 }
@@ -157,101 +250,279 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
-	public int numPages() {
-		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+	public synchronized int numPages() {
+		// we only ever write full pages, and the ones getEmptyPageNo has
+		// handed out count even before they are written
+		return Math.max((int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize()), lastNewPage);
 	}
 
 	/**
-	 * Returns the index of the field that this B+ tree is keyed on
+	 * Returns the index of the field that this B+ tree is keyed on, or of
+	 * the first one if it is keyed on several
 	 */
 	public int keyField() {
-		return keyField;
+		return keyFields[0];
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * Returns the indexes of the fields that this B+ tree is keyed on
+	 */
+	public int[] keyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * Returns the key of a tuple: its key field, or a CompositeField of its
+	 * key fields if the tree is keyed on several
+	 */
+	public Field getKey(Tuple t) {
+		return CompositeField.of(t, keyFields);
+	}
+
+	/**
+	 * Finds and locks the leaf page in the B+ tree corresponding to
+	 * the left-most page possibly containing the key field f. The internal
+	 * nodes along the path are not locked: they are read under the shared
+	 * latch, which keeps structure modifications out while the lookup
+	 * descends. Only the leaf node is locked, with permission perm.
+	 * 
+	 * A page on the path that another transaction has write locked belongs
+	 * to a structure modification that has not committed yet, so the lookup
+	 * waits for that transaction and starts over. It also starts over if the
+	 * structure changed while it was waiting for the lock on the leaf.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @return the left-most leaf page possibly containing the key field f, or null
+	 * if the tree has no root page yet
 	 * 
 	 */
-	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm,
                                        Field f)
-					throws DbException, TransactionAbortedException {
-		// some code goes here
-		BTreePage pagePtr;
-
-		pagePtr = (BTreePage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-
-		if (pid.pgcateg() == BTreePageId.LEAF) {
-			return (BTreeLeafPage) pagePtr;
-		}
-
-		if (f == null) {
-			while (pagePtr.getId().pgcateg() != BTreePageId.LEAF) {
-				BTreeEntry entry = ((BTreeInternalPage) pagePtr).iterator().next();
-				pagePtr = (BTreePage) getPage(tid, dirtypages, entry.getLeftChild(), Permissions.READ_ONLY);
+					throws DbException, IOException, TransactionAbortedException {
+		createIfEmpty();
+		while (true) {
+			long seen;
+			BTreePageId pid;
+			latch.readLock().lock();
+			try {
+				seen = modifications;
+				pid = descend(tid, dirtypages, f);
+			} finally {
+				latch.readLock().unlock();
+			}
+			if (pid == null)
+				return null;
+			if (pid.pgcateg() != BTreePageId.LEAF) {
+				waitForLock(tid, pid);
+				continue;
 			}
-			pagePtr = (BTreePage) getPage(tid, dirtypages, pagePtr.getId(), perm);
-			return (BTreeLeafPage) pagePtr;
+			BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+			if (modifications == seen)
+				return leaf;
 		}
+	}
 
-		while (pagePtr.getId().pgcateg() != BTreePageId.LEAF && pagePtr.getId().pgcateg() == BTreePageId.INTERNAL) {
-			BTreeInternalPage internalPage = (BTreeInternalPage) pagePtr;
-			Iterator<BTreeEntry> entries = internalPage.iterator();
-			while (entries.hasNext()) {
-				BTreeEntry entry = entries.next();
-				if (f.compare(Op.LESS_THAN_OR_EQ, entry.getKey())) {
-					// find the next internal page or the leafPage
-					pagePtr = (BTreePage) getPage(tid, dirtypages, entry.getLeftChild(), Permissions.READ_ONLY);
-					break;
-				} else {
-					if (!entries.hasNext()) {
-						// reach the last entry
-						pagePtr = (BTreePage) getPage(tid, dirtypages, entry.getRightChild(), Permissions.READ_ONLY);
-						break;
-					}
-				}
-			}
-			if (pagePtr.getId().pgcateg() == BTreePageId.LEAF) {
-				// find the leafPage
-				// 1. update the permission
-				pagePtr = (BTreePage) getPage(tid, dirtypages, pagePtr.getId(), perm);
-				// should I release the lock? No worry, the bufferpool will handle this
-				return (BTreeLeafPage) pagePtr;
-			}
+	/**
+	 * Descend from the root pointer to the leaf page corresponding to the key
+	 * field f, binary searching each internal page for the child to follow.
+	 * Must be called with the latch held.
+	 * 
+	 * @return the id of the leaf page, the id of the first page on the path
+	 * that another transaction has write locked, or null if there is no root
+	 */
+	private BTreePageId descend(TransactionId tid, Map<PageId, Page> dirtypages, Field f)
+			throws DbException {
+		BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getLatchedPage(tid, dirtypages, pid);
+		if (rootPtr == null)
+			return pid;
+		pid = rootPtr.getRootId();
+		while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage internalPage = (BTreeInternalPage) getLatchedPage(tid, dirtypages, pid);
+			if (internalPage == null)
+				return pid;
+			BTreePageId child = internalPage.findChildId(f);
+			if (child == null)
+				throw new DbException("internal page " + pid.getPageNumber() + " has no entries");
+			pid = child;
 		}
+		if (pid != null && pid.pgcateg() != BTreePageId.LEAF)
+			throw new DbException("findLeafPage reached a page that is neither internal nor a leaf");
+		return pid;
+	}
 
-		// the code shouldn't go here
-		// 由于不是从根节点开始搜索，所以完全存在走到这里的情况
-		throw new RuntimeException();
+	/**
+	 * Read a page of the tree's structure without locking it. Must be called
+	 * with the latch held.
+	 * 
+	 * @return the page, or null if another transaction has it write locked
+	 */
+	private Page getLatchedPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid)
+			throws DbException {
+		Page p = dirtypages.get(pid);
+		if (p != null)
+			return p;
+		if (Database.getBufferPool().isWriteLockedByOther(tid, pid))
+			return null;
+		return Database.getBufferPool().getPageUnlocked(pid);
+	}
+
+	/**
+	 * Wait until the transaction writing a page is done with it, by taking a
+	 * read lock on it. The lock is given back unless tid held one already,
+	 * since the page is read under the latch from then on.
+	 */
+	private void waitForLock(TransactionId tid, BTreePageId pid)
+			throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		boolean held = bp.holdsLock(tid, pid);
+		bp.getPage(tid, pid, Permissions.READ_ONLY);
+		if (!held)
+			bp.unsafeReleasePage(tid, pid);
 	}
 	
+	/**
+	 * Find and lock the right-most leaf page for a key that goes after the last
+	 * one inserted there, without descending from the root. This is what keys
+	 * that keep increasing do, such as sequence numbers and timestamps.
+	 * 
+	 * The leaf is remembered by insertTuple, together with the count of
+	 * structure modifications at the time, and only used while there have
+	 * been no others since. Aborted structure modifications don't count, so
+	 * once the leaf is locked, it is checked against its parent under the
+	 * latch to still be the right-most leaf, and for the key to belong on it.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param key - the key of the tuple to insert
+	 * @return the right-most leaf page, locked for writing, or null if the key
+	 * doesn't go after the last one or the leaf is no longer known
+	 */
+	private BTreeLeafPage findAppendLeaf(TransactionId tid, Map<PageId, Page> dirtypages, Field key)
+			throws DbException, TransactionAbortedException {
+		AppendHint hint = appendHint;
+		if(hint == null || hint.modifications != modifications || key.compare(Op.LESS_THAN, hint.key))
+			return null;
+
+		BufferPool bp = Database.getBufferPool();
+		boolean held = bp.holdsLock(tid, hint.pid);
+		BTreeLeafPage leaf = (BTreeLeafPage) bp.getPage(tid, hint.pid, Permissions.READ_WRITE);
+		boolean rightmost;
+		latch.readLock().lock();
+		try {
+			rightmost = hint.modifications == modifications && isRightmostLeaf(tid, dirtypages, leaf, key);
+		} finally {
+			latch.readLock().unlock();
+		}
+		if(!rightmost) {
+			if(!held)
+				bp.unsafeReleasePage(tid, hint.pid);
+			return null;
+		}
+		return (BTreeLeafPage) getPage(tid, dirtypages, hint.pid, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * @return whether leaf is the right-most leaf of the tree and key may go on
+	 * it. Must be called with the latch held.
+	 */
+	private boolean isRightmostLeaf(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage leaf,
+			Field key) throws DbException {
+		if(leaf.getRightSiblingId() != null)
+			return false;
+		Page parent = getLatchedPage(tid, dirtypages, leaf.getParentId());
+		if(parent instanceof BTreeRootPtrPage)
+			return leaf.getId().equals(((BTreeRootPtrPage) parent).getRootId());
+		if(!(parent instanceof BTreeInternalPage))
+			return false;
+		Iterator<BTreeEntry> it = ((BTreeInternalPage) parent).reverseIterator();
+		if(!it.hasNext())
+			return false;
+		BTreeEntry last = it.next();
+		return last.getRightChild().equals(leaf.getId()) && key.compare(Op.GREATER_THAN_OR_EQ, last.getKey());
+	}
+
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
 	 * Used by the BTreeFile iterator.
-	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+	 * @see #findLeafPage(TransactionId, Map, Permissions, Field)
 	 * 
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @return the left-most leaf page possibly containing the key field f, or null
+	 * if the tree is empty
 	 * 
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid,
-                               Field f)
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+		try {
+			return findLeafPage(tid, new HashMap<>(), Permissions.READ_ONLY, f);
+		} catch (IOException e) {
+			throw new DbException("could not create " + getFile() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Run a change to the structure of the tree under the exclusive latch.
+	 * The change never waits for a lock with the latch held: if a page it
+	 * needs is locked by another transaction, the pages it changed so far
+	 * are put back the way they were, the latch is released while waiting
+	 * for the lock, and the change starts over.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - a page the change modifies that was fetched before it started, or null
+	 * @param change - the change to make
+	 * @return the result of the change
+	 */
+	private <T> T modifyStructure(TransactionId tid, Map<PageId, Page> dirtypages, BTreePage page,
+			StructureChange<T> change) throws DbException, IOException, TransactionAbortedException {
+		while (true) {
+			LockConflict conflict;
+			latch.writeLock().lock();
+			try {
+				smoImages = new HashMap<>();
+				if (page != null)
+					smoImages.put(page.getId(), page.getPageData());
+				try {
+					return change.apply();
+				} catch (LockConflict e) {
+					conflict = e;
+					for (Map.Entry<PageId, byte[]> image : smoImages.entrySet()) {
+						restorePage(dirtypages.get(image.getKey()), image.getValue());
+					}
+					// the header pages put back may have free slots before the hint
+					synchronized(this) {
+						freePageHint = null;
+					}
+				}
+			} finally {
+				smoImages = null;
+				modifications++;
+				latch.writeLock().unlock();
+			}
+			if(conflict.perm == Permissions.READ_WRITE) {
+				// the change will need the lock again when it starts over
+				Database.getBufferPool().getPage(tid, conflict.pid, conflict.perm);
+			}
+			else {
+				waitForLock(tid, conflict.pid);
+			}
+		}
+	}
+
+	private static void restorePage(Page p, byte[] data) throws IOException {
+		if (p instanceof BTreePage)
+			((BTreePage) p).restorePageData(data);
+		else if (p instanceof BTreeRootPtrPage)
+			((BTreeRootPtrPage) p).restorePageData(data);
+		else if (p instanceof BTreeHeaderPage)
+			((BTreeHeaderPage) p).restorePageData(data);
 	}
 
 	/**
@@ -261,6 +532,14 @@ public class BTreeFile implements DbFile {
 	 * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
 	 * pointers as needed.  
 	 * 
+	 * A tuple appended after the last one in the right-most leaf is likely followed by more
+	 * increasing keys, so that leaf is split unevenly: only a tenth of its tuples move to the
+	 * new page, which will take the keys that follow, and the old page stays nearly full.
+	 * 
+	 * On a tree keyed on a string, the key copied up is cut down to the shortest one that
+	 * still separates the two pages, so that the parent can hold more entries.
+	 * @see BTreeInternalPage#getSeparator(Field, Field)
+	 * 
 	 * Return the leaf page into which a new tuple with key field "field" should be inserted.
 	 * 
 	 * @param tid - the transaction id
@@ -268,7 +547,7 @@ public class BTreeFile implements DbFile {
 	 * @param page - the leaf page to split
 	 * @param field - the key field of the tuple to be inserted after the split is complete. Necessary to know
 	 * which of the two pages to return.
-	 * @see #getParentWithEmptySlots(TransactionId, Map, BTreePageId, Field)
+	 * @see #getParentWithEmptySlots(TransactionId, Map, BTreePageId, Field, boolean)
 	 * 
 	 * @return the leaf page into which the new tuple should be inserted
 	 * @throws DbException
@@ -286,6 +565,9 @@ public class BTreeFile implements DbFile {
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
 
+		boolean append = page.getRightSiblingId() == null && page.getNumTuples() > 0 &&
+				field.compare(Op.GREATER_THAN_OR_EQ, getKey(page.reverseIterator().next()));
+
 		// 1. create the new page
 		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
 		// 2. update the pointers of siblings
@@ -298,7 +580,7 @@ public class BTreeFile implements DbFile {
 		page.setRightSiblingId(newPage.getId());
 		newPage.setLeftSiblingId(page.getId());
 		// 3. move entries to new page
-		int numToMove = page.getNumTuples() / 2; // TODO: At this time, numToMove == page.numSlots. So no need to go through the page header again
+		int numToMove = append ? Math.max(1, page.getNumTuples() / 10) : page.getNumTuples() / 2;
 		Iterator<Tuple> entries = page.reverseIterator();
 		Field fieldToCopy = null;
 		for (int i = 0; i < numToMove; i++) {
@@ -306,11 +588,12 @@ public class BTreeFile implements DbFile {
 			page.deleteTuple(tuple);
 			newPage.insertTuple(tuple);
 			if (i == numToMove - 1) {
-				fieldToCopy = tuple.getField(keyField);
+				fieldToCopy = getKey(tuple);
 			}
 		}
+		fieldToCopy = BTreeInternalPage.getSeparator(getKey(page.reverseIterator().next()), fieldToCopy);
 		// 4. getParentWithEmtpySlots and insert new entry
-		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), fieldToCopy);
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), fieldToCopy, append);
 		newPage.setParentId(parent.getId());
 		BTreeEntry newEntry = new BTreeEntry(fieldToCopy, page.getId(), newPage.getId());
 		parent.insertEntry(newEntry);
@@ -336,7 +619,7 @@ public class BTreeFile implements DbFile {
 	 * @param page - the internal page to split
 	 * @param field - the key field of the entry to be inserted after the split is complete. Necessary to know
 	 * which of the two pages to return.
-	 * @see #getParentWithEmptySlots(TransactionId, Map, BTreePageId, Field)
+	 * @see #getParentWithEmptySlots(TransactionId, Map, BTreePageId, Field, boolean)
 	 * @see #updateParentPointers(TransactionId, Map, BTreeInternalPage)
 	 * 
 	 * @return the internal page into which the new entry should be inserted
@@ -347,6 +630,18 @@ public class BTreeFile implements DbFile {
 	public BTreeInternalPage splitInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
 			BTreeInternalPage page, Field field)
 					throws DbException, IOException, TransactionAbortedException {
+		return splitInternalPage(tid, dirtypages, page, field, false);
+	}
+
+	/**
+	 * Split an internal page as above. If append is set, the page is the right-most one on its
+	 * level and the new entry goes after all of its entries, because a tuple is being appended
+	 * after the right-most leaf; then only a tenth of the entries move to the new page.
+	 * @see #splitLeafPage(TransactionId, Map, BTreeLeafPage, Field)
+	 */
+	private BTreeInternalPage splitInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
+			BTreeInternalPage page, Field field, boolean append)
+					throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
         //
         // Split the internal page by adding a new page on the right of the existing
@@ -361,7 +656,7 @@ public class BTreeFile implements DbFile {
 		BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
 		// dirtypages.put(newPage.getId(), newPage);
 		Field keyToPush = null;
-		int numToMove = page.getNumEntries() / 2;
+		int numToMove = page.getNumToMove(append);
 		BTreeEntry entryToPush = null;
 		Iterator<BTreeEntry> reversedEntries = page.reverseIterator();
 		for (int i = 0; i <= numToMove; i++) {
@@ -379,7 +674,7 @@ public class BTreeFile implements DbFile {
 		entryToPush.setRightChild(newPage.getId());
 		// 2. find the parent the Internal Node to insert the new Entry
 		// also, do remember to set the parent node of the newly created node
-		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), keyToPush);
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), keyToPush, append);
 		newPage.setParentId(parent.getId());
 		// 3.update e the left pointer of the node after the push up node should be modified(how to find that?)
 		parent.insertEntry(entryToPush);
@@ -403,15 +698,17 @@ public class BTreeFile implements DbFile {
 	 * @param parentId - the id of the parent. May be an internal page or the RootPtr page
 	 * @param field - the key of the entry which will be inserted. Needed in case the parent must be split
 	 * to accommodate the new entry
+	 * @param append - whether the entry is added after the last one of the right-most parent, in which
+	 * case the parent is split unevenly if it is full
 	 * @return the parent page, guaranteed to have at least one empty slot
-	 * @see #splitInternalPage(TransactionId, Map, BTreeInternalPage, Field)
+	 * @see #splitInternalPage(TransactionId, Map, BTreeInternalPage, Field, boolean)
 	 * 
 	 * @throws DbException
 	 * @throws IOException
 	 * @throws TransactionAbortedException
 	 */
 	private BTreeInternalPage getParentWithEmptySlots(TransactionId tid, Map<PageId, Page> dirtypages,
-			BTreePageId parentId, Field field) throws DbException, IOException, TransactionAbortedException {
+			BTreePageId parentId, Field field, boolean append) throws DbException, IOException, TransactionAbortedException {
 		
 		BTreeInternalPage parent = null;
 		
@@ -436,15 +733,37 @@ public class BTreeFile implements DbFile {
 					Permissions.READ_WRITE);
 		}
 
-		// split the parent if needed
-		if(parent.getNumEmptySlots() == 0) {
-			parent = splitInternalPage(tid, dirtypages, parent, field);
+		// split the parent if needed. A compressed page with long keys may
+		// need more than one split to make room for another
+		while(parent.getNumEmptySlots() == 0) {
+			parent = splitInternalPage(tid, dirtypages, parent, field, append);
 		}
 
 		return parent;
 
 	}
 
+	/**
+	 * Split a compressed internal page that holds more than fits on disk, as it may
+	 * after taking entries from a sibling or having a key replaced with a longer one,
+	 * until all of its parts fit.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the page to split if it is overfull
+	 * @see BTreeInternalPage#isOverfull()
+	 */
+	private void splitIfOverfull(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage page)
+			throws DbException, IOException, TransactionAbortedException {
+		if(!page.isOverfull())
+			return;
+		// split off the entries after the middle, and get the new page back
+		Field last = page.reverseIterator().next().getKey();
+		BTreeInternalPage newPage = splitInternalPage(tid, dirtypages, page, last, false);
+		splitIfOverfull(tid, dirtypages, page);
+		splitIfOverfull(tid, dirtypages, newPage);
+	}
+
 	/**
 	 * Helper function to update the parent pointer of a node.
 	 * 
@@ -502,6 +821,9 @@ public class BTreeFile implements DbFile {
 	 * This method is needed to ensure that page updates are not lost if the same pages are
 	 * accessed multiple times.
 	 * 
+	 * Inside modifyStructure, a page that another transaction has locked is not waited for;
+	 * the modification is rolled back and started over instead.
+	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param pid - the id of the requested page
@@ -514,16 +836,32 @@ public class BTreeFile implements DbFile {
 	 */
 	Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
 			throws DbException, TransactionAbortedException {
-		if(dirtypages.containsKey(pid)) {
-			return dirtypages.get(pid);
-		}
-		else {
-			Page p = Database.getBufferPool().getPage(tid, pid, perm);
+		// within a structure modification, don't wait for locks with the latch
+		// held, and remember each page before it is changed
+		boolean modifying = latch.isWriteLockedByCurrentThread() && smoImages != null;
+		Page p = dirtypages.get(pid);
+		if(p == null) {
+			if(modifying) {
+				p = Database.getBufferPool().tryGetPage(tid, pid, perm);
+				if(p == null) {
+					throw new LockConflict(pid, perm);
+				}
+			}
+			else {
+				p = Database.getBufferPool().getPage(tid, pid, perm);
+			}
 			if(perm == Permissions.READ_WRITE) {
+				// mark the page dirty right away: the buffer pool then neither evicts it
+				// without writing it out nor drops the lock while it is being changed,
+				// and an abort rolls back whatever part of the change was made
+				p.markDirty(true, tid);
 				dirtypages.put(pid, p);
 			}
-			return p;
 		}
+		if(modifying && perm == Permissions.READ_WRITE && !smoImages.containsKey(pid)) {
+			smoImages.put(pid, p.getPageData());
+		}
+		return p;
 	}
 
 	/**
@@ -539,26 +877,41 @@ public class BTreeFile implements DbFile {
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
+		Field key = getKey(t);
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
-
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+		// find and lock the left-most leaf page corresponding to the key field, unless
+		// the key goes after the last one inserted into the right-most leaf
+		BTreeLeafPage leafPage = findAppendLeaf(tid, dirtypages, key);
+		if(leafPage == null) {
+			leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, key);
+		}
+		while(leafPage == null) {
+			// the root has just been created, so set the root pointer to point to it
+			modifyStructure(tid, dirtypages, null, () -> {
+				BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+						BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				if(rootPtr.getRootId() == null) {
+					rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+				}
+				return null;
+			});
+			leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, key);
 		}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// split the leaf page if there are no more slots available. Holding the
+		// write lock on the leaf keeps anybody else from splitting or merging it
+		// in the meantime
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			BTreeLeafPage fullPage = leafPage;
+			leafPage = modifyStructure(tid, dirtypages, fullPage,
+					() -> splitLeafPage(tid, dirtypages, fullPage, key));
 		}
 
 		// insert the tuple into the leaf page
 		leafPage.insertTuple(t);
+		if(leafPage.getRightSiblingId() == null) {
+			appendHint = new AppendHint(leafPage.getId(), key, modifications);
+		}
 
         return new ArrayList<>(dirtypages.values());
 	}
@@ -647,6 +1000,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {	
@@ -658,6 +1012,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -665,7 +1020,7 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Steal tuples from a sibling and copy them to the given page so that both pages are at least
 	 * half full.  Update the parent's entry so that the key matches the key field of the first
-	 * tuple in the right-hand page.
+	 * tuple in the right-hand page, cut down as in {@link #splitLeafPage}.
 	 * 
 	 * @param page - the leaf page which is less than half full
 	 * @param sibling - the sibling which has tuples to spare
@@ -701,9 +1056,11 @@ public class BTreeFile implements DbFile {
 		// 2. update the parent entry
 		Field newKey;
 		if (isRightSibling) {
-			newKey = sibling.iterator().next().getField(this.keyField);
+			newKey = BTreeInternalPage.getSeparator(getKey(page.reverseIterator().next()),
+					getKey(sibling.iterator().next()));
 		} else {
-			newKey = tupleToSteal.getField(this.keyField);
+			newKey = BTreeInternalPage.getSeparator(getKey(sibling.reverseIterator().next()),
+					getKey(tupleToSteal));
 		}
 		BTreeEntry newEntry = new BTreeEntry(newKey, entry.getLeftChild(), entry.getRightChild());
 		newEntry.setRecordId(entry.getRecordId());
@@ -739,27 +1096,30 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(leftSibling)) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				splitIfOverfull(tid, dirtypages, page);
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(rightSibling)) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				splitIfOverfull(tid, dirtypages, page);
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -797,7 +1157,7 @@ public class BTreeFile implements DbFile {
 
 		// 1. rotate the entry
 		// FIXME: too much overhead in this loop
-		int numToSteal = (leftSibling.getNumEntries() + page.getNumEntries()) / 2 - page.getNumEntries();
+		int numToSteal = page.getNumToSteal(leftSibling, false);
 		Iterator<BTreeEntry> bTreeEntryIterator = leftSibling.reverseIterator();
 		for (int i = 0; i < numToSteal; i++) {
 			BTreeEntry entryToSteal = bTreeEntryIterator.next();
@@ -853,7 +1213,7 @@ public class BTreeFile implements DbFile {
 
 		// 1. rotate the entry
 		// FIXME: too much overhead in this loop
-		int numToSteal = (rightSibling.getNumEntries() + page.getNumEntries()) / 2 - page.getNumEntries();
+		int numToSteal = page.getNumToSteal(rightSibling, true);
 		Iterator<BTreeEntry> bTreeEntryIterator = rightSibling.iterator();
 		for (int i = 0; i < numToSteal; i++) {
 			BTreeEntry entryToSteal = bTreeEntryIterator.next();
@@ -1014,8 +1374,7 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -1030,7 +1389,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isLessThanHalfFull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -1058,16 +1417,104 @@ public class BTreeFile implements DbFile {
 		// if the page is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+		if(page.getNumEmptySlots() > maxEmptySlots) {
+			modifyStructure(tid, dirtypages, page, () -> {
+				handleMinOccupancyPage(tid, dirtypages, page);
+				return null;
+			});
 		}
 
         return new ArrayList<>(dirtypages.values());
 	}
 
 	/**
-	 * Get a read lock on the root pointer page. Create the root pointer page and root page
-	 * if necessary.
+	 * Load tuples sorted on the key field into this B+ tree, which must not
+	 * hold any tuples yet. Much faster than inserting them one by one: the
+	 * leaves are filled in key order and the internal levels are built on top
+	 * of them, each page is written once, straight to the end of the file,
+	 * and nothing but the change to the root pointer is logged.
+	 *
+	 * The root pointer is locked for writing first, so lookups and structure
+	 * modifications of other transactions wait until tid is done. The new
+	 * pages are forced to disk before the root pointer is set to the new root,
+	 * so if tid aborts or the system crashes before it commits, the tree is
+	 * empty again and the new pages are simply not reachable from it.
+	 *
+	 * @param tid - the transaction id
+	 * @param sortedInput - the tuples to load, in key order; opened and closed by this method
+	 * @param fillFactor - the fraction of each page to fill, greater than 0 and at most 1.
+	 * Less than 1 leaves room for later inserts before pages have to split.
+	 * @return the number of tuples loaded
+	 * @throws DbException if the tree is not empty, or the input is not sorted on the key field
+	 * @see BTreeBulkLoader
+	 */
+	public int bulkLoad(TransactionId tid, OpIterator sortedInput, double fillFactor)
+			throws DbException, IOException, TransactionAbortedException {
+		if(!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException("fill factor must be greater than 0 and at most 1");
+		Map<PageId, Page> dirtypages = new HashMap<>();
+
+		createIfEmpty();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+				BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+		BTreePageId oldRoot = rootPtr.getRootId();
+		if(oldRoot != null && (oldRoot.pgcateg() != BTreePageId.LEAF ||
+				((BTreeLeafPage) getPage(tid, dirtypages, oldRoot, Permissions.READ_ONLY)).getNumTuples() > 0)) {
+			throw new DbException("can only bulk load an empty B+ tree");
+		}
+
+		// nobody else adds pages to the file while the root pointer is locked,
+		// so the new pages go after the ones there are now
+		int loaded = 0;
+		BTreePageId root;
+		BTreeBulkLoader loader = new BTreeBulkLoader(this, numPages() + 1, fillFactor);
+		try {
+			sortedInput.open();
+			while(sortedInput.hasNext()) {
+				loader.add(sortedInput.next());
+				loaded++;
+			}
+			root = loader.finish();
+		} finally {
+			sortedInput.close();
+			loader.close();
+		}
+
+		if(root != null) {
+			latch.writeLock().lock();
+			try {
+				rootPtr.setRootId(root);
+				modifications++;
+			} finally {
+				latch.writeLock().unlock();
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Create the root pointer page and root page if the file is empty.
+	 * 
+	 * @throws IOException
+	 */
+	private synchronized void createIfEmpty() throws IOException {
+		if(f.length() == 0) {
+			// create the root pointer page and the root page
+			BufferedOutputStream bw = new BufferedOutputStream(
+					new FileOutputStream(f, true));
+			byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
+			byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+			bw.write(emptyRootPtrData);
+			bw.write(emptyLeafData);
+			bw.close();
+		}
+	}
+
+	/**
+	 * Read the root pointer page. Create the root pointer page and root page
+	 * if necessary. The page is not locked: it only changes within structure
+	 * modifications, which lock it for writing first, and a modification that
+	 * finds it write locked by another transaction waits for that one instead.
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages 
@@ -1077,26 +1524,29 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-		synchronized(this) {
-			if(f.length() == 0) {
-				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+		createIfEmpty();
+		BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+		Page p = getLatchedPage(tid, dirtypages, pid);
+		if(p == null) {
+			if(latch.isWriteLockedByCurrentThread() && smoImages != null) {
+				// another transaction is changing the root or the header pages
+				throw new LockConflict(pid, Permissions.READ_ONLY);
 			}
+			p = Database.getBufferPool().getPageUnlocked(pid);
 		}
-
-		// get a read lock on the root pointer page
-		return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		return (BTreeRootPtrPage) p;
 	}
 
 	/**
 	 * Get the page number of the first empty page in this BTreeFile.
 	 * Creates a new page if none of the existing pages are empty.
+	 * <p>
+	 * The search for an empty slot in the header pages starts where the
+	 * last one left off (see FreePageHint), so taking pages one after another
+	 * does not walk the header pages from the first one each time. A new
+	 * page past the end of the file is only given a number here: the file
+	 * grows when getEmptyPage writes the page, so a number handed out and
+	 * never written leaves nothing behind in the file.
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -1114,26 +1564,54 @@ public class BTreeFile implements DbFile {
 		int emptyPageNo = 0;
 
 		if(headerId != null) {
-			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+			FreePageHint hint;
+			synchronized(this) {
+				hint = freePageHint;
+			}
+			BTreeHeaderPage headerPage = null;
 			int headerPageCount = 0;
-			// try to find a header page with an empty slot
-			while(headerPage != null && headerPage.getEmptySlot() == -1) {
-				headerId = headerPage.getNextPageId();
-				if(headerId != null) {
-					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-					headerPageCount++;
+			int from = 0;
+			if(hint != null) {
+				// start where the last search left off, unless the header page has been put back
+				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, hint.page.getId(), Permissions.READ_ONLY);
+				if(headerPage == hint.page) {
+					headerId = headerPage.getId();
+					headerPageCount = hint.headerPageCount;
+					from = hint.slot;
 				}
 				else {
 					headerPage = null;
 				}
 			}
+			if(headerPage == null) {
+				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+			}
+
+			// try to find a header page with an empty slot
+			int emptySlot;
+			while((emptySlot = headerPage.getEmptySlot(from)) == -1 && headerPage.getNextPageId() != null) {
+				headerId = headerPage.getNextPageId();
+				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+				headerPageCount++;
+				from = 0;
+			}
 
-			// if headerPage is not null, it must have an empty slot
-			if(headerPage != null) {
+			if(emptySlot != -1) {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-				int emptySlot = headerPage.getEmptySlot();
+				emptySlot = headerPage.getEmptySlot(from);
+			}
+			if(emptySlot != -1) {
 				headerPage.markSlotUsed(emptySlot, true);
 				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				from = emptySlot + 1;
+			}
+			else {
+				// the last header page is full, so next time start at its end
+				headerId = null;
+				from = BTreeHeaderPage.getNumSlots();
+			}
+			synchronized(this) {
+				freePageHint = new FreePageHint(headerPage, headerPageCount, from);
 			}
 		}
 
@@ -1141,13 +1619,10 @@ public class BTreeFile implements DbFile {
 		// or there are no free slots
 		if(headerId == null) {		
 			synchronized(this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+				// numPages counts the pages taken but not written yet, so
+				// concurrent calls get different pages
+				emptyPageNo = numPages() + 1;
+				lastNewPage = emptyPageNo;
 			}
 		}
 
@@ -1273,6 +1748,15 @@ public class BTreeFile implements DbFile {
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
 		headerPage.markSlotUsed(emptySlot, false);
+
+		// the next getEmptyPageNo must not start past the page freed here
+		synchronized(this) {
+			FreePageHint hint = freePageHint;
+			if(hint != null && (headerPageCount < hint.headerPageCount ||
+					(headerPageCount == hint.headerPageCount && emptySlot < hint.slot))) {
+				freePageHint = new FreePageHint(headerPage, headerPageCount, emptySlot);
+			}
+		}
 	}
 
 	/**
@@ -1336,11 +1820,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
-		it = curp.iterator();
+		curp = f.findLeafPage(tid, null);
+		if (curp != null)
+			it = curp.iterator();
 	}
 
 	/**
@@ -1421,17 +1903,18 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			curp = f.findLeafPage(tid, ipred.getField());
+			// skip the keys on the first page that are less than the field
+			if(curp != null)
+				it = curp.iterator(ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = f.findLeafPage(tid, null);
+			if(curp != null)
+				it = curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
@@ -1447,18 +1930,13 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+				Field key = f.getKey(t);
+				if (ipred.matches(key)) {
 					return t;
 				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
-					return null;
-				}
-				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
+				else if (ipred.isPastEnd(key)) {
+					// if the predicate was not satisfied by this key, it
+					// won't be by any key after it: we have hit the end
 					return null;
 				}
 			}
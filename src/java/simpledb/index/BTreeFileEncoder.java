@@ -113,31 +113,33 @@ public class BTreeFileEncoder {
 	 * comparator to sort Tuples by key field
 	 */
 	public static class TupleComparator implements Comparator<Tuple> {
-		private final int keyField;
+		private final int[] keyFields;
 
 		/** 
 		 * Construct a TupleComparator
 		 * 
-		 * @param keyField - the index of the field the tuples are keyed on
+		 * @param keyFields - the indexes of the fields the tuples are keyed on,
+		 *   compared in order
 		 */
-		public TupleComparator(int keyField) {
-			this.keyField = keyField;
+		public TupleComparator(int... keyFields) {
+			this.keyFields = keyFields.clone();
 		}
 
 		/**
-		 * Compare two tuples based on their key field
+		 * Compare two tuples based on their key fields
 		 * 
 		 * @return -1 if t1 < t2, 1 if t1 > t2, 0 if t1 == t2
 		 */
 		public int compare(Tuple t1, Tuple t2) {
-			int cmp = 0;
-			if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
-				cmp = -1;
-			}
-			else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
-				cmp = 1;
+			for(int keyField : keyFields) {
+				if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
+					return -1;
+				}
+				else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
+					return 1;
+				}
 			}
-			return cmp;
+			return 0;
 		}
 	}
 
@@ -503,6 +505,24 @@ public class BTreeFileEncoder {
 	public static byte[] convertToLeafPage(List<Tuple> tuples, int npagebytes,
 			int numFields, Type[] typeAr, int keyField)
 					throws IOException {
+		return convertToLeafPage(tuples, npagebytes, numFields, typeAr, new int[] { keyField });
+	}
+
+	/**
+	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage
+	 * keyed on several fields
+	 * 
+	 * @param tuples - the set of tuples
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields in each tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyFields - the fields of the tuples the B+ tree will be keyed on
+	 * @return a byte array which can be passed to the BTreeLeafPage constructor
+	 * @throws IOException
+	 */
+	public static byte[] convertToLeafPage(List<Tuple> tuples, int npagebytes,
+			int numFields, Type[] typeAr, int[] keyFields)
+					throws IOException {
 		int nrecbytes = 0;
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
@@ -551,7 +571,7 @@ public class BTreeFileEncoder {
 		if (i % 8 > 0)
 			dos.writeByte(headerbyte);
 
-		tuples.sort(new TupleComparator(keyField));
+		tuples.sort(new TupleComparator(keyFields));
 		for(int t = 0; t < recordcount; t++) {
 			TupleDesc td = tuples.get(t).getTupleDesc();
 			for(int j = 0; j < td.numFields(); j++) {
@@ -621,7 +641,38 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+		return convertToInternalPage(entries, npagebytes, new Type[] { keyType }, childPageCategory);
+	}
+
+	/**
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * keyed on several fields. If any of them is a string, the page is compressed.
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param keyTypes - the types of the key fields
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException
+	 */
+	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
+			Type[] keyTypes, int childPageCategory)
+					throws IOException {
+		if (BTreeInternalPage.isCompressed(keyTypes)) {
+			entries.sort(new EntryComparator());
+			int[] children = new int[entries.size() + 1];
+			Field[] keys = new Field[entries.size() + 1];
+			children[0] = entries.get(0).getLeftChild().getPageNumber();
+			for (int e = 0; e < entries.size(); e++) {
+				children[e + 1] = entries.get(e).getRightChild().getPageNumber();
+				keys[e + 1] = entries.get(e).getKey();
+			}
+			return BTreeInternalPage.createCompressedPageData(npagebytes, 0, childPageCategory, children, keys, keyTypes);
+		}
+		int keyLen = 0;
+		for (Type keyType : keyTypes)
+			keyLen += keyType.getLen();
+		int nentrybytes = keyLen + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
@@ -670,7 +721,7 @@ public class BTreeFileEncoder {
 		}
 
 		for(int e = entrycount; e < nentries; e++) {
-			for (int j=0; j<keyType.getLen(); j++) {
+			for (int j=0; j<keyLen; j++) {
 				dos.writeByte(0);
 			}
 		}
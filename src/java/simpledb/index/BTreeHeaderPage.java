@@ -122,6 +122,17 @@ public class BTreeHeaderPage implements Page {
 		}
 	}
 
+	/**
+	 * Overwrite the slots and pointers of this header page with those in the
+	 * given page data, keeping its before image and dirty state.
+	 */
+	void restorePageData(byte[] data) throws IOException {
+		BTreeHeaderPage p = new BTreeHeaderPage(pid, data);
+		nextPage = p.nextPage;
+		prevPage = p.prevPage;
+		System.arraycopy(p.header, 0, header, 0, header.length);
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -301,14 +312,29 @@ public class BTreeHeaderPage implements Page {
 	 * @return the index of the first empty slot or -1 if none exists
 	 */
 	public int getEmptySlot() {
-		for (int i=0; i<header.length; i++) {
-			if((int) header[i] != 0xFF) {
-				for(int j = 0; j < 8; j++) {
-					if(!isSlotUsed(i*8 + j)) {
-						return i*8 + j;
-					}
-				}
-			}
+		return getEmptySlot(0);
+	}
+
+	/**
+	 * get the index of the first empty slot at or after a given one. The
+	 * header is scanned 64 slots at a time, so a full header page costs a
+	 * few hundred word compares rather than a test per slot.
+	 * @param from - the slot to start looking at
+	 * @return the index of the first empty slot at or after from or -1 if none exists
+	 */
+	public int getEmptySlot(int from) {
+		for (int i = Math.max(from, 0) / 64 * 8; i < header.length; i += 8) {
+			// the slots of this word, with slot i*8 in the lowest bit
+			int n = Math.min(8, header.length - i);
+			long used = 0;
+			for (int j = 0; j < n; j++)
+				used |= (header[i + j] & 0xFFL) << (8 * j);
+			if (n < 8)
+				used |= -1L << (8 * n); // past the end of the header
+			if (i * 8 < from)
+				used |= (1L << (from - i * 8)) - 1; // before from
+			if (used != -1L)
+				return i * 8 + Long.numberOfTrailingZeros(~used);
 		}
 		return -1;
 	}
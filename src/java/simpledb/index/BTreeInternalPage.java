@@ -10,19 +10,35 @@ import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.storage.BufferPool;
+import simpledb.storage.CompositeField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The pages of an index keyed on a string field store their keys compressed:
+ * instead of a fixed-width slot per key, which for a string is 132 bytes
+ * whatever its length, each key is stored as the length of the prefix it
+ * shares with the key before it followed by the rest of its bytes. Such a
+ * page holds as many entries as fit in its bytes, and BTreeFile splits, merges
+ * and redistributes it by the space its entries take up rather than by their
+ * count; see {@link #isCompressed}.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
 public class BTreeInternalPage extends BTreePage {
+	// the bytes of a compressed page before its child pointers: the parent
+	// pointer, the child page category and the number of child pointers
+	static final int COMPRESSED_HEADER_SIZE = INDEX_SIZE + 1 + 2;
+
+	private final Type[] keyTypes;
+	private final boolean compressed;
 	private final byte[] header;
 	private final Field[] keys;
 	private final int[] children;
@@ -30,6 +46,11 @@ public class BTreeInternalPage extends BTreePage {
 	
 	private int childCategory; // either leaf or internal
 
+	// the used slots in key order, so that keys[sortedSlots[1..]] is a dense
+	// sorted array; rebuilt on the first search after the header changes
+	private final int[] sortedSlots;
+	private volatile int numSorted = -1;
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -43,7 +64,10 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        // the right-most pages may be less than half full, as appends split them unevenly.
+        // Redistributing a compressed page by bytes may leave it short of half full too
+        assert !checkOccupancy || depth <= 0 || null == upperBound || compressed || (getNumEntries() >= getMaxEntries() / 2);
+        assert !isOverfull();
 	}
 	
 	/**
@@ -62,6 +86,11 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * A compressed page instead holds the parent pointer, the child page
+	 * category, the number of child pointers as a short, the child pointers,
+	 * and then for each key the length of the prefix it shares with the key
+	 * before it, the length of the rest of it, and the rest of it; see
+	 * {@link #getKeyBytes} for how a key is turned into bytes.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -71,8 +100,25 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeInternalPage of an index keyed on several fields. Its keys
+	 * are CompositeFields, stored as the key fields one after the other.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
+		this.keyTypes = new Type[keyFields.length];
+		for (int i=0; i<keyTypes.length; i++)
+			keyTypes[i] = td.getFieldType(keyFields[i]);
+		this.compressed = isCompressed(keyTypes);
 		this.numSlots = getMaxEntries() + 1;
+		this.sortedSlots = new int[numSlots];
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -86,8 +132,17 @@ public class BTreeInternalPage extends BTreePage {
 		// read the child page category
 		childCategory = dis.readByte();
 
-		// allocate and read the header slots of this page
+		// allocate and read the header slots of this page; a compressed page
+		// keeps them only in memory, with its entries in the first slots
 		header = new byte[getHeaderSize()];
+		if (compressed) {
+			keys = new Field[numSlots];
+			children = new int[numSlots];
+			readCompressedEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
@@ -118,9 +173,15 @@ public class BTreeInternalPage extends BTreePage {
 
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * A compressed page can only hold that many if their keys are very short;
+	 * see {@link #getNumEmptySlots}.
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		if (compressed) {
+			return (BufferPool.getPageSize() - COMPRESSED_HEADER_SIZE - INDEX_SIZE) /
+					(INDEX_SIZE + 2 * getLengthBytes(keyTypes));
+		}
+		int keySize = getKeySize();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
@@ -149,7 +210,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -165,6 +226,16 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	void restorePageData(byte[] data) throws IOException {
+		BTreeInternalPage p = new BTreeInternalPage(pid, data, keyFields);
+		parent = p.parent;
+		childCategory = p.childCategory;
+		System.arraycopy(p.header, 0, header, 0, header.length);
+		System.arraycopy(p.keys, 0, keys, 0, keys.length);
+		System.arraycopy(p.children, 0, children, 0, children.length);
+		numSorted = -1;
+	}
+
 	/**
 	 * Read keys from the source file.
 	 */
@@ -172,7 +243,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<getKeySize(); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -185,7 +256,7 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = parseKey(dis);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -224,6 +295,234 @@ public class BTreeInternalPage extends BTreePage {
 		return child;
 	}
 
+	/**
+	 * Read the entries of a compressed page into the first slots.
+	 */
+	private void readCompressedEntries(DataInputStream dis) throws IOException {
+		int numChildren = dis.readUnsignedShort();
+		for (int i=0; i<numChildren; i++) {
+			children[i] = dis.readInt();
+			markSlotUsed(i, true);
+		}
+		int lengthBytes = getLengthBytes(keyTypes);
+		byte[] prev = new byte[0];
+		for (int i=1; i<numChildren; i++) {
+			int shared = readLength(dis, lengthBytes);
+			int rest = readLength(dis, lengthBytes);
+			byte[] b = Arrays.copyOf(prev, shared + rest);
+			dis.readFully(b, shared, rest);
+			keys[i] = parseKeyBytes(b, keyTypes);
+			prev = b;
+		}
+	}
+
+	private byte[] getCompressedPageData() {
+		int n = sortSlots();
+		int[] childIds = new int[n];
+		Field[] entryKeys = new Field[n];
+		for (int i=0; i<n; i++) {
+			childIds[i] = children[sortedSlots[i]];
+			entryKeys[i] = keys[sortedSlots[i]];
+		}
+		return createCompressedPageData(BufferPool.getPageSize(), parent, childCategory, childIds, entryKeys, keyTypes);
+	}
+
+	/**
+	 * @return whether the pages of an index keyed on fields of the given
+	 *   types store their keys compressed, which they do if any of the key
+	 *   fields is a string
+	 */
+	static boolean isCompressed(Type[] keyTypes) {
+		for (Type t : keyTypes) {
+			if (t == Type.STRING_TYPE)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Generate the data of a compressed page.
+	 * @param len - the number of bytes per page
+	 * @param parent - the parent pointer
+	 * @param childCategory - the category of the child pages
+	 * @param children - the child pointers, one more than there are keys
+	 *   unless the page is empty
+	 * @param keys - the keys in order, from index 1 on
+	 * @param keyTypes - the types of the key fields
+	 * @throws IllegalStateException if the entries don't fit on a page
+	 */
+	static byte[] createCompressedPageData(int len, int parent, int childCategory, int[] children, Field[] keys,
+			Type[] keyTypes) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		int lengthBytes = getLengthBytes(keyTypes);
+		try {
+			dos.writeInt(parent);
+			dos.writeByte((byte) childCategory);
+			dos.writeShort(children.length);
+			for (int child : children)
+				dos.writeInt(child);
+			byte[] prev = new byte[0];
+			for (int i=1; i<children.length; i++) {
+				byte[] b = getKeyBytes(keys[i], keyTypes);
+				int shared = sharedPrefix(prev, b);
+				writeLength(dos, lengthBytes, shared);
+				writeLength(dos, lengthBytes, b.length - shared);
+				dos.write(b, shared, b.length - shared);
+				prev = b;
+			}
+			if (dos.size() > len)
+				throw new IllegalStateException("internal page entries take up " + dos.size() + " bytes");
+			dos.write(new byte[len - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return the most bytes an entry of a compressed page takes up: a key
+	 *   that shares no prefix with the key before it, and a child pointer
+	 */
+	static int getMaxEntrySize(Type[] keyTypes) {
+		return INDEX_SIZE + 2 * getLengthBytes(keyTypes) + getMaxKeyBytes(keyTypes);
+	}
+
+	/**
+	 * @param prev - the key of the entry before, or null if there is none
+	 * @param key - the key of the entry
+	 * @return the number of bytes an entry with the given key takes up on a
+	 *   compressed page, child pointer included
+	 */
+	static int getEntrySize(Field prev, Field key, Type[] keyTypes) {
+		byte[] b = getKeyBytes(key, keyTypes);
+		int shared = prev == null ? 0 : sharedPrefix(getKeyBytes(prev, keyTypes), b);
+		return INDEX_SIZE + 2 * getLengthBytes(keyTypes) + b.length - shared;
+	}
+
+	private static int getMaxKeyBytes(Type[] keyTypes) {
+		int size = 0;
+		for (int i=0; i<keyTypes.length; i++) {
+			if (keyTypes[i] == Type.STRING_TYPE)
+				size += Type.STRING_LEN + (i < keyTypes.length - 1 ? 1 : 0);
+			else
+				size += keyTypes[i].getLen();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the size of the prefix and suffix lengths stored with each key
+	 */
+	private static int getLengthBytes(Type[] keyTypes) {
+		return getMaxKeyBytes(keyTypes) < 256 ? 1 : 2;
+	}
+
+	/**
+	 * Turn a key into the bytes a compressed page stores: each int as four
+	 * bytes, and each string as its length in one byte followed by its
+	 * characters, except that the length of a string that comes last is
+	 * left out.
+	 */
+	private static byte[] getKeyBytes(Field key, Type[] keyTypes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i=0; i<keyTypes.length; i++) {
+			Field f = keyTypes.length == 1 ? key : ((CompositeField) key).getField(i);
+			if (keyTypes[i] == Type.STRING_TYPE) {
+				String value = ((StringField) f).getValue();
+				int n = Math.min(value.length(), Type.STRING_LEN);
+				if (i < keyTypes.length - 1)
+					out.write(n);
+				for (int j=0; j<n; j++)
+					out.write((byte) value.charAt(j));
+			}
+			else {
+				int value = ((IntField) f).getValue();
+				for (int shift=24; shift>=0; shift-=8)
+					out.write(value >>> shift);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static Field parseKeyBytes(byte[] b, Type[] keyTypes) throws IOException {
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(b));
+		Field[] fields = new Field[keyTypes.length];
+		for (int i=0; i<fields.length; i++) {
+			if (keyTypes[i] == Type.STRING_TYPE) {
+				byte[] bs = new byte[i < fields.length - 1 ? dis.readUnsignedByte() : dis.available()];
+				dis.readFully(bs);
+				fields[i] = new StringField(new String(bs), Type.STRING_LEN);
+			}
+			else {
+				fields[i] = new IntField(dis.readInt());
+			}
+		}
+		return fields.length == 1 ? fields[0] : new CompositeField(fields);
+	}
+
+	private static int sharedPrefix(byte[] a, byte[] b) {
+		int n = 0;
+		while (n < a.length && n < b.length && a[n] == b[n])
+			n++;
+		return n;
+	}
+
+	private static int readLength(DataInputStream dis, int lengthBytes) throws IOException {
+		return lengthBytes == 1 ? dis.readUnsignedByte() : dis.readUnsignedShort();
+	}
+
+	private static void writeLength(DataOutputStream dos, int lengthBytes, int length) throws IOException {
+		if (lengthBytes == 1)
+			dos.writeByte(length);
+		else
+			dos.writeShort(length);
+	}
+
+	/**
+	 * Find a short key to separate two neighbouring pages: the shortest prefix
+	 * of the string in right at the first field where the keys differ that
+	 * is still greater than left, with any strings after it left empty. A
+	 * compressed page stores such a key in fewer bytes than right itself.
+	 * @param left - the greatest key on the left page
+	 * @param right - the least key on the right page
+	 * @return a key greater than left and less than or equal to right, or
+	 *   right if the two are equal
+	 */
+	public static Field getSeparator(Field left, Field right) {
+		if (!left.compare(Op.LESS_THAN, right))
+			return right;
+		if (!(right instanceof CompositeField))
+			return right instanceof StringField ? getStringSeparator((StringField) left, (StringField) right) : right;
+		CompositeField l = (CompositeField) left;
+		CompositeField r = (CompositeField) right;
+		Field[] fields = new Field[r.numFields()];
+		int d = 0;
+		while (l.getField(d).equals(r.getField(d))) {
+			fields[d] = r.getField(d);
+			d++;
+		}
+		fields[d] = r.getField(d) instanceof StringField ?
+				getStringSeparator((StringField) l.getField(d), (StringField) r.getField(d)) : r.getField(d);
+		for (int i=d+1; i<fields.length; i++)
+			fields[i] = r.getField(i) instanceof StringField ? new StringField("", Type.STRING_LEN) : r.getField(i);
+		return new CompositeField(fields);
+	}
+
+	/**
+	 * @return the shortest prefix of right that is greater than left, which
+	 *   must be less than right
+	 */
+	private static StringField getStringSeparator(StringField left, StringField right) {
+		String l = left.getValue();
+		String r = right.getValue();
+		int n = 0;
+		while (n < l.length() && n < r.length() && l.charAt(n) == r.charAt(n))
+			n++;
+		return n + 1 >= r.length() ? right : new StringField(r.substring(0, n + 1), Type.STRING_LEN);
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -236,6 +535,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
+		if (compressed)
+			return getCompressedPageData();
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -273,7 +574,7 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<getKeySize(); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -320,7 +621,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				getKeySize() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -445,7 +746,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!isKey(e.getKey()))
 			throw new DbException("key field type mismatch, in insertEntry");
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
@@ -461,7 +762,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("child page category mismatch in insertEntry");
 
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -566,11 +867,19 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		int cnt = 0;
+		// start from 1 because the first key slot is not used
+		// since a node with m keys has m+1 pointers
+		for(int i=1; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. On a compressed page,
+	 * that is the number of entries with the longest possible keys that fit
+	 * in the bytes left.
 	 */
 	public int getNumEmptySlots() {
 		int cnt = 0;
@@ -579,9 +888,128 @@ public class BTreeInternalPage extends BTreePage {
 		for(int i=1; i<numSlots; i++)
 			if(!isSlotUsed(i))
 				cnt++;
+		if(compressed) {
+			int fit = (BufferPool.getPageSize() - getUsedSpace()) / getMaxEntrySize(keyTypes);
+			cnt = Math.max(0, Math.min(cnt, fit));
+		}
 		return cnt;
 	}
 
+	/**
+	 * @return whether the keys of this page are stored compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return whether this page holds more than fits on disk. Taking entries
+	 * from a sibling or replacing a key with a longer one can make a
+	 * compressed page overflow for a moment; BTreeFile then splits it.
+	 */
+	public boolean isOverfull() {
+		return compressed && getUsedSpace() > BufferPool.getPageSize();
+	}
+
+	/**
+	 * @return whether this page is less than half full, so that it should
+	 *   take entries from a sibling or be merged with one
+	 */
+	public boolean isLessThanHalfFull() {
+		if (!compressed)
+			return getNumEmptySlots() > getMaxEntries() - getMaxEntries()/2; // ceiling
+		return 2 * (getUsedSpace() - COMPRESSED_HEADER_SIZE) < BufferPool.getPageSize() - COMPRESSED_HEADER_SIZE;
+	}
+
+	/**
+	 * @param sibling - a sibling of this page, which is less than half full
+	 * @return whether this page and the sibling fit on one page together with
+	 *   the key between them in their parent. Pages with fixed-width keys do
+	 *   whenever the sibling is at minimum occupancy.
+	 */
+	public boolean canMergeWith(BTreeInternalPage sibling) {
+		if (!compressed)
+			return sibling.getNumEmptySlots() >= getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getNumEntries() + sibling.getNumEntries() + 1 <= getMaxEntries() &&
+				getUsedSpace() + sibling.getUsedSpace() - COMPRESSED_HEADER_SIZE + getMaxEntrySize(keyTypes)
+						<= BufferPool.getPageSize();
+	}
+
+	/**
+	 * @param sibling - a sibling of this page with entries to spare
+	 * @param isRightSibling - whether the sibling is the right one
+	 * @return how many entries to move from the sibling to this page so that
+	 *   both hold about as many entries, or on compressed pages, as many bytes
+	 */
+	public int getNumToSteal(BTreeInternalPage sibling, boolean isRightSibling) {
+		if (!compressed)
+			return (sibling.getNumEntries() + getNumEntries()) / 2 - getNumEntries();
+		int[] sizes = sibling.getEntrySizes();
+		int have = getUsedSpace();
+		int left = sibling.getUsedSpace();
+		int n = 0;
+		while (have < left && n < sizes.length - 1) {
+			int size = sizes[isRightSibling ? n : sizes.length - 1 - n];
+			have += size;
+			left -= size;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @param append - whether the split makes room for entries after the
+	 *   last one of the right-most page of a level
+	 * @return how many entries a split of this page should move to the new
+	 *   page on its right, besides the one pushed up to the parent: half of
+	 *   the entries or of their bytes, or a tenth if append is set
+	 */
+	public int getNumToMove(boolean append) {
+		if (!compressed)
+			return append ? Math.max(1, getNumEntries() / 10) : getNumEntries() / 2;
+		int[] sizes = getEntrySizes();
+		int total = 0;
+		for (int size : sizes)
+			total += size;
+		int target = append ? total / 10 : total / 2;
+		int n = 0;
+		int moved = 0;
+		while (moved < target && n < sizes.length - 2) {
+			moved += sizes[sizes.length - 1 - n];
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of bytes the compressed format of this page takes
+	 *   up, not counting the padding after the last key
+	 */
+	int getUsedSpace() {
+		int n = sortSlots();
+		int size = COMPRESSED_HEADER_SIZE + n * INDEX_SIZE;
+		for (int s : getEntrySizes())
+			size += s - INDEX_SIZE;
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes each entry takes up in the compressed
+	 *   format, child pointer included, in key order
+	 */
+	private int[] getEntrySizes() {
+		int n = sortSlots();
+		int[] sizes = new int[Math.max(0, n - 1)];
+		int lengthBytes = getLengthBytes(keyTypes);
+		byte[] prev = new byte[0];
+		for (int i=1; i<n; i++) {
+			byte[] b = getKeyBytes(keys[sortedSlots[i]], keyTypes);
+			sizes[i-1] = INDEX_SIZE + 2 * lengthBytes + b.length - sharedPrefix(prev, b);
+			prev = b;
+		}
+		return sizes;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -603,6 +1031,54 @@ public class BTreeInternalPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		numSorted = -1;
+	}
+
+	/**
+	 * Rebuild sortedSlots if the header has changed since it was last built.
+	 * Keys are stored in slot order, so listing the used slots in order is
+	 * enough. Readers holding a shared lock on the page may race to rebuild
+	 * it, but they all write the same values and publish the count last.
+	 * @return the number of used slots, including slot 0
+	 */
+	private int sortSlots() {
+		int n = numSorted;
+		if (n >= 0)
+			return n;
+		n = 0;
+		for (int i=0; i<numSlots; i++)
+			if (isSlotUsed(i))
+				sortedSlots[n++] = i;
+		numSorted = n;
+		return n;
+	}
+
+	/**
+	 * Find the child to descend into to reach the left-most leaf that may
+	 * contain the key f: the left child of the first entry whose key is
+	 * greater than or equal to f, or the right-most child if there is no such
+	 * entry. Unlike walking the page with iterator(), this binary searches
+	 * the keys in place and allocates nothing but the returned id.
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the id of the child, or null if the page has no entries
+	 */
+	public BTreePageId findChildId(Field f) {
+		int n = sortSlots();
+		if (n == 0)
+			return null;
+
+		// find the first index in [1, n) whose key is >= f, or n if none
+		int lo = 1;
+		int hi = f == null ? 1 : n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[sortedSlots[mid]].compare(Op.GREATER_THAN_OR_EQ, f))
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		// the child left of that key, which is the last child if there is none
+		return new BTreePageId(pid.getTableId(), children[sortedSlots[lo - 1]], childCategory);
 	}
 
 	/**
@@ -765,11 +1241,19 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null)
+					continue;
+				// the left child is in the closest used slot before the key,
+				// which need not be the one right before it
+				int left = entry - 1;
+				while(left > 0 && !p.isSlotUsed(left))
+					left--;
+				BTreePageId childId = p.getChildId(left);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
+					curEntry = left;
 					return true;
 				}
 			}
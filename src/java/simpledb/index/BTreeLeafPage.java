@@ -27,24 +27,30 @@ public class BTreeLeafPage extends BTreePage {
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
-	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
+	// the used slots in key order, so that the keys of tuples[sortedSlots[..]]
+	// form a dense sorted array; rebuilt on the first search after the header changes
+	private final int[] sortedSlots;
+	private volatile int numSorted = -1;
+
+	public void checkRep(Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
 
 		Iterator<Tuple> it = this.iterator();
 		while (it.hasNext()) {
 			Tuple t = it.next();
-//			if (!(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)))) {
+//			if (!(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, getKey(t)))) {
 //				System.out.println("Here");
 //			}
-			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
-			prev = t.getField(fieldid);
+			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, getKey(t)));
+			prev = getKey(t);
 			assert(t.getRecordId().getPageId().equals(this.getId()));
 		}
 
         assert null == upperBound || null == prev || (prev.compare(Predicate.Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkoccupancy || depth <= 0 || (getNumTuples() >= getMaxTuples() / 2);
+        // the right-most pages may be less than half full, as appends split them unevenly
+        assert !checkoccupancy || depth <= 0 || null == upperBound || (getNumTuples() >= getMaxTuples() / 2);
 	}
 
 	/**
@@ -69,8 +75,21 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeLeafPage of an index keyed on several fields, whose
+	 * tuples are sorted on the first key field, then the second, and so on.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on
+	 */
+	public BTreeLeafPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
 		this.numSlots = getMaxTuples();
+		this.sortedSlots = new int[numSlots];
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent and sibling pointers
@@ -143,7 +162,7 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -159,6 +178,16 @@ public class BTreeLeafPage extends BTreePage {
 		}
 	}
 
+	void restorePageData(byte[] data) throws IOException {
+		BTreeLeafPage p = new BTreeLeafPage(pid, data, keyFields);
+		parent = p.parent;
+		leftSibling = p.leftSibling;
+		rightSibling = p.rightSibling;
+		System.arraycopy(p.header, 0, header, 0, header.length);
+		System.arraycopy(p.tuples, 0, tuples, 0, tuples.length);
+		numSorted = -1;
+	}
+
 	/**
 	 * Read tuples from the source file.
 	 */
@@ -329,16 +358,8 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		int greater = search(getKey(t), Predicate.Op.GREATER_THAN);
+		int lessOrEqKey = greater == 0 ? -1 : sortedSlots[greater - 1];
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -479,6 +500,57 @@ public class BTreeLeafPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		numSorted = -1;
+	}
+
+	/**
+	 * Rebuild sortedSlots if the header has changed since it was last built.
+	 * Tuples are stored in key order, so listing the used slots in order is
+	 * enough. Readers holding a shared lock on the page may race to rebuild
+	 * it, but they all write the same values and publish the count last.
+	 * @return the number of used slots
+	 */
+	private int sortSlots() {
+		int n = numSorted;
+		if (n >= 0)
+			return n;
+		n = 0;
+		for (int i=0; i<numSlots; i++)
+			if (isSlotUsed(i))
+				sortedSlots[n++] = i;
+		numSorted = n;
+		return n;
+	}
+
+	/**
+	 * Binary search the keys on this page without allocating.
+	 * @param op - GREATER_THAN or GREATER_THAN_OR_EQ
+	 * @return the first index into sortedSlots whose key compares to f
+	 *         by op, or the number of used slots if there is none
+	 */
+	private int search(Field f, Predicate.Op op) {
+		int lo = 0;
+		int hi = sortSlots();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (getKey(tuples[sortedSlots[mid]]).compare(op, f))
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Find the first tuple on this page whose key is greater than or equal
+	 * to f by binary search.
+	 * @param f - the key to search for
+	 * @return the slot of that tuple, or getMaxTuples() if every key on the
+	 *         page is less than f
+	 */
+	public int findFirstSlot(Field f) {
+		int i = search(f, Predicate.Op.GREATER_THAN_OR_EQ);
+		return i < sortSlots() ? sortedSlots[i] : numSlots;
 	}
 
 	/**
@@ -486,7 +558,16 @@ public class BTreeLeafPage extends BTreePage {
 	 * (note that this iterator shouldn't return tuples in empty slots!)
 	 */
 	public Iterator<Tuple> iterator() {
-		return new BTreeLeafPageIterator(this);
+		return new BTreeLeafPageIterator(this, 0);
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page whose keys are greater than
+	 * or equal to f, which skips the smaller keys by binary search
+	 * @see #findFirstSlot(Field)
+	 */
+	public Iterator<Tuple> iterator(Field f) {
+		return new BTreeLeafPageIterator(this, findFirstSlot(f));
 	}
 
 	/**
@@ -527,12 +608,13 @@ public class BTreeLeafPage extends BTreePage {
  * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage.
  */
 class BTreeLeafPageIterator implements Iterator<Tuple> {
-	int curTuple = 0;
+	int curTuple;
 	Tuple nextToReturn = null;
 	final BTreeLeafPage p;
 
-	public BTreeLeafPageIterator(BTreeLeafPage p) {
+	public BTreeLeafPageIterator(BTreeLeafPage p, int firstSlot) {
 		this.p = p;
+		this.curTuple = firstSlot;
 	}
 
 	public boolean hasNext() {
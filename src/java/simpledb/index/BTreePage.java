@@ -5,10 +5,17 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.CompositeField;
+import simpledb.storage.Field;
 import simpledb.storage.Page;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.text.ParseException;
+
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
@@ -25,7 +32,8 @@ public abstract class BTreePage implements Page {
 
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
-	protected final int keyField;
+	protected final int keyField; // the first of the key fields
+	protected final int[] keyFields;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -55,11 +63,64 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) {
+		this(id, new int[] { key });
+	}
+
+	/**
+	 * @param id - the id of this page
+	 * @param keyFields - the fields which the index is keyed on, compared in order
+	 * @see CompositeField
+	 */
+	public BTreePage(BTreePageId id, int[] keyFields) {
 		this.pid = id;
-		this.keyField = key;
+		this.keyFields = keyFields.clone();
+		this.keyField = keyFields[0];
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the key of a tuple of the index: the key field, or a
+	 *   CompositeField of the key fields if there are several
+	 */
+	protected Field getKey(Tuple t) {
+		return CompositeField.of(t, keyFields);
+	}
+
+	/**
+	 * @return the number of bytes a key takes up on disk
+	 */
+	protected int getKeySize() {
+		int size = 0;
+		for (int k : keyFields)
+			size += td.getFieldType(k).getLen();
+		return size;
+	}
+
+	/**
+	 * Read a key written by {@link Field#serialize}.
+	 */
+	protected Field parseKey(DataInputStream dis) throws ParseException {
+		Field[] fields = new Field[keyFields.length];
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = td.getFieldType(keyFields[i]).parse(dis);
+		return fields.length == 1 ? fields[0] : new CompositeField(fields);
+	}
+
+	/**
+	 * @return true if f holds a value of the type of each key field
+	 */
+	protected boolean isKey(Field f) {
+		if (keyFields.length == 1)
+			return f.getType().equals(td.getFieldType(keyField));
+		if (!(f instanceof CompositeField) || ((CompositeField) f).numFields() != keyFields.length)
+			return false;
+		for (int i = 0; i < keyFields.length; i++) {
+			if (!((CompositeField) f).getField(i).getType().equals(td.getFieldType(keyFields[i])))
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -144,5 +205,12 @@ public abstract class BTreePage implements Page {
 	 */
 	public abstract boolean isSlotUsed(int i);
 
+	/**
+	 * Overwrite the contents of this page with the given page data, leaving
+	 * its before image and dirty state alone.  BTreeFile uses this to undo
+	 * a structure modification that has to start over.
+	 */
+	abstract void restorePageData(byte[] data) throws IOException;
+
 }
 
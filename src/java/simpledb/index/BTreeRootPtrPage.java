@@ -55,6 +55,18 @@ public class BTreeRootPtrPage implements Page {
 		oldData = getPageData().clone();
 	}
 
+	/**
+	 * Overwrite the root and header pointers with those in the given page
+	 * data, keeping the before image and dirty state.
+	 * @see BTreePage#restorePageData(byte[])
+	 */
+	void restorePageData(byte[] data) throws IOException {
+		BTreeRootPtrPage p = new BTreeRootPtrPage(pid, data);
+		root = p.root;
+		rootCategory = p.rootCategory;
+		header = p.header;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
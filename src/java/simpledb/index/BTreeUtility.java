@@ -421,9 +421,20 @@ public class BTreeUtility {
 	 * @return the opened table.
 	 */
 	public static BTreeFile openBTreeFile(int cols, File f, int keyField) {
+		return openBTreeFile(cols, f, new int[] { keyField });
+	}
+
+	/** Opens a BTreeFile keyed on several fields and adds it to the catalog.
+	 *
+	 * @param cols number of columns in the table.
+	 * @param f location of the file storing the table.
+	 * @param keyFields the fields the B+ tree is keyed on
+	 * @return the opened table.
+	 */
+	public static BTreeFile openBTreeFile(int cols, File f, int[] keyFields) {
 		// create the BTreeFile and add it to the catalog
 		TupleDesc td = Utility.getTupleDesc(cols);
-		BTreeFile bf = new BTreeFile(f, keyField, td);
+		BTreeFile bf = new BTreeFile(f, keyFields, td);
 		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
 		return bf;
 	}
@@ -444,13 +455,24 @@ public class BTreeUtility {
 	 */
 	public static BTreeFile createEmptyBTreeFile(String path, int cols, int keyField)
 			throws IOException {
+		return createEmptyBTreeFile(path, cols, new int[] { keyField });
+	}
+
+	/**
+	 * A utility method to create a new BTreeFile with no data, keyed on
+	 * several fields, assuming the path does not already exist. If the path
+	 * exists, the file will be overwritten. The new table will be added to
+	 * the Catalog with the specified number of columns as IntFields.
+	 */
+	public static BTreeFile createEmptyBTreeFile(String path, int cols, int[] keyFields)
+			throws IOException {
 		File f = new File(path);
 		// touch the file
 		FileOutputStream fos = new FileOutputStream(f);
 		fos.write(new byte[0]);
 		fos.close();
 
-        return openBTreeFile(cols, f, keyField);
+        return openBTreeFile(cols, f, keyFields);
 	}
 
 	/**
@@ -516,7 +538,7 @@ public class BTreeUtility {
 					Tuple t = BTreeUtility.getBTreeTuple(item, 2);
 					Database.getBufferPool().insertTuple(tid, bf.getId(), t);
 
-					IndexPredicate ipred = new IndexPredicate(Op.EQUALS, t.getField(bf.keyField()));
+					IndexPredicate ipred = new IndexPredicate(Op.EQUALS, bf.getKey(t));
 					DbFileIterator it = bf.indexIterator(tid, ipred);
 					it.open();
 					c = 0;
@@ -0,0 +1,380 @@
+package simpledb.index;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores one page of a bucket of a HashFile
+ * and implements the Page interface that is used by BufferPool. A bucket is
+ * a primary page followed by a chain of overflow pages, which are linked by
+ * their next pointers; free overflow pages are chained the same way.
+ *
+ * @see HashFile
+ * @see BufferPool
+ *
+ */
+public class HashBucketPage implements Page {
+	private final static int INDEX_SIZE = 4;
+
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final HashPageId pid;
+	private final TupleDesc td;
+	private final byte[] header;
+	private final Tuple[] tuples;
+	private final int numSlots;
+
+	private int next; // the next page of the chain, or 0
+
+	// the hash codes of the keys in the used slots, built by the first
+	// findTuples call and kept up to date by inserts after it
+	private volatile int[] keyHashes = null;
+	private int keyHashField = -1;
+
+	private byte[] oldData;
+	private final Byte oldDataLock = (byte) 0;
+
+	/**
+	 * Create a HashBucketPage from a set of bytes of data read from disk.
+	 * The format of a HashBucketPage is the page number of the next page of
+	 * its chain, a set of header bytes indicating the slots of the page that
+	 * are in use, and some number of tuple slots.
+	 *  Specifically, the number of tuples is equal to: <p>
+	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
+	 * <p> where tuple size is the size of tuples in this
+	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
+	 * The number of 8-bit header words is equal to:
+	 * <p>
+	 *      ceiling(no. tuple slots / 8)
+	 * <p>
+	 * @see Database#getCatalog
+	 * @see Catalog#getTupleDesc
+	 * @see BufferPool#getPageSize()
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 */
+	public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.numSlots = getMaxTuples();
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		next = dis.readInt();
+
+		// allocate and read the header slots of this page
+		header = new byte[getHeaderSize()];
+		dis.readFully(header);
+
+		// allocate and read the actual records of this page
+		tuples = new Tuple[numSlots];
+		for (int i = 0; i < tuples.length; i++)
+			tuples[i] = readNextTuple(dis, i);
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * Retrieve the maximum number of tuples this page can hold.
+	 */
+	public int getMaxTuples() {
+		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+		// extraBits are: next page pointer
+		int extraBits = INDEX_SIZE * 8;
+		return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerTupleIncludingHeader;
+	}
+
+	/**
+	 * Computes the number of bytes in the header of a bucket page
+	 */
+	private int getHeaderSize() {
+		return (getMaxTuples() + 7) / 8;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashBucketPage getBeforeImage() {
+		try {
+			byte[] oldDataRef;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new HashBucketPage(pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = getPageData().clone();
+		}
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * Read tuples from the source file.
+	 */
+	private Tuple readNextTuple(DataInputStream dis, int slotId) throws IOException {
+		// if associated bit is not set, skip to the next tuple, and return null.
+		if (!isSlotUsed(slotId)) {
+			dis.skipBytes(td.getSize());
+			return null;
+		}
+
+		// read fields in the tuple
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slotId));
+		try {
+			for (int j = 0; j < td.numFields(); j++)
+				t.setField(j, td.getFieldType(j).parse(dis));
+		} catch (java.text.ParseException e) {
+			throw new IOException("parsing error!", e);
+		}
+		return t;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 * <p>
+	 * The invariant here is that it should be possible to pass the byte
+	 * array generated by getPageData to the HashBucketPage constructor and
+	 * have it produce an identical HashBucketPage object.
+	 *
+	 * @see #HashBucketPage
+	 * @return A byte array corresponding to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		try {
+			dos.writeInt(next);
+			dos.write(header);
+			for (Tuple t : tuples) {
+				if (t == null) {
+					dos.write(new byte[td.getSize()]);
+					continue;
+				}
+				for (int j = 0; j < td.numFields(); j++)
+					t.getField(j).serialize(dos);
+			}
+			// padding
+			dos.write(new byte[len - (INDEX_SIZE + header.length + td.getSize() * tuples.length)]);
+			dos.flush();
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
+
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashBucketPage.
+	 * Used to add new, empty pages to the file. Passing the results of
+	 * this method to the HashBucketPage constructor will create a
+	 * HashBucketPage with no valid tuples in it and no next page.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()]; //all 0
+	}
+
+	/**
+	 * @return the id of the next page of the chain, or null if this is the last one
+	 */
+	public HashPageId getNextPageId() {
+		if (next == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), next);
+	}
+
+	/**
+	 * Set the next page of the chain
+	 * @param id - the id of the next page, or null if this is the last one
+	 */
+	public void setNextPageId(HashPageId id) {
+		next = id == null ? 0 : id.getPageNumber();
+	}
+
+	/**
+	 * Delete the specified tuple from the page;  the tuple should be updated to reflect
+	 *   that it is no longer stored on any page.
+	 * @throws DbException if this tuple is not on this page, or tuple slot is
+	 *         already empty.
+	 * @param t The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !pid.equals(rid.getPageId()))
+			throw new DbException("tried to delete tuple on invalid page or table");
+		if (!isSlotUsed(rid.getTupleNumber()))
+			throw new DbException("tried to delete null tuple.");
+		markSlotUsed(rid.getTupleNumber(), false);
+		t.setRecordId(null);
+	}
+
+	/**
+	 * Adds the specified tuple to the page;  the tuple should be updated to reflect
+	 *  that it is now stored on this page.
+	 * @throws DbException if the page is full (no empty slots) or tupledesc
+	 *         is mismatch.
+	 * @param t The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch, in addTuple");
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				markSlotUsed(i, true);
+				t.setRecordId(new RecordId(pid, i));
+				tuples[i] = t;
+				int[] hashes = keyHashes;
+				if (hashes != null)
+					hashes[i] = t.getField(keyHashField).hashCode();
+				return;
+			}
+		}
+		throw new DbException("called addTuple on page with no empty slots.");
+	}
+
+	/**
+	 * Remove all the tuples from the page, leaving its next pointer alone.
+	 */
+	public void clear() {
+		Arrays.fill(header, (byte) 0);
+		Arrays.fill(tuples, null);
+		keyHashes = null;
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction
+	 * that did the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/**
+	 * Returns the number of empty slots on this page.
+	 */
+	public int getNumEmptySlots() {
+		int cnt = 0;
+		for (int i = 0; i < numSlots; i++)
+			if (!isSlotUsed(i))
+				cnt++;
+		return cnt;
+	}
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		return i >= 0 && i < numSlots && (header[i / 8] & (1 << (i % 8))) != 0;
+	}
+
+	/**
+	 * Abstraction to fill or clear a slot on this page.
+	 */
+	private void markSlotUsed(int i, boolean value) {
+		if (value)
+			header[i / 8] |= (byte) (1 << (i % 8));
+		else {
+			header[i / 8] &= (byte) ~(1 << (i % 8));
+			tuples[i] = null;
+		}
+	}
+
+	/**
+	 * Add the tuples on this page whose field equals key to found. The hash
+	 * codes of the keys are cached on the first call, so that later calls
+	 * compare an int per slot and call equals only on the slots whose hash
+	 * code matches. Every call must pass the same field, the key field of
+	 * the file.
+	 * @param field - the index of the key field
+	 * @param key - the key to find
+	 * @param found - the collection to add the matching tuples to
+	 */
+	public void findTuples(int field, Field key, Collection<Tuple> found) {
+		int[] hashes = keyHashes;
+		if (hashes == null) {
+			// readers may build this concurrently; each builds the same array
+			hashes = new int[numSlots];
+			for (int i = 0; i < numSlots; i++)
+				if (isSlotUsed(i))
+					hashes[i] = tuples[i].getField(field).hashCode();
+			keyHashField = field;
+			keyHashes = hashes;
+		}
+		int hash = key.hashCode();
+		for (int i = 0; i < numSlots; i++) {
+			if (hashes[i] == hash && isSlotUsed(i)) {
+				Tuple t = tuples[i];
+				if (t.getField(field).equals(key))
+					found.add(t);
+			}
+		}
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+	 * (note that this iterator shouldn't return tuples in empty slots!)
+	 */
+	public Iterator<Tuple> iterator() {
+		return new Iterator<Tuple>() {
+			private int slot = advance(0);
+
+			private int advance(int from) {
+				while (from < numSlots && !isSlotUsed(from))
+					from++;
+				return from;
+			}
+
+			public boolean hasNext() {
+				return slot < numSlots;
+			}
+
+			public Tuple next() {
+				if (slot >= numSlots)
+					throw new NoSuchElementException();
+				Tuple t = tuples[slot];
+				slot = advance(slot + 1);
+				return t;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,606 @@
+package simpledb.index;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * HashFile is an implementation of a DbFile that stores its tuples in a
+ * linear hash table on one key field, for equality lookups that read one
+ * bucket page instead of a path down a B+ tree. Page 0 is a HashMetaPage,
+ * which says how many buckets there are and where their pages are; every
+ * other page is a HashBucketPage. The format of these pages is described in
+ * their constructors.
+ * <p>
+ * Each bucket is a primary page followed by a chain of overflow pages. When
+ * an insert finds the chain of its bucket full, it adds an overflow page to
+ * it, and then the next bucket in order (not necessarily the one that
+ * overflowed) is split in two, so the table grows one bucket at a time
+ * while it stays online. Deletes only empty slots: buckets are never merged.
+ * <p>
+ * Lookups read the meta page without locking it and lock the primary page
+ * of the bucket, so a split -- which changes the meta page -- doesn't wait
+ * for every reader of the table to commit. Splits write lock the pages of
+ * the bucket they split before they change the meta page, so a lookup that
+ * gets the lock on the primary page finds every tuple of its key there, as
+ * long as the meta page still maps the key to it.
+ *
+ * @see HashMetaPage#HashMetaPage
+ * @see HashBucketPage#HashBucketPage
+ */
+public class HashFile implements DbFile {
+
+	private final File f;
+	private final TupleDesc td;
+	private final int tableid;
+	private final int keyField;
+
+	// Short-term latch over the buckets the meta page maps keys to. Lookups
+	// hold it shared while they read the meta page without locking it; a
+	// split holds it exclusively while it changes the number of buckets.
+	private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+	// set once the meta page is known to be on disk, to skip checking every time
+	private volatile boolean created = false;
+
+	/**
+	 * Constructs a hash file backed by the specified file.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this hash
+	 *            file.
+	 * @param key - the field which the file is hashed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public HashFile(File f, int key, TupleDesc td) {
+		this.f = f;
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+	}
+
+	/**
+	 * Returns the File backing this HashFile on disk.
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashFile: the hash code of the
+	 * absolute file name of the file underlying it.
+	 *
+	 * @return an ID uniquely identifying this HashFile.
+	 */
+	public int getId() {
+		return tableid;
+	}
+
+	/**
+	 * Returns the TupleDesc of the table stored in this DbFile.
+	 *
+	 * @return TupleDesc of this DbFile.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Returns the index of the field that this file is hashed on
+	 */
+	public int keyField() {
+		return keyField;
+	}
+
+	/**
+	 * Read a page from the file on disk. This should not be called directly
+	 * but should be called from the BufferPool via getPage()
+	 *
+	 * @param pid - the id of the page to read from disk
+	 * @return the page constructed from the contents on disk
+	 */
+	public Page readPage(PageId pid) {
+		HashPageId id = (HashPageId) pid;
+		byte[] data = new byte[BufferPool.getPageSize()];
+		long offset = (long) id.getPageNumber() * data.length;
+		try (RandomAccessFile rf = new RandomAccessFile(f, "r")) {
+			if (offset + data.length > rf.length()) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			rf.seek(offset);
+			rf.readFully(data);
+			if (id.isMeta()) {
+				return new HashMetaPage(id, data);
+			}
+			return new HashBucketPage(id, data);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write a page to disk.  This should not be called directly but should
+	 * be called from the BufferPool when pages are flushed to disk
+	 *
+	 * @param page - the page to write to disk
+	 */
+	public void writePage(Page page) throws IOException {
+		byte[] data = page.getPageData();
+		try (RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+			rf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+			rf.write(data);
+		}
+	}
+
+	/**
+	 * Returns the number of pages in this HashFile, including the meta page
+	 * and the pages reserved for buckets that have not been split off yet.
+	 */
+	public int numPages() {
+		return (int) (f.length() / BufferPool.getPageSize());
+	}
+
+	/**
+	 * @return the hash of a key. Field hash codes, such as the value of an
+	 *   IntField, are mixed so that their low bits, which pick the bucket,
+	 *   depend on all of their bits.
+	 */
+	static int hash(Field key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Create the meta page and the page of the first bucket if the file is empty.
+	 */
+	private void createIfEmpty() throws IOException {
+		if (created)
+			return;
+		synchronized (this) {
+			if (f.length() == 0) {
+				try (BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true))) {
+					bw.write(HashMetaPage.createEmptyPageData());
+					bw.write(HashBucketPage.createEmptyPageData());
+				}
+			}
+			created = true;
+		}
+	}
+
+	/**
+	 * Append empty pages to the file. The space is reserved without writing
+	 * it, and the pages read back as empty bucket pages.
+	 *
+	 * @param pages - the number of pages to add
+	 * @return the page number of the first of them
+	 */
+	private synchronized int appendPages(int pages) throws IOException {
+		int first = numPages();
+		try (RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+			rf.setLength((long) (first + pages) * BufferPool.getPageSize());
+		}
+		return first;
+	}
+
+	/**
+	 * Retrieve a page, from the pages this operation has dirtied if it is
+	 * one of them and through the buffer pool otherwise.
+	 */
+	private Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		Page p = dirtypages.get(pid);
+		if (p == null) {
+			p = Database.getBufferPool().getPage(tid, pid, perm);
+		}
+		return p;
+	}
+
+	/**
+	 * Mark a page that is about to be changed dirty right away: the buffer
+	 * pool then neither evicts it without writing it out nor drops the lock
+	 * while it is being changed. The page must be locked for writing.
+	 *
+	 * @return the page
+	 */
+	private static <T extends Page> T markDirty(TransactionId tid, Map<PageId, Page> dirtypages, T page) {
+		page.markDirty(true, tid);
+		dirtypages.put(page.getId(), page);
+		return page;
+	}
+
+	/**
+	 * @return the primary page of the bucket a key is in, according to the
+	 *   meta page as it is now
+	 */
+	private HashPageId getBucketPageId(Map<PageId, Page> dirtypages, Field key)
+			throws DbException, IOException {
+		createIfEmpty();
+		HashPageId metaId = HashMetaPage.getId(tableid);
+		latch.readLock().lock();
+		try {
+			Page meta = dirtypages.get(metaId);
+			if (meta == null) {
+				meta = Database.getBufferPool().getPageUnlocked(metaId);
+			}
+			return ((HashMetaPage) meta).getBucketPageId(((HashMetaPage) meta).getBucket(hash(key)));
+		} finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find and lock the primary page of the bucket a key is in. A split, or
+	 * the abort of one, may move the key to another bucket while this waits
+	 * for the lock, so once it has the lock it checks that the key still
+	 * maps to the page, and starts over otherwise.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the pages this operation has dirtied so far
+	 * @param key - the key to look for
+	 * @param perm - the permissions to lock the page with
+	 * @return the primary page of the bucket
+	 */
+	private HashBucketPage findBucket(TransactionId tid, Map<PageId, Page> dirtypages, Field key, Permissions perm)
+			throws DbException, IOException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		while (true) {
+			HashPageId pid = getBucketPageId(dirtypages, key);
+			boolean held = bp.holdsLock(tid, pid);
+			Page page = getPage(tid, dirtypages, pid, perm);
+			if (pid.equals(getBucketPageId(dirtypages, key))) {
+				return (HashBucketPage) page;
+			}
+			if (!held) {
+				bp.unsafeReleasePage(tid, pid);
+			}
+		}
+	}
+
+	/**
+	 * Insert a tuple into the bucket of its key. If the pages of the bucket
+	 * are full, an overflow page is added to it, and the next bucket is split.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 * @see #splitBucket(TransactionId, Map, HashMetaPage)
+	 */
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+
+		// look for room in the chain of the bucket; holding the write lock on
+		// its primary page keeps anybody else from changing the chain
+		HashBucketPage page = findBucket(tid, dirtypages, t.getField(keyField), Permissions.READ_WRITE);
+		while (page.getNumEmptySlots() == 0 && page.getNextPageId() != null) {
+			page = (HashBucketPage) getPage(tid, dirtypages, page.getNextPageId(), Permissions.READ_WRITE);
+		}
+
+		if (page.getNumEmptySlots() > 0) {
+			markDirty(tid, dirtypages, page).insertTuple(t);
+		}
+		else {
+			// the chain is full: add an overflow page to it and split a bucket
+			HashMetaPage meta = (HashMetaPage) getPage(tid, dirtypages, HashMetaPage.getId(tableid),
+					Permissions.READ_WRITE);
+			HashBucketPage overflow = getEmptyPage(tid, dirtypages, meta);
+			markDirty(tid, dirtypages, page).setNextPageId(overflow.getId());
+			overflow.insertTuple(t);
+			splitBucket(tid, dirtypages, meta);
+		}
+
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * Get an empty page for an overflow page or the primary page of a new
+	 * bucket: the first page on the free list, or a new page at the end of
+	 * the file. The meta page must be locked for writing.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the pages this operation has dirtied so far
+	 * @param meta - the meta page
+	 * @return the page, marked dirty, with no next page
+	 */
+	private HashBucketPage getEmptyPage(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta)
+			throws DbException, IOException, TransactionAbortedException {
+		HashPageId pid = meta.getFreeListId();
+		HashBucketPage page;
+		if (pid != null) {
+			page = markDirty(tid, dirtypages, (HashBucketPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE));
+			markDirty(tid, dirtypages, meta).setFreeListId(page.getNextPageId());
+		}
+		else {
+			pid = new HashPageId(tableid, appendPages(1));
+			page = markDirty(tid, dirtypages, (HashBucketPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE));
+		}
+		page.clear();
+		page.setNextPageId(null);
+		return page;
+	}
+
+	/**
+	 * Split the next bucket in two: the tuples whose hash has the next bit set
+	 * move to a new bucket, and the ones that stay are packed into as few of
+	 * the bucket's pages as they fit in. The pages of the chain that are left
+	 * over go on the free list. The meta page must be locked for writing.
+	 * <p>
+	 * The first bucket of a group reserves the pages of the whole group at
+	 * the end of the file, so that the primary pages of the group are
+	 * contiguous.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the pages this operation has dirtied so far
+	 * @param meta - the meta page
+	 */
+	private void splitBucket(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta)
+			throws DbException, IOException, TransactionAbortedException {
+		int newBucket = meta.getNewBucket();
+		int group = HashMetaPage.getGroup(newBucket);
+		if (group > HashMetaPage.MAX_GROUPS)
+			return;
+
+		// lock every page of the bucket before changing any of them
+		List<HashBucketPage> chain = new ArrayList<>();
+		HashPageId pid = meta.getBucketPageId(meta.getSplitBucket());
+		while (pid != null) {
+			HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+			chain.add(page);
+			pid = page.getNextPageId();
+		}
+		markDirty(tid, dirtypages, meta);
+		if (meta.getGroupStart(group) == 0) {
+			int start = appendPages(HashMetaPage.getGroupSize(group));
+			latch.writeLock().lock();
+			try {
+				meta.setGroupStart(group, start);
+			} finally {
+				latch.writeLock().unlock();
+			}
+		}
+		HashBucketPage newPage = markDirty(tid, dirtypages,
+				(HashBucketPage) getPage(tid, dirtypages, meta.getBucketPageId(newBucket), Permissions.READ_WRITE));
+		newPage.clear();
+		newPage.setNextPageId(null);
+
+		List<Tuple> stay = new ArrayList<>();
+		List<Tuple> move = new ArrayList<>();
+		for (HashBucketPage page : chain) {
+			Iterator<Tuple> it = page.iterator();
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				(meta.movesOnSplit(hash(t.getField(keyField))) ? move : stay).add(t);
+			}
+			markDirty(tid, dirtypages, page).clear();
+		}
+		Deque<HashBucketPage> spare = new ArrayDeque<>(chain.subList(1, chain.size()));
+		fillBucket(tid, dirtypages, meta, chain.get(0), stay, spare);
+		fillBucket(tid, dirtypages, meta, newPage, move, spare);
+		for (HashBucketPage page : spare) {
+			page.setNextPageId(meta.getFreeListId());
+			meta.setFreeListId(page.getId());
+		}
+
+		latch.writeLock().lock();
+		try {
+			meta.advanceSplit();
+		} finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Insert tuples into an empty bucket, chaining pages from spare, or new
+	 * ones if it runs out, as the pages fill up.
+	 */
+	private void fillBucket(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta,
+			HashBucketPage primary, List<Tuple> tuples, Deque<HashBucketPage> spare)
+			throws DbException, IOException, TransactionAbortedException {
+		HashBucketPage page = primary;
+		page.setNextPageId(null);
+		for (Tuple t : tuples) {
+			if (page.getNumEmptySlots() == 0) {
+				HashBucketPage next = spare.isEmpty() ? getEmptyPage(tid, dirtypages, meta) : spare.poll();
+				next.setNextPageId(null);
+				page.setNextPageId(next.getId());
+				page = next;
+			}
+			page.insertTuple(t);
+		}
+	}
+
+	/**
+	 * Delete a tuple from the page its RecordId points at. Buckets never
+	 * shrink: the slot is left empty for later inserts.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to delete
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !(rid.getPageId() instanceof HashPageId) || rid.getPageId().getTableId() != tableid
+				|| ((HashPageId) rid.getPageId()).isMeta()) {
+			throw new DbException("tried to delete a tuple that is not in this file");
+		}
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, (HashPageId) rid.getPageId(),
+				Permissions.READ_WRITE);
+		markDirty(tid, dirtypages, page).deleteTuple(t);
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * Get a read lock on the meta page, which keeps buckets from being split
+	 * for as long as the transaction holds it, and return it.
+	 */
+	private HashMetaPage getLockedMetaPage(TransactionId tid) throws DbException, TransactionAbortedException {
+		try {
+			createIfEmpty();
+		} catch (IOException e) {
+			throw new DbException("could not create " + f + ": " + e.getMessage());
+		}
+		return (HashMetaPage) Database.getBufferPool().getPage(tid, HashMetaPage.getId(tableid),
+				Permissions.READ_ONLY);
+	}
+
+	/**
+	 * Get an iterator over the tuples whose key matches a predicate. An
+	 * EQUALS predicate reads only the bucket of its key; any other predicate
+	 * has to scan the whole file, since the tuples are in no key order.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to match
+	 * @return an iterator over the matching tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		if (ipred.getOp() == Op.EQUALS) {
+			return new HashLookupIterator(this, tid, ipred.getField());
+		}
+		return new HashFileIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator over all tuples in this file, bucket by bucket. The
+	 * iterator read locks the meta page, so no bucket is split while it runs.
+	 *
+	 * @return an iterator over all tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Iterates over the tuples of the file, or the ones whose key matches a
+	 * predicate, bucket by bucket.
+	 */
+	private static class HashFileIterator extends AbstractDbFileIterator {
+
+		private final HashFile file;
+		private final TransactionId tid;
+		private final IndexPredicate ipred;
+		private Iterator<Tuple> it = null;
+		private HashMetaPage meta = null;
+		private int bucket = 0;
+		private HashPageId nextPage = null;
+
+		public HashFileIterator(HashFile file, TransactionId tid, IndexPredicate ipred) {
+			this.file = file;
+			this.tid = tid;
+			this.ipred = ipred;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			meta = file.getLockedMetaPage(tid);
+			bucket = 0;
+			nextPage = null;
+			it = Collections.emptyIterator();
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			if (it == null)
+				return null;
+			while (true) {
+				while (it.hasNext()) {
+					Tuple t = it.next();
+					if (ipred == null || ipred.matches(t.getField(file.keyField)))
+						return t;
+				}
+				if (nextPage == null) {
+					if (bucket >= meta.getNumBuckets())
+						return null;
+					nextPage = meta.getBucketPageId(bucket++);
+				}
+				HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid, nextPage,
+						Permissions.READ_ONLY);
+				it = page.iterator();
+				nextPage = page.getNextPageId();
+			}
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			it = null;
+		}
+	}
+
+	/**
+	 * Iterates over the tuples with a given key. They are all copied from the
+	 * bucket on the first call to hasNext, so deleting them as they are
+	 * returned doesn't throw the iteration off.
+	 */
+	private static class HashLookupIterator extends AbstractDbFileIterator {
+
+		private final HashFile file;
+		private final TransactionId tid;
+		private final Field key;
+		private Iterator<Tuple> it = null;
+		private boolean open = false;
+
+		public HashLookupIterator(HashFile file, TransactionId tid, Field key) {
+			this.file = file;
+			this.tid = tid;
+			this.key = key;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			open = true;
+			it = null;
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			if (!open)
+				return null;
+			if (it == null)
+				it = lookup();
+			return it.hasNext() ? it.next() : null;
+		}
+
+		private Iterator<Tuple> lookup() throws DbException, TransactionAbortedException {
+			Map<PageId, Page> dirtypages = new HashMap<>();
+			List<Tuple> matches = new ArrayList<>();
+			HashBucketPage page;
+			try {
+				page = file.findBucket(tid, dirtypages, key, Permissions.READ_ONLY);
+			} catch (IOException e) {
+				throw new DbException("could not create " + file.getFile() + ": " + e.getMessage());
+			}
+			while (page != null) {
+				page.findTuples(file.keyField, key, matches);
+				HashPageId next = page.getNextPageId();
+				page = next == null ? null
+						: (HashBucketPage) file.getPage(tid, dirtypages, next, Permissions.READ_ONLY);
+			}
+			return matches.iterator();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			open = false;
+			it = null;
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is page 0 of a HashFile. It holds the state of the linear
+ * hashing scheme -- how many buckets there are and which one splits next --
+ * and where the pages of each bucket are in the file, and implements the
+ * Page interface that is used by BufferPool.
+ * <p>
+ * Buckets are numbered from 0. With 2^level + next buckets, a key whose hash
+ * is h is in bucket h mod 2^level, or in bucket h mod 2^(level+1) if that
+ * is less than next, since those buckets have been split already. Splitting
+ * bucket next moves the keys that belong in bucket next + 2^level to it.
+ * <p>
+ * Bucket pages are allocated in groups: group 0 is bucket 0, and group
+ * g &gt; 0 is buckets 2^(g-1) to 2^g - 1. The primary pages of the buckets
+ * of a group are contiguous, so a bucket's page number is the first page of
+ * its group plus its offset in it, and finding it takes no page reads
+ * besides this one. Overflow pages go wherever there is room.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashMetaPage implements Page {
+	// buckets never number more than 2^MAX_GROUPS - 1
+	public final static int MAX_GROUPS = 31;
+
+	private boolean dirty = false;
+	private TransactionId dirtier = null;
+
+	private final HashPageId pid;
+
+	private int level;
+	private int next;
+	private int freeList;
+	private final int[] groupStart = new int[MAX_GROUPS + 1];
+
+	private byte[] oldData;
+
+	/**
+	 * Constructor.
+	 * Construct the HashMetaPage from a set of bytes of data read from disk.
+	 * The format of a HashMetaPage is an integer for the level, an integer
+	 * for the next bucket to split, an integer for the page number of the
+	 * first free overflow page, and an integer for the page number of the
+	 * first page of each group of buckets, padded with zeroes to the size
+	 * of a page.
+	 */
+	public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		level = dis.readInt();
+		next = dis.readInt();
+		freeList = dis.readInt();
+		for (int g = 0; g < groupStart.length; g++)
+			groupStart[g] = dis.readInt();
+
+		setBeforeImage();
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * There is only one instance of a HashMetaPage per table.
+	 * @param tableid - the tableid of this table
+	 * @return the meta page id for the given table
+	 */
+	public static HashPageId getId(int tableid) {
+		return new HashPageId(tableid, 0);
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this meta page.
+	 * Used to serialize this meta page to disk.
+	 * The invariant here is that it should be possible to pass the byte array
+	 * generated by getPageData to the HashMetaPage constructor and have it
+	 * produce an identical HashMetaPage object.
+	 *
+	 * @return A byte array corresponding to the bytes of this meta page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		try {
+			dos.writeInt(level);
+			dos.writeInt(next);
+			dos.writeInt(freeList);
+			for (int start : groupStart)
+				dos.writeInt(start);
+			dos.write(new byte[len - (3 + groupStart.length) * 4]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to the meta page
+	 * of a new HashFile, which has one bucket, on page 1.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		byte[] data = new byte[BufferPool.getPageSize()];
+		// the first page of group 0
+		data[3 * 4 + 3] = 1;
+		return data;
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashMetaPage getBeforeImage() {
+		try {
+			return new HashMetaPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of buckets
+	 */
+	public int getNumBuckets() {
+		return (1 << level) + next;
+	}
+
+	/**
+	 * @param hash - the hash of a key
+	 * @return the bucket the key is in
+	 */
+	public int getBucket(int hash) {
+		int bucket = hash & ((1 << level) - 1);
+		if (bucket < next)
+			bucket = hash & ((2 << level) - 1);
+		return bucket;
+	}
+
+	/**
+	 * @return the bucket that splits next
+	 */
+	public int getSplitBucket() {
+		return next;
+	}
+
+	/**
+	 * @return the bucket that the next split creates
+	 */
+	public int getNewBucket() {
+		return next + (1 << level);
+	}
+
+	/**
+	 * @return whether a key with the given hash belongs in the bucket that
+	 *   the next split creates, rather than in the one it splits
+	 */
+	public boolean movesOnSplit(int hash) {
+		return (hash & (1 << level)) != 0;
+	}
+
+	/**
+	 * Record that the next bucket has been split.
+	 */
+	public void advanceSplit() {
+		next++;
+		if (next == 1 << level) {
+			level++;
+			next = 0;
+		}
+	}
+
+	/**
+	 * @return the group of buckets a bucket is in
+	 */
+	public static int getGroup(int bucket) {
+		return 32 - Integer.numberOfLeadingZeros(bucket);
+	}
+
+	/**
+	 * @return the number of buckets in a group
+	 */
+	public static int getGroupSize(int group) {
+		return group == 0 ? 1 : 1 << (group - 1);
+	}
+
+	/**
+	 * @return the page number of the first page of a group of buckets, or 0
+	 *   if it has not been allocated yet
+	 */
+	public int getGroupStart(int group) {
+		return groupStart[group];
+	}
+
+	/**
+	 * Record where the pages of a group of buckets start.
+	 */
+	public void setGroupStart(int group, int pageNo) {
+		groupStart[group] = pageNo;
+	}
+
+	/**
+	 * @return the id of the primary page of a bucket
+	 */
+	public HashPageId getBucketPageId(int bucket) {
+		int group = getGroup(bucket);
+		int first = group == 0 ? 0 : 1 << (group - 1);
+		return new HashPageId(pid.getTableId(), groupStart[group] + bucket - first);
+	}
+
+	/**
+	 * @return the id of the first free overflow page, or null if there is none
+	 */
+	public HashPageId getFreeListId() {
+		if (freeList == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), freeList);
+	}
+
+	/**
+	 * Set the first free overflow page
+	 * @param id - the id of the page, or null if there is none
+	 */
+	public void setFreeListId(HashPageId id) {
+		freeList = id == null ? 0 : id.getPageNumber();
+	}
+
+}
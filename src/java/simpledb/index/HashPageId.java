@@ -0,0 +1,91 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.PageId;
+
+import java.util.Objects;
+
+/** Unique identifier for HashMetaPage and HashBucketPage objects. Page 0
+ *  of a HashFile is its meta page; every other page is a bucket page.
+ */
+public class HashPageId implements PageId {
+
+	private final int tableId;
+	private final int pgNo;
+
+	/**
+	 * Constructor. Create a page id structure for a specific page of a
+	 * specific table.
+	 *
+	 * @param tableId The table that is being referenced
+	 * @param pgNo The page number in that table.
+	 */
+	public HashPageId(int tableId, int pgNo) {
+		this.tableId = tableId;
+		this.pgNo = pgNo;
+	}
+
+	/** @return the table associated with this PageId */
+	public int getTableId() {
+		return tableId;
+	}
+
+	/**
+	 * @return the page number in the table getTableId() associated with
+	 *   this PageId
+	 */
+	public int getPageNumber() {
+		return pgNo;
+	}
+
+	/**
+	 * @return whether this is the id of the meta page of its file
+	 */
+	public boolean isMeta() {
+		return pgNo == 0;
+	}
+
+	/**
+	 * @return a hash code for this page, represented by the combination of
+	 *   the table number and page number (needed if a PageId is used as a
+	 *   key in a hash table in the BufferPool, for example.)
+	 * @see BufferPool
+	 */
+	public int hashCode() {
+		return Objects.hash(tableId, pgNo);
+	}
+
+	/**
+	 * Compares one PageId to another.
+	 *
+	 * @param o The object to compare against (must be a PageId)
+	 * @return true if the objects are equal (e.g., page numbers and table
+	 *   ids are the same)
+	 */
+	public boolean equals(Object o) {
+		if (!(o instanceof HashPageId))
+			return false;
+		HashPageId p = (HashPageId) o;
+		return tableId == p.tableId && pgNo == p.pgNo;
+	}
+
+	public String toString() {
+		return "(tableId: " + tableId + ", pgNo: " + pgNo + ")";
+	}
+
+	/**
+	 *  Return a representation of this object as an array of
+	 *  integers, for writing to disk.  Size of returned array must contain
+	 *  number of integers that corresponds to number of args to one of the
+	 *  constructors.
+	 */
+	public int[] serialize() {
+		int[] data = new int[2];
+
+		data[0] = tableId;
+		data[1] = pgNo;
+
+		return data;
+	}
+
+}
@@ -0,0 +1,170 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * HashScan is an operator which reads the tuples of a HashFile whose key
+ * equals a value, by looking in the bucket of that value only. The tuples
+ * come in no particular order. Only EQUALS predicates can be answered by
+ * a hash index; without a predicate, the scan returns all tuples.
+ */
+public class HashScan implements IndexOpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final HashFile file;
+	private final TupleDesc myTd;
+	private IndexPredicate ipred;
+	private transient DbFileIterator it;
+	private final String tablename;
+	private final String alias;
+
+	/**
+	 * Creates a hash scan over the specified table as a part of the
+	 * specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan, which must be stored in a HashFile.
+	 * @param tableAlias
+	 *            the alias of this table (needed by the parser); the returned
+	 *            tupleDesc should have fields with name tableAlias.fieldName
+	 * @param ipred
+	 *            The EQUALS predicate on the key to match. If null, the scan
+	 *            will return all tuples
+	 * @throws IllegalArgumentException if the table is not a HashFile, or
+	 *            the predicate is not an EQUALS predicate
+	 */
+	public HashScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HashFile))
+			throw new IllegalArgumentException("table " + tableid + " is not a HashFile");
+		checkPredicate(ipred);
+		this.tid = tid;
+		this.file = (HashFile) Database.getCatalog().getDatabaseFile(tableid);
+		this.ipred = ipred;
+		this.alias = tableAlias;
+		this.tablename = Database.getCatalog().getTableName(tableid);
+		this.it = iterator(ipred);
+		TupleDesc td = file.getTupleDesc();
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	public HashScan(TransactionId tid, int tableid, IndexPredicate ipred) {
+		this(tid, tableid, Database.getCatalog().getTableName(tableid), ipred);
+	}
+
+	private static void checkPredicate(IndexPredicate ipred) {
+		if (ipred != null && ipred.getOp() != Op.EQUALS)
+			throw new IllegalArgumentException("a hash index only answers EQUALS predicates, not " + ipred.getOp());
+	}
+
+	private DbFileIterator iterator(IndexPredicate ipred) {
+		return ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+	}
+
+	/**
+	 * @return the table name of the table the operator scans
+	 */
+	public String getTableName() {
+		return this.tablename;
+	}
+
+	/**
+	 * @return Return the alias of the table this operator scans.
+	 */
+	public String getAlias() {
+		return this.alias;
+	}
+
+	/**
+	 * @return the predicate on the key, or null if the scan returns all tuples
+	 */
+	public IndexPredicate getPredicate() {
+		return ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		it.open();
+		isOpen = true;
+	}
+
+	/**
+	 * Open the scan with a new predicate, which replaces the one it was
+	 * created with.
+	 * @throws IllegalArgumentException if the predicate is not an EQUALS predicate
+	 */
+	public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+		checkPredicate(ipred);
+		this.ipred = ipred;
+		this.it = iterator(ipred);
+		open();
+	}
+
+	/**
+	 * Returns the TupleDesc with field names from the underlying HashFile,
+	 * prefixed with the tableAlias string from the constructor.
+	 */
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		return it.next();
+	}
+
+	public void close() {
+		it.close();
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * Start over with a new predicate.
+	 * @throws IllegalArgumentException if the predicate is not an EQUALS predicate
+	 */
+	public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		close();
+		open(ipred);
+	}
+}
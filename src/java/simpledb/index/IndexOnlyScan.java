@@ -0,0 +1,145 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an operator which reads the fields of a HeapFile that a
+ * {@link SecondaryIndex} covers -- the indexed field and the fields the
+ * index includes -- straight from the leaf pages of the index, without
+ * fetching the tuples from the table.
+ * <p>
+ * The returned tuples hold the fields listed by
+ * {@link SecondaryIndex#getColumns}, in that order, and carry the RecordIds
+ * of the tuples of the table they were copied from.
+ */
+public class IndexOnlyScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private final IndexPredicate ipred;
+	private final TupleDesc myTd;
+	private transient DbFileIterator it;
+	private final String tablename;
+	private final String alias;
+
+	/**
+	 * Creates a scan over the entries of the index that match the predicate,
+	 * as a part of the specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to read.
+	 * @param tableAlias
+	 *            the alias of the index's table (needed by the parser); the
+	 *            returned tupleDesc should have fields with name
+	 *            tableAlias.fieldName
+	 * @param ipred
+	 *            The predicate on the indexed field to match. If null, the
+	 *            scan will return all entries, in sorted order if the index
+	 *            is a B+ tree
+	 */
+	public IndexOnlyScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.index = index;
+		this.ipred = ipred;
+		this.alias = tableAlias;
+		this.tablename = Database.getCatalog().getTableName(index.getTableId());
+		TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+		int[] columns = index.getColumns();
+		String[] newNames = new String[columns.length];
+		Type[] newTypes = new Type[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(columns[i]);
+			newTypes[i] = td.getFieldType(columns[i]);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+		this.it = index.entryIterator(tid, ipred);
+	}
+
+	/**
+	 * @return the table name of the table whose index the operator scans
+	 */
+	public String getTableName() {
+		return this.tablename;
+	}
+
+	/**
+	 * @return Return the alias of the table this operator scans.
+	 */
+	public String getAlias() {
+		return this.alias;
+	}
+
+	public SecondaryIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the predicate on the indexed field, or null if the scan returns all entries
+	 */
+	public IndexPredicate getPredicate() {
+		return ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		it.open();
+		isOpen = true;
+	}
+
+	/**
+	 * Returns the TupleDesc of the fields the index covers, with field names
+	 * prefixed with the tableAlias string from the constructor.
+	 */
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		Tuple entry = it.next();
+		Tuple t = new Tuple(myTd);
+		for (int i = 0; i < myTd.numFields(); i++) {
+			t.setField(i, entry.getField(i));
+		}
+		t.setRecordId(index.recordId(entry));
+		return t;
+	}
+
+	public void close() {
+		it.close();
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+}
@@ -0,0 +1,438 @@
+package simpledb.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A secondary index over one field of a HeapFile. The index is a B+ tree or
+ * a HashFile whose tuples are (key, page number, slot number), so each entry
+ * points at the RecordId of a tuple in the table. Duplicate keys are allowed.
+ * A B+ tree index answers range predicates and returns entries in key
+ * order; a hash index answers only EQUALS predicates, reading about one
+ * bucket page for each, and returns entries in no particular order.
+ * <p>
+ * The B+ tree is keyed on the whole (key, page number, slot number), so its
+ * entries are unique and the duplicates of a key are ordered by RecordId:
+ * removing an entry, or resuming a scan after one, searches the tree for
+ * it directly however many duplicates its key has. A hash index keeps the
+ * duplicates of a key in one bucket chain, which a lookup copies and a
+ * delete walks, so it costs time and memory in the number of duplicates
+ * and suits columns with few of them.
+ * <p>
+ * An index may also INCLUDE copies of other fields of the table, stored in
+ * its entries between the key and the RecordId. Queries that only read the
+ * key and the included fields can then be answered from the leaf pages
+ * alone, without fetching any tuples; see {@link IndexOnlyScan}.
+ * <p>
+ * Indexes are registered with {@link simpledb.common.Catalog#addIndex} and
+ * kept up to date by the BufferPool whenever tuples are inserted into or
+ * deleted from the table.
+ */
+public class SecondaryIndex {
+
+	// how full build() packs the pages, leaving room for later inserts
+	private static final double BUILD_FILL_FACTOR = 0.9;
+
+	private final int tableid;
+	private final int field;
+	private final int[] include;
+	private final DbFile file;
+
+	/**
+	 * Constructor
+	 * @param tableid - the id of the HeapFile the index is on
+	 * @param field - the index of the indexed field in the table's TupleDesc
+	 * @param include - the indexes of the fields of the table whose values
+	 *   are stored in the entries too
+	 * @param file - the BTreeFile or HashFile holding the entries; its
+	 *   TupleDesc must be {@link #getTupleDesc} of the types of the field and
+	 *   the included fields, keyed on field 0, or for a BTreeFile on the key,
+	 *   page number and slot as {@link #openFile} does
+	 * @throws IllegalArgumentException if the file is neither a BTreeFile nor a HashFile
+	 */
+	public SecondaryIndex(int tableid, int field, int[] include, DbFile file) {
+		if(!(file instanceof BTreeFile || file instanceof HashFile))
+			throw new IllegalArgumentException("an index is stored in a BTreeFile or a HashFile");
+		if(file instanceof BTreeFile && !Arrays.equals(((BTreeFile) file).keyFields(), keyFields(include.length)))
+			throw new IllegalArgumentException("the B+ tree of an index is keyed on the key, page number and slot");
+		this.tableid = tableid;
+		this.field = field;
+		this.include = include.clone();
+		this.file = file;
+	}
+
+	public SecondaryIndex(int tableid, int field, DbFile file) {
+		this(tableid, field, new int[0], file);
+	}
+
+	/**
+	 * @return the TupleDesc of the entries of an index on a field of the
+	 *   given type, which includes fields of the given types
+	 */
+	public static TupleDesc getTupleDesc(Type keyType, Type... includeTypes) {
+		int n = includeTypes.length;
+		Type[] types = new Type[n + 3];
+		String[] names = new String[n + 3];
+		types[0] = keyType;
+		names[0] = "key";
+		for(int i = 0; i < n; i++) {
+			types[i + 1] = includeTypes[i];
+			names[i + 1] = "include" + i;
+		}
+		types[n + 1] = Type.INT_TYPE;
+		names[n + 1] = "page";
+		types[n + 2] = Type.INT_TYPE;
+		names[n + 2] = "slot";
+		return new TupleDesc(types, names);
+	}
+
+	/**
+	 * @return the fields the B+ tree of an index that includes the given
+	 *   number of fields is keyed on: the key, the page number and the slot
+	 */
+	private static int[] keyFields(int includes) {
+		return new int[] { 0, includes + 1, includes + 2 };
+	}
+
+	/**
+	 * Open (or create, if the file does not exist) the B+ tree of an index on
+	 * a field of the given type, which includes fields of the given types
+	 */
+	public static BTreeFile openFile(File f, Type keyType, Type... includeTypes) {
+		return new BTreeFile(f, keyFields(includeTypes.length), getTupleDesc(keyType, includeTypes));
+	}
+
+	/**
+	 * Open (or create, if the file does not exist) the HashFile of a hash
+	 * index on a field of the given type, which includes fields of the
+	 * given types
+	 */
+	public static HashFile openHashFile(File f, Type keyType, Type... includeTypes) {
+		return new HashFile(f, 0, getTupleDesc(keyType, includeTypes));
+	}
+
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the index of the indexed field in the table's TupleDesc
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * @return the BTreeFile or HashFile holding the entries
+	 */
+	public DbFile getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of pages of the file holding the entries
+	 */
+	public int numPages() {
+		if(file instanceof HashFile)
+			return ((HashFile) file).numPages();
+		return ((BTreeFile) file).numPages();
+	}
+
+	/**
+	 * @return whether lookups in the index can answer a predicate with the
+	 *   given operator on the indexed field: a B+ tree answers all but LIKE
+	 *   and NOT_EQUALS, a hash index only EQUALS
+	 */
+	public boolean supports(Op op) {
+		if(file instanceof HashFile)
+			return op == Op.EQUALS;
+		return op != Op.LIKE && op != Op.NOT_EQUALS;
+	}
+
+	/**
+	 * @return whether the index returns its entries in key order
+	 */
+	public boolean isOrdered() {
+		return file instanceof BTreeFile;
+	}
+
+	/**
+	 * @return the indexes of the fields of the table that the entries hold:
+	 *   the indexed field followed by the included fields
+	 */
+	public int[] getColumns() {
+		int[] columns = new int[include.length + 1];
+		columns[0] = field;
+		System.arraycopy(include, 0, columns, 1, include.length);
+		return columns;
+	}
+
+	private Tuple entry(Tuple t) {
+		Tuple e = new Tuple(file.getTupleDesc());
+		RecordId rid = t.getRecordId();
+		e.setField(0, t.getField(field));
+		for(int i = 0; i < include.length; i++) {
+			e.setField(i + 1, t.getField(include[i]));
+		}
+		e.setField(include.length + 1, new IntField(rid.getPageId().getPageNumber()));
+		e.setField(include.length + 2, new IntField(rid.getTupleNumber()));
+		return e;
+	}
+
+	/**
+	 * @return the RecordId of the tuple an entry points at
+	 */
+	RecordId recordId(Tuple entry) {
+		return new RecordId(new HeapPageId(tableid, ((IntField) entry.getField(include.length + 1)).getValue()),
+				((IntField) entry.getField(include.length + 2)).getValue());
+	}
+
+	/**
+	 * Add the entry for a tuple that was just inserted into the table.
+	 * @param t - the tuple, with the RecordId it was stored under
+	 */
+	public void insert(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Database.getBufferPool().insertTuple(tid, file.getId(), entry(t));
+	}
+
+	/**
+	 * Remove the entry for a tuple deleted from the table.
+	 * @param t - the tuple as it was stored in the table, with all of its
+	 *   fields and its RecordId
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public void delete(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		Tuple found = null;
+		DbFileIterator it;
+		if(file instanceof HashFile) {
+			it = ((HashFile) file).indexIterator(tid, new IndexPredicate(Op.EQUALS, t.getField(field)));
+		} else {
+			// the entry is the only one with its whole key
+			Field key = CompositeField.of(entry(t), keyFields(include.length));
+			it = ((BTreeFile) file).indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+		}
+		it.open();
+		while(found == null && it.hasNext()) {
+			Tuple e = it.next();
+			if(recordId(e).equals(rid))
+				found = e;
+		}
+		it.close();
+		if(found == null)
+			throw new DbException("no index entry for tuple " + rid);
+		Database.getBufferPool().deleteTuple(tid, found);
+	}
+
+	/**
+	 * Fetch a tuple of the table by its RecordId, locking its page READ_ONLY.
+	 * @throws DbException if the slot is empty
+	 */
+	public static Tuple fetch(TransactionId tid, RecordId rid)
+			throws DbException, TransactionAbortedException {
+		HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+		if(!p.isSlotUsed(rid.getTupleNumber()))
+			throw new DbException("no tuple at " + rid);
+		return p.getTuple(rid.getTupleNumber());
+	}
+
+	/**
+	 * Get an iterator over the tuples of the table whose indexed field
+	 * matches a predicate, in the order of the index.
+	 * @see #supports
+	 */
+	public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+		return new SecondaryIndexIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator over the entries of the index whose key matches a
+	 * predicate, in sorted order if the index is a B+ tree. The iteration is
+	 * not thrown off by the transaction deleting entries as it goes; see
+	 * {@link EntryIterator}. A hash lookup copies the entries of the bucket
+	 * when it starts, and the buckets never merge, so it isn't either.
+	 */
+	DbFileIterator entryIterator(TransactionId tid, IndexPredicate ipred) {
+		if(file instanceof HashFile) {
+			HashFile hf = (HashFile) file;
+			return ipred == null ? hf.iterator(tid) : hf.indexIterator(tid, ipred);
+		}
+		return new EntryIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Build the index from the tuples already in the table. The index must
+	 * be empty. A B+ tree is bulk loaded from the sorted entries; a hash
+	 * index takes them one at a time, splitting its buckets as it grows.
+	 * @return the number of entries added
+	 */
+	public int build(TransactionId tid)
+			throws DbException, IOException, TransactionAbortedException {
+		List<Tuple> entries = new ArrayList<>();
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		it.open();
+		while(it.hasNext()) {
+			Tuple t = it.next();
+			entries.add(entry(t));
+		}
+		it.close();
+		if(file instanceof HashFile) {
+			for(Tuple e : entries) {
+				Database.getBufferPool().insertTuple(tid, file.getId(), e);
+			}
+			return entries.size();
+		}
+		entries.sort(new BTreeFileEncoder.TupleComparator(keyFields(include.length)));
+		return ((BTreeFile) file).bulkLoad(tid, new TupleIterator(file.getTupleDesc(), entries), BUILD_FILL_FACTOR);
+	}
+
+	/**
+	 * Iterates over the entries of the index that match the predicate and
+	 * fetches the tuples they point at.
+	 */
+	private static class SecondaryIndexIterator extends AbstractDbFileIterator {
+
+		private final SecondaryIndex index;
+		private final TransactionId tid;
+		private final IndexPredicate ipred;
+		private DbFileIterator entries = null;
+
+		public SecondaryIndexIterator(SecondaryIndex index, TransactionId tid, IndexPredicate ipred) {
+			this.index = index;
+			this.tid = tid;
+			this.ipred = ipred;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			entries = index.entryIterator(tid, ipred);
+			entries.open();
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			if(entries == null || !entries.hasNext())
+				return null;
+			return fetch(tid, index.recordId(entries.next()));
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			if(entries != null)
+				entries.close();
+			entries = null;
+		}
+	}
+
+	/**
+	 * Iterates over the entries of the index that match a predicate. Plans
+	 * like a Delete above an index scan remove the entries the scan returns
+	 * while it runs, and the merges and redistributions that follow move
+	 * entries between the leaves, so the iterator does not hold on to a
+	 * leaf: it copies the matching entries of one leaf at a time, and finds
+	 * the next leaf by searching the tree again for the whole key of the
+	 * last entry returned, which no other entry has.
+	 */
+	private static class EntryIterator extends AbstractDbFileIterator {
+
+		private final SecondaryIndex index;
+		private final TransactionId tid;
+		private final IndexPredicate ipred;
+		private final int[] keyFields;
+		private Iterator<Tuple> entries = null;
+		private boolean done = false;
+		// the whole key of the last entry returned
+		private Field lastKey = null;
+
+		public EntryIterator(SecondaryIndex index, TransactionId tid, IndexPredicate ipred) {
+			this.index = index;
+			this.tid = tid;
+			this.ipred = ipred;
+			this.keyFields = keyFields(index.include.length);
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			entries = Collections.emptyIterator();
+			done = false;
+			lastKey = null;
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			if(entries == null)
+				return null;
+			while(!entries.hasNext()) {
+				if(done)
+					return null;
+				entries = readLeaf();
+			}
+			Tuple e = entries.next();
+			lastKey = CompositeField.of(e, keyFields);
+			return e;
+		}
+
+		/**
+		 * @return the matching entries after the last one returned, from the
+		 *   first leaf that has any
+		 */
+		private Iterator<Tuple> readLeaf() throws DbException, TransactionAbortedException {
+			Op op = ipred == null ? null : ipred.getOp();
+			Field from = lastKey;
+			if(from == null && (op == Op.EQUALS || op == Op.GREATER_THAN || op == Op.GREATER_THAN_OR_EQ))
+				from = ipred.getField();
+			List<Tuple> matches = new ArrayList<>();
+			BTreeLeafPage leaf = ((BTreeFile) index.file).findLeafPage(tid, from);
+			while(leaf != null && matches.isEmpty() && !done) {
+				Iterator<Tuple> it = leaf.iterator();
+				while(it.hasNext()) {
+					Tuple e = it.next();
+					if(lastKey != null && CompositeField.of(e, keyFields).compare(Op.LESS_THAN_OR_EQ, lastKey))
+						continue;
+					Field key = e.getField(0);
+					if(ipred != null && !ipred.matches(key)) {
+						// past the last key that can match
+						if(ipred.isPastEnd(key)) {
+							done = true;
+							break;
+						}
+						continue;
+					}
+					matches.add(e);
+				}
+				BTreePageId next = leaf.getRightSiblingId();
+				if(next == null)
+					done = true;
+				else if(matches.isEmpty() && !done)
+					leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, next, Permissions.READ_ONLY);
+			}
+			if(leaf == null)
+				done = true;
+			return matches.iterator();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			entries = null;
+		}
+	}
+}
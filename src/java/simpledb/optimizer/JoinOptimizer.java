@@ -73,7 +73,10 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj.p == Predicate.Op.EQUALS && LogicalPlan.getParallelism() > 1) {
+            // partition both inputs by key and join the partitions concurrently
+            j = new ParallelHashEquiJoin(p, plan1, plan2, LogicalPlan.getParallelism());
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -276,6 +279,10 @@ public class JoinOptimizer {
             }
         }
         List<LogicalJoinNode> ret =  planCache.getOrder(new HashSet<>(joins));
+        if (ret == null) {
+            // a single-table query has no joins to order
+            ret = new ArrayList<>();
+        }
         if (explain) {
             printJoins(ret, planCache, stats, filterSelectivities);
         }
@@ -4,6 +4,9 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -17,7 +20,8 @@ import java.io.File;
  * A LogicalPlan consits of a collection of table scan nodes, join
  * nodes, filter nodes, a select list, and a group by field.
  * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * and one group by field, optionally followed by an ORDER BY and a
+ * LIMIT/OFFSET clause.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -38,9 +42,13 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private boolean hasLimit = false;
+    private int limit, offset;
     private String query;
 //    private Query owner;
 
+    private static int parallelism = 1;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new ArrayList<>();
@@ -69,6 +77,21 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Set the number of worker threads that single-table scans, filters
+        and aggregates are split across by {@link #physicalPlan}.  A value
+        of 1 (the default) produces serial plans.
+        @param dop the degree of parallelism
+    */
+    public static void setParallelism(int dop) {
+        if (dop < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        parallelism = dop;
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -219,6 +242,21 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT/OFFSET clause to the plan.  When the plan also has an
+        ORDER BY, the two are executed together by a bounded-heap {@link TopN}
+        instead of a full sort.
+        @param limit the maximum number of tuples the query returns
+        @param offset the number of leading tuples to skip
+     * @throws ParsingException if limit or offset is negative
+    */
+    public void addLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0)
+            throw new ParsingException("LIMIT and OFFSET must be non-negative");
+        this.limit = limit;
+        this.offset = offset;
+        hasLimit = true;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -335,7 +373,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan) {
+                // evaluate the filter inside the scan, on the page bytes
+                ((SeqScan) subplan).addPredicate(p);
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -344,7 +387,35 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // read the tables through secondary indexes where that saves I/O:
+        // from the index alone if it covers every field the plan reads, or
+        // by looking up the tuples of a selective filter
+        Set<String> neededFields = neededFields();
+        for (LogicalScanNode table : tables) {
+            OpIterator subplan = subplanMap.get(table.alias);
+            if (subplan instanceof SeqScan) {
+                OpIterator lookup = null;
+                if (neededFields != null)
+                    lookup = indexOnlyScan(t, (SeqScan) subplan, neededFields);
+                if (lookup == null)
+                    lookup = indexScan(t, (SeqScan) subplan,
+                            statsMap.get(Database.getCatalog().getTableName(table.t)));
+                if (lookup != null)
+                    subplanMap.put(table.alias, lookup);
+            }
+        }
         
+        // only decode, and carry through the joins, the columns that the
+        // rest of the plan reads
+        if (neededFields != null) {
+            for (LogicalScanNode table : tables) {
+                OpIterator subplan = subplanMap.get(table.alias);
+                if (subplan instanceof SeqScan)
+                    project((SeqScan) subplan, neededFields);
+            }
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -457,27 +528,258 @@ public class LogicalPlan {
                 }
         }
 
+        // a plan over a single table can be split into page ranges that are
+        // scanned and filtered by separate workers
+        OpIterator[] partitions = null;
+        if (parallelism > 1 && joins.isEmpty() && tables.size() == 1)
+            partitions = partition(t, node, parallelism);
+
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int afield = td.fieldNameToIndex(aggField);
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                Aggregator.Op op = getAggOp(aggOp);
+                if (partitions != null && op != Aggregator.Op.AVG) {
+                    // each worker computes a partial aggregate, and the
+                    // partials are combined after they are gathered
+                    OpIterator[] partials = new OpIterator[partitions.length];
+                    for (int i = 0; i < partitions.length; i++)
+                        partials[i] = new Aggregate(partitions[i], afield, gfield, op);
+                    boolean grouped = gfield != Aggregator.NO_GROUPING;
+                    aggNode = new Aggregate(new Gather(partials),
+                                            grouped ? Aggregator.AGGREGATE_VALUE_INDEX : 0,
+                                            grouped ? Aggregator.GROUP_VALUE_INDEX : Aggregator.NO_GROUPING,
+                                            op == Aggregator.Op.COUNT ? Aggregator.Op.SUM : op);
+                } else {
+                    aggNode = new Aggregate(partitions != null ? new Gather(partitions) : node,
+                                            afield, gfield, op);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
+        } else if (partitions != null) {
+            node = new Gather(partitions);
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && hasLimit) {
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, offset, node);
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        } else if (hasLimit) {
+            node = new Limit(limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** Compute the qualified names of the fields that the plan reads above
+     *  the scans: the select list, the aggregate and GROUP BY fields, the
+     *  ORDER BY field and the join fields. WHERE filters are not included,
+     *  since they are pushed into the scans and evaluated on the pages.
+     *  @return the field names, or null if the select list asks for all
+     *    fields
+     */
+    private Set<String> neededFields() {
+        Set<String> fields = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return null;
+            fields.add(si.fname);
+        }
+        if (hasAgg) {
+            fields.add(aggField);
+            if (groupByField != null)
+                fields.add(groupByField);
+        }
+        if (hasOrderBy)
+            fields.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            fields.add(lj.f1QuantifiedName);
+            fields.add(lj.f2QuantifiedName);
+        }
+        return fields;
+    }
+
+    /** Restrict a scan to the fields in neededFields. The scan is left
+     *  alone if it needs all of its fields or none of them.
+     */
+    private static void project(SeqScan scan, Set<String> neededFields) {
+        TupleDesc td = scan.getTupleDesc();
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (neededFields.contains(td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.isEmpty() || columns.size() == td.numFields())
+            return;
+        int[] cols = new int[columns.size()];
+        for (int i = 0; i < cols.length; i++)
+            cols[i] = columns.get(i);
+        scan.setColumns(cols);
+    }
+
+    /** Replace a scan with a lookup in a secondary index on the field of one
+     *  of its predicates, if the predicate is selective enough that fetching
+     *  the matching tuples one at a time reads fewer pages than scanning the
+     *  table. A hash index can only look up EQUALS predicates, and is chosen
+     *  over a B+ tree on the same field for them, since it reads one bucket
+     *  rather than a path down the tree. The scan's other predicates are
+     *  applied by Filters above the lookup.
+     *  @return the index plan, or null if the scan should be kept
+     */
+    private static OpIterator indexScan(TransactionId t, SeqScan scan, TableStats stats) {
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(scan.getTableId());
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (indexes.isEmpty() || stats == null || !(file instanceof HeapFile))
+            return null;
+
+        SecondaryIndex best = null;
+        Predicate bestPred = null;
+        double bestMatches = ((HeapFile) file).numPages();
+        for (Predicate p : scan.getPredicates()) {
+            for (SecondaryIndex index : indexes) {
+                if (index.getField() != p.getField() || !index.supports(p.getOp()))
+                    continue;
+                double matches = stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand())
+                        * stats.totalTuples();
+                if (matches < bestMatches || matches == bestMatches && best != null
+                        && best.isOrdered() && !index.isOrdered()) {
+                    best = index;
+                    bestPred = p;
+                    bestMatches = matches;
+                }
+            }
+        }
+        if (best == null)
+            return null;
+
+        OpIterator plan = new SecondaryIndexScan(t, best, scan.getAlias(),
+                new IndexPredicate(bestPred.getOp(), bestPred.getOperand()));
+        for (Predicate p : scan.getPredicates()) {
+            if (p != bestPred)
+                plan = new Filter(p, plan);
+        }
+        return plan;
+    }
+
+    /** Replace a scan with a scan of a secondary index that covers all of
+     *  the fields in neededFields and all of the fields of the scan's
+     *  predicates, so that the table itself is never read. An index is
+     *  used if one of the predicates is on its indexed field, or if it is
+     *  smaller than the table.
+     *  @return the index plan, or null if no index covers the scan
+     */
+    private static OpIterator indexOnlyScan(TransactionId t, SeqScan scan, Set<String> neededFields) {
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(scan.getTableId());
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (indexes.isEmpty() || !(file instanceof HeapFile))
+            return null;
+
+        TupleDesc td = scan.getTupleDesc();
+        Set<Integer> needed = new HashSet<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (neededFields.contains(td.getFieldName(i)))
+                needed.add(i);
+        }
+        for (Predicate p : scan.getPredicates())
+            needed.add(p.getField());
+
+        int tablePages = ((HeapFile) file).numPages();
+        SecondaryIndex best = null;
+        Predicate bestPred = null;
+        int bestPages = 0;
+        for (SecondaryIndex index : indexes) {
+            Set<Integer> covered = new HashSet<>();
+            for (int c : index.getColumns())
+                covered.add(c);
+            if (!covered.containsAll(needed))
+                continue;
+            Predicate keyPred = null;
+            for (Predicate p : scan.getPredicates()) {
+                if (p.getField() == index.getField() && index.supports(p.getOp())) {
+                    keyPred = p;
+                    break;
+                }
+            }
+            // prefer lookups on the indexed field, then smaller indexes
+            int pages = index.numPages();
+            boolean better;
+            if (best == null)
+                better = keyPred != null || pages < tablePages;
+            else if ((keyPred == null) != (bestPred == null))
+                better = keyPred != null;
+            else
+                better = pages < bestPages;
+            if (better) {
+                best = index;
+                bestPred = keyPred;
+                bestPages = pages;
+            }
+        }
+        if (best == null)
+            return null;
+
+        OpIterator plan = new IndexOnlyScan(t, best, scan.getAlias(),
+                bestPred == null ? null : new IndexPredicate(bestPred.getOp(), bestPred.getOperand()));
+        // the index returns only the fields it covers, so renumber the
+        // fields of the other predicates
+        int[] columns = best.getColumns();
+        for (Predicate p : scan.getPredicates()) {
+            if (p == bestPred)
+                continue;
+            int field = 0;
+            while (columns[field] != p.getField())
+                field++;
+            plan = new Filter(new Predicate(field, p.getOp(), p.getOperand()), plan);
+        }
+        return plan;
+    }
+
+    /** Split a plan consisting of a {@link SeqScan} under a chain of
+     *  {@link Filter}s into up to dop copies, each scanning a disjoint range
+     *  of the table's pages.
+     *  @return the partitioned plans, or null if the plan has another shape
+     *    or the table is too small to be worth splitting
+     */
+    private static OpIterator[] partition(TransactionId t, OpIterator plan, int dop) {
+        Deque<Predicate> preds = new ArrayDeque<>();
+        OpIterator cur = plan;
+        while (cur instanceof Filter) {
+            preds.push(((Filter) cur).getPredicate());
+            cur = ((Filter) cur).getChildren()[0];
+        }
+        if (!(cur instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) cur;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof HeapFile))
+            return null;
+        int numPages = ((HeapFile) file).numPages();
+        int n = Math.min(dop, numPages);
+        if (n < 2)
+            return null;
+
+        OpIterator[] partitions = new OpIterator[n];
+        for (int i = 0; i < n; i++) {
+            int start = (int) ((long) numPages * i / n);
+            // the last range is left open so that it sees pages appended
+            // after the plan was built
+            int end = i == n - 1 ? -1 : (int) ((long) numPages * (i + 1) / n);
+            SeqScan range = new SeqScan(t, scan.getTableId(), scan.getAlias(), start, end);
+            for (Predicate pred : scan.getPredicates())
+                range.addPredicate(pred);
+            range.setColumns(scan.getColumns());
+            OpIterator p = range;
+            for (Predicate pred : preds)
+                p = new Filter(pred, p);
+            partitions[i] = p;
+        }
+        return partitions;
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -4,7 +4,10 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndexScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -12,11 +15,17 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String PARALLEL_HASH_JOIN = "⨝(hash,%d workers)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String INDEX_ONLY_SCAN = "index only scan";
     static final String ORDERBY = "o";
+    static final String LIMIT = "limit";
+    static final String OFFSET = "offset";
+    static final String GATHER = "gather";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -29,7 +38,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof ParallelHashEquiJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -58,6 +67,39 @@ public class QueryPlanVisualizer {
 
     }
 
+    /** Position a scan node below its parent, hanging it from a vertical
+     *  bar down to the bottom of the plan. */
+    private SubTreeDescriptor scanNode(SubTreeDescriptor thisNode, int queryPlanDepth,
+                                       int currentDepth, int currentStartPosition,
+                                       int parentUpperBarStartShift) {
+        if (SCAN.length() / 2 < parentUpperBarStartShift) {
+            thisNode.upBarPosition = currentStartPosition
+                    + parentUpperBarStartShift;
+            thisNode.textStartPosition = thisNode.upBarPosition
+                    - SCAN.length() / 2;
+        } else {
+            thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                    / 2;
+            thisNode.textStartPosition = currentStartPosition;
+        }
+        thisNode.width = thisNode.textStartPosition - currentStartPosition
+                + thisNode.text.length();
+        int embedHeight = (queryPlanDepth - currentDepth) / 2 - 1;
+        thisNode.height = currentDepth + 2 * embedHeight;
+        int currentHeight = thisNode.height;
+        SubTreeDescriptor parentNode = thisNode;
+        for (int i = 0; i < embedHeight; i++) {
+            parentNode = new SubTreeDescriptor(parentNode);
+            parentNode.text = "|";
+            parentNode.upBarPosition = thisNode.upBarPosition;
+            parentNode.width = thisNode.width;
+            parentNode.height = currentHeight - 2;
+            parentNode.textStartPosition = thisNode.upBarPosition;
+            currentHeight -= 2;
+        }
+        return parentNode;
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
                                         OpIterator queryPlan, int currentStartPosition,
                                         int parentUpperBarStartShift) {
@@ -78,32 +120,50 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
-                thisNode.upBarPosition = currentStartPosition
-                        + parentUpperBarStartShift;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
-            } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
-                        / 2;
-                thisNode.textStartPosition = currentStartPosition;
+            // pushed-down predicates number fields as the table does, not as
+            // the (possibly projected) scan output does
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(s.getTableId());
+            for (Predicate p : s.getPredicates()) {
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT,
+                        s.getAlias() + "." + tableTd.getFieldName(p.getField())
+                                + p.getOp() + p.getOperand());
+            }
+            thisNode = scanNode(thisNode, queryPlanDepth, currentDepth,
+                    currentStartPosition, parentUpperBarStartShift);
+        } else if (queryPlan instanceof SecondaryIndexScan) {
+            SecondaryIndexScan s = (SecondaryIndexScan) queryPlan;
+            String tableName = s.getTableName();
+            String alias = s.getAlias();
+            if (!tableName.equals(alias))
+                alias = " " + alias;
+            else
+                alias = "";
+            thisNode.text = String
+                    .format("%1$s(%2$s)", INDEX_SCAN, tableName + alias);
+            if (s.getPredicate() != null) {
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT,
+                        s.getTupleDesc().getFieldName(s.getIndex().getField())
+                                + s.getPredicate().getOp() + s.getPredicate().getField());
             }
-            thisNode.width = thisNode.textStartPosition - currentStartPosition
-                    + thisNode.text.length();
-            int embedHeight = (queryPlanDepth - currentDepth) / 2 - 1;
-            thisNode.height = currentDepth + 2 * embedHeight;
-            int currentHeight = thisNode.height;
-            SubTreeDescriptor parentNode = thisNode;
-            for (int i = 0; i < embedHeight; i++) {
-                parentNode = new SubTreeDescriptor(parentNode);
-                parentNode.text = "|";
-                parentNode.upBarPosition = thisNode.upBarPosition;
-                parentNode.width = thisNode.width;
-                parentNode.height = currentHeight - 2;
-                parentNode.textStartPosition = thisNode.upBarPosition;
-                currentHeight -= 2;
+            thisNode = scanNode(thisNode, queryPlanDepth, currentDepth,
+                    currentStartPosition, parentUpperBarStartShift);
+        } else if (queryPlan instanceof IndexOnlyScan) {
+            IndexOnlyScan s = (IndexOnlyScan) queryPlan;
+            String tableName = s.getTableName();
+            String alias = s.getAlias();
+            if (!tableName.equals(alias))
+                alias = " " + alias;
+            else
+                alias = "";
+            thisNode.text = String
+                    .format("%1$s(%2$s)", INDEX_ONLY_SCAN, tableName + alias);
+            if (s.getPredicate() != null) {
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT,
+                        s.getTupleDesc().getFieldName(0)
+                                + s.getPredicate().getOp() + s.getPredicate().getField());
             }
-            thisNode = parentNode;
+            thisNode = scanNode(thisNode, queryPlanDepth, currentDepth,
+                    currentStartPosition, parentUpperBarStartShift);
         } else {
 
             Operator plan = (Operator) queryPlan;
@@ -138,18 +198,26 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin || plan instanceof ParallelHashEquiJoin) {
+                JoinPredicate jp;
+                String hashJoin;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                    hashJoin = HASH_JOIN;
+                } else {
+                    ParallelHashEquiJoin j = (ParallelHashEquiJoin) plan;
+                    jp = j.getJoinPredicate();
+                    hashJoin = String.format(PARALLEL_HASH_JOIN, j.getPartitions());
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", hashJoin, field1
+                        + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (hashJoin.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = hashJoin.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -158,7 +226,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - hashJoin.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -240,6 +308,61 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                TopN o = (TopN) plan;
+                thisNode.text = String.format(
+                        "%1$s(%2$s),%3$s(%4$d),%5$s(%6$d),card:%7$d",
+                        ORDERBY,
+                        children[0].getTupleDesc().getFieldName(
+                                o.getOrderByField()),LIMIT,o.getLimit(),OFFSET,o.getOffset(),o.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (ORDERBY.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = ORDERBY.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - ORDERBY.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                thisNode.text = String.format("%1$s(%2$d),%3$s(%4$d),card:%5$d", LIMIT, l.getLimit(),OFFSET,l.getOffset(),l.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = LIMIT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - LIMIT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof Gather) {
+                // all workers run the same pipeline, so only the first is drawn
+                thisNode.text = String.format("%1$s(%2$d workers),card:%3$d", GATHER, children.length,plan.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (GATHER.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = GATHER.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - GATHER.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
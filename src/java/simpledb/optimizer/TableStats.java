@@ -106,7 +106,8 @@ public class TableStats {
         costPerPageIO = ioCostPerPage;
         tupleNumber = 0;
         // TODO: not sure whether the TransactionId here is properly generated
-        DbFileIterator dbFileIterator = dbFile.iterator(new TransactionId());
+        TransactionId tid = new TransactionId();
+        DbFileIterator dbFileIterator = dbFile.iterator(tid);
         try {
             dbFileIterator.open();
             while (dbFileIterator.hasNext()) {
@@ -152,6 +153,8 @@ public class TableStats {
                 }
             }
             dbFileIterator.close();
+            // release the read locks, which would block later updates
+            Database.getBufferPool().transactionComplete(tid);
         } catch (TransactionAbortedException | DbException e) {
             e.printStackTrace();
             // FIXME
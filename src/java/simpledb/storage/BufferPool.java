@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.SecondaryIndex;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.util.LockManager;
@@ -21,6 +22,15 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages are managed NO-FORCE/STEAL: a commit only logs the changes of the
+ * transaction's pages, which are written out later, and a page holding
+ * uncommitted changes may be written out to make room.  A page is always
+ * logged before it is written (see {@link LogFile}).
+ * <p>
+ * Committed pages are written out in the background by a {@link PageWriter}
+ * so that checkpoints need not flush anything and recovery has little to
+ * redo; see {@link #setWriterDelay}.
  * 
  * @Threadsafe, all fields are final
  */
@@ -36,12 +46,23 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Milliseconds between rounds of the background writer. */
+    private static volatile long writerDelay = 200;
+
     private final int maxPageNumber;
     private final List<Page> pageList;
     private final Map<PageId, Page> pageId2PageMap;
     private final Map<TransactionId, Set<PageId>> txId2PageIdMap;
     private final Map<PageId, Set<TransactionId>> pageId2txIdMap;
     private final LockManager lockManager;
+    // pages whose logged changes may not be on disk yet, mapped to the log
+    // offset of the first such change; protected by this
+    private final Map<PageId, Long> dirtyPageTable;
+    // committed images of pages written out while a transaction that
+    // changed them was still running, so an abort can restore them;
+    // protected by this
+    private final Map<TransactionId, Map<PageId, Page>> stolenPages;
+    private final PageWriter writer;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -56,6 +77,9 @@ public class BufferPool {
         txId2PageIdMap = new ConcurrentHashMap<>();
         pageId2txIdMap = new ConcurrentHashMap<>();
         lockManager = new LockManager();
+        dirtyPageTable = new HashMap<>();
+        stolenPages = new HashMap<>();
+        writer = new PageWriter(this);
     }
     
     public static int getPageSize() {
@@ -72,6 +96,29 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Set how long, in milliseconds, the background writer waits between
+     * rounds of writing out committed pages.  Zero turns it off, leaving
+     * committed pages to eviction and explicit flushes.
+     */
+    public static void setWriterDelay(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("writer delay must not be negative");
+        writerDelay = millis;
+    }
+
+    public static long getWriterDelay() {
+        return writerDelay;
+    }
+
+    /**
+     * Stop the background writer of this buffer pool, waiting for the page
+     * it is writing, if any.  Used when the pool is thrown away.
+     */
+    public void stopWriter() {
+        writer.stop();
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -93,20 +140,60 @@ public class BufferPool {
         // FIXME: the same tid request with different permission level
         //    Also, the same page might be requested by multiple transaction
         lockManager.lock(tid, pid, perm);
-        if (pageId2PageMap.containsKey(pid)) {
+        // the page lock is taken outside the monitor so that a waiting
+        // transaction doesn't block every other reader; the cache itself
+        // may be hit by several worker threads of one parallel query
+        synchronized (this) {
+            Page page = cachedPage(pid);
+            addTransactionPageRelation(tid, pid);
+            return page;
+        }
+    }
+
+    /**
+     * Retrieve the specified page like getPage, but without waiting: if
+     * another transaction holds a conflicting lock, return null instead.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return the page, or null if the lock could not be taken right away
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm) throws DbException {
+        if (!lockManager.tryLock(tid, pid, perm)) {
+            return null;
+        }
+        synchronized (this) {
+            Page page = cachedPage(pid);
             addTransactionPageRelation(tid, pid);
-            return pageId2PageMap.get(pid);
-        } else {
+            return page;
+        }
+    }
+
+    /**
+     * Retrieve the specified page without locking it.  Only for callers
+     * that keep the page from changing under them by other means, such as
+     * the latch a B+ tree holds over its internal pages.
+     *
+     * @param pid the ID of the requested page
+     */
+    public synchronized Page getPageUnlocked(PageId pid) throws DbException {
+        return cachedPage(pid);
+    }
+
+    /** @return the cached page, reading it in if necessary */
+    private synchronized Page cachedPage(PageId pid) throws DbException {
+        Page page = pageId2PageMap.get(pid);
+        if (page == null) {
             while (pageList.size() >= maxPageNumber) {
                evictPage();
             }
             DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page newPage = dbfile.readPage(pid);
-            pageList.add(newPage);
-            pageId2PageMap.put(pid, newPage);
-            addTransactionPageRelation(tid, pid);
-            return newPage;
+            page = dbfile.readPage(pid);
+            pageList.add(page);
+            pageId2PageMap.put(pid, page);
         }
+        return page;
     }
 
     /**
@@ -126,13 +213,19 @@ public class BufferPool {
     }
 
     /**
-     * Release all locks associated with a given transaction.
+     * Commit a given transaction and release all locks associated with it.
+     * Same as transactionComplete(tid, true).
      *
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
+    }
+
+    /** Release all locks associated with a given transaction. */
+    private void releaseLocks(TransactionId tid) {
         if (txId2PageIdMap.get(tid) == null) {
             return;
         }
@@ -149,6 +242,11 @@ public class BufferPool {
         return lockManager.holdsLock(tid, p);
     }
 
+    /** Return true if a transaction other than tid has a write lock on the specified page */
+    public boolean isWriteLockedByOther(TransactionId tid, PageId p) {
+        return lockManager.isWriteLockedByOther(tid, p);
+    }
+
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
@@ -160,32 +258,35 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1|lab2
 
-        if (commit) {
-            // Flush all pages to disk and reset dirty sign
-            for (PageId pid : txId2PageIdMap.get(tid)) {
-                Page page = pageId2PageMap.get(pid);
-                if (page.isDirty() == tid) {
-                    try {
-                        flushPage(pid);
-                        page.setBeforeImage();
-                        page.markDirty(false, tid);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        throw new RuntimeException();
-                    }
-                }
+        try {
+            if (commit) {
+                logCommittedPages(tid);
+            } else {
+                revertPages(tid);
             }
-        } else {
-            // discard all the pages that has been modified by this TX
-            for (PageId pid : txId2PageIdMap.get(tid)) {
-                Page page = pageId2PageMap.get(pid);
-                if (page.isDirty() == tid) {
-                    discardPage(pid);
-                }
-            }
-
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException();
         }
-        transactionComplete(tid);
+        releaseLocks(tid);
+    }
+
+    /**
+     * Commit a given transaction, appending its commit record to the log
+     * before its locks are released. Pages may reach disk before the
+     * transaction commits, so another transaction must not see its changes
+     * until the commit record is ahead of anything that transaction logs;
+     * otherwise a crash in between would roll back changes that a
+     * committed transaction read.
+     *
+     * @param tid the ID of the committing transaction
+     * @param synchronous whether to force the commit record to disk before
+     *        the locks are released
+     */
+    public void commitTransaction(TransactionId tid, boolean synchronous) throws IOException {
+        logCommittedPages(tid);
+        Database.getLogFile().logCommit(tid, synchronous);
+        releaseLocks(tid);
     }
 
     /**
@@ -199,6 +300,8 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * Adds an entry for the tuple to each of the table's secondary indexes.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -209,19 +312,85 @@ public class BufferPool {
         // not necessary for lab1
         // TODO: what if page size of one insertion exceeds the max capacity of bufferpool?
         DbFile theFile = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> dirtyPages = theFile.insertTuple(tid, t);
+        cacheDirtyPages(tid, theFile.insertTuple(tid, t));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.insert(tid, t);
+        }
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid.  Works like calling insertTuple for each of them, except that
+     * the file fills a page completely before it moves on to the next one
+     * (see {@link DbFile#insertTuples}), so every page is located, locked
+     * and dirtied once per batch instead of once per tuple.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @return the number of tuples added
+     */
+    public int insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile theFile = Database.getCatalog().getDatabaseFile(tableId);
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        // the tuples only get their RecordIds as they are stored, so keep
+        // them until the whole batch is in
+        List<Tuple> inserted = new ArrayList<>();
+        int[] count = {0};
+        Iterator<Tuple> counted = new Iterator<Tuple>() {
+            public boolean hasNext() {
+                return tuples.hasNext();
+            }
+
+            public Tuple next() {
+                count[0]++;
+                Tuple t = tuples.next();
+                if (!indexes.isEmpty())
+                    inserted.add(t);
+                return t;
+            }
+        };
+        cacheDirtyPages(tid, theFile.insertTuples(tid, counted));
+        for (SecondaryIndex index : indexes) {
+            for (Tuple t : inserted) {
+                index.insert(tid, t);
+            }
+        }
+        return count[0];
+    }
+
+    /**
+     * Caches the pages a file dirtied that are not in the buffer pool yet,
+     * locking them for tid, and marks them all dirty.  The page writer and
+     * other transactions walk the cache under the pool's monitor, so it is
+     * only changed under it too; the lock is taken outside of it, as in
+     * getPage, since it may block.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> dirtyPages)
+        throws DbException, TransactionAbortedException {
         for (Page dirtyPage : dirtyPages) {
-            if (!pageId2PageMap.containsKey(dirtyPage.getId())) {
-                if (pageList.size() >= maxPageNumber) {
-                    evictPage();
+            PageId pid = dirtyPage.getId();
+            boolean cached;
+            synchronized (this) {
+                cached = pageId2PageMap.containsKey(pid);
+            }
+            if (!cached) {
+                lockManager.lock(tid, pid, Permissions.READ_WRITE);
+            }
+            synchronized (this) {
+                if (!pageId2PageMap.containsKey(pid)) {
+                    if (pageList.size() >= maxPageNumber) {
+                        evictPage();
+                    }
+                    addTransactionPageRelation(tid, pid);
+                    pageList.add(dirtyPage);
+                    pageId2PageMap.put(pid, dirtyPage);
                 }
-                lockManager.lock(tid, dirtyPage.getId(), Permissions.READ_WRITE);
-                pageList.add(dirtyPage);
-                pageId2PageMap.put(dirtyPage.getId(), dirtyPage);
+                dirtyPage.markDirty(true, tid);
             }
-            dirtyPage.markDirty(true, tid);
+        }
     }
-}
 
     /**
      * Remove the specified tuple from the buffer pool.
@@ -233,6 +402,8 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * Removes the tuple's entry from each of the table's secondary indexes.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
@@ -241,31 +412,38 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         // TODO: delete the tuple in file, and mark the resut as dirty, not right here
-        DbFile theFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        List<Page> dirtyPages = theFile.deleteTuple(tid, t);
-        for (Page dirtyPage : dirtyPages) {
-            if (!pageId2PageMap.containsKey(dirtyPage.getId())) {
-                if (pageList.size() >= maxPageNumber) {
-                    evictPage();
-                }
-                lockManager.lock(tid, dirtyPage.getId(), Permissions.READ_WRITE);
-                pageList.add(dirtyPage);
-                pageId2PageMap.put(dirtyPage.getId(), dirtyPage);
-            }
-            dirtyPage.markDirty(true, tid);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            // t may hold only some of the fields (see SeqScan#setColumns), so
+            // take the key from the tuple as it is stored
+            index.delete(tid, SecondaryIndex.fetch(tid, t.getRecordId()));
         }
+        DbFile theFile = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, theFile.deleteTuple(tid, t));
     }
 
     /**
-     * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     *     break simpledb if running in NO STEAL mode.
+     * Flush all dirty pages to disk, including pages with uncommitted
+     * changes; those changes are logged first so they can be rolled back.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
         for (Page page : pageList) {
-            if (page.isDirty() != null) {
+            if (page.isDirty() != null || dirtyPageTable.containsKey(page.getId())) {
+                flushPage(page.getId());
+            }
+        }
+    }
+
+    /**
+     * Write out every page whose committed changes have not reached disk
+     * yet, leaving pages with uncommitted changes alone.  Used when the
+     * buffer pool is shut down and replaced.
+     */
+    public synchronized void flushCommittedPages() throws IOException {
+        for (Page page : pageList) {
+            if (page.isDirty() == null && dirtyPageTable.containsKey(page.getId())) {
                 flushPage(page.getId());
             }
         }
@@ -285,6 +463,7 @@ public class BufferPool {
         Page thePage = pageId2PageMap.get(pid);
         pageList.remove(thePage);
         pageId2PageMap.remove(pid);
+        dirtyPageTable.remove(pid);
     }
 
     /**
@@ -294,13 +473,21 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-
-        // append an update record to the log, with
-        // a before-image and after-image.
         Page p = pageId2PageMap.get(pid);
+        if (p == null) {
+            return;
+        }
         TransactionId dirtier = p.isDirty();
         if (dirtier != null) {
-            Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
+            // stealing: remember what the page looked like before the still
+            // running transaction touched it, in case it aborts
+            stolenPages.computeIfAbsent(dirtier, k -> new HashMap<>())
+                    .putIfAbsent(pid, p.getBeforeImage());
+            logChanges(dirtier, p);
+        }
+        if (dirtyPageTable.remove(pid) != null) {
+            // write-ahead: the records describing the page must be on disk
+            // before the page itself
             Database.getLogFile().force();
         }
 
@@ -308,6 +495,107 @@ public class BufferPool {
         file.writePage(p);
     }
 
+    /**
+     * Appends an update record with the changes tid made to the page since
+     * it was last logged. The logged contents become the page's before
+     * image, so consecutive records of a page chain onto each other, and
+     * the page stays in the dirty page table until it is written out.
+     */
+    private void logChanges(TransactionId tid, Page p) throws IOException {
+        long offset = Database.getLogFile().logWrite(tid, p.getBeforeImage(), p);
+        p.setBeforeImage();
+        p.markDirty(false, tid);
+        if (dirtyPageTable.putIfAbsent(p.getId(), offset) == null) {
+            writer.wake();
+        }
+    }
+
+    /**
+     * Write out the committed page that has been in the dirty page table
+     * the longest.  Pages that are dirty or write locked are skipped, since
+     * a transaction may be changing them.  Called by the background writer.
+     *
+     * @return false if there was no such page
+     */
+    synchronized boolean writeOldestPage() throws IOException {
+        PageId oldest = null;
+        long oldestOffset = Long.MAX_VALUE;
+        for (Map.Entry<PageId, Long> e : dirtyPageTable.entrySet()) {
+            PageId pid = e.getKey();
+            Page page = pageId2PageMap.get(pid);
+            if (e.getValue() < oldestOffset && page != null && page.isDirty() == null
+                    && !lockManager.isWriteLocked(pid)) {
+                oldest = pid;
+                oldestOffset = e.getValue();
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        flushPage(oldest);
+        return true;
+    }
+
+    /** @return a copy of the dirty page table, for a checkpoint */
+    synchronized Map<PageId, Long> dirtyPages() {
+        return new HashMap<>(dirtyPageTable);
+    }
+
+    /**
+     * Logs the changes to the pages dirtied by a committing transaction.
+     * The pages themselves are not written (NO-FORCE): the commit record
+     * that follows forces these records to disk, and the pages go out
+     * later, when they are evicted or flushed.
+     */
+    private synchronized void logCommittedPages(TransactionId tid) throws IOException {
+        Set<PageId> pids = txId2PageIdMap.get(tid);
+        if (pids != null) {
+            for (PageId pid : pids) {
+                Page page = pageId2PageMap.get(pid);
+                if (page != null && page.isDirty() == tid) {
+                    logChanges(tid, page);
+                }
+            }
+        }
+        stolenPages.remove(tid);
+    }
+
+    /**
+     * Undoes an aborting transaction's changes to cached and stolen pages.
+     * Cached pages go back to their before image; pages that were written
+     * out with the transaction's changes get their committed image back
+     * on disk.
+     */
+    private synchronized void revertPages(TransactionId tid) throws IOException {
+        Map<PageId, Page> stolen = stolenPages.remove(tid);
+        if (stolen == null) {
+            stolen = Collections.emptyMap();
+        }
+        Set<PageId> pids = txId2PageIdMap.get(tid);
+        if (pids != null) {
+            for (PageId pid : pids) {
+                Page page = pageId2PageMap.get(pid);
+                if (page != null && page.isDirty() == tid && !stolen.containsKey(pid)) {
+                    replacePage(page, page.getBeforeImage());
+                }
+            }
+        }
+        for (Page committed : stolen.values()) {
+            PageId pid = committed.getId();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(committed);
+            Page cached = pageId2PageMap.get(pid);
+            if (cached != null) {
+                replacePage(cached, committed);
+            }
+            dirtyPageTable.remove(pid);
+        }
+    }
+
+    private void replacePage(Page cached, Page replacement) {
+        pageList.set(pageList.indexOf(cached), replacement);
+        pageId2PageMap.put(replacement.getId(), replacement);
+    }
+
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
@@ -328,21 +616,33 @@ public class BufferPool {
         // not necessary for lab1
         // TODO: the eviction policy is really naive and ineffective, refine this when necessary!
         Page chosenPage = choosePageToEvict();
-        assert chosenPage.isDirty() == null;
+        PageId pid = chosenPage.getId();
+        if (chosenPage.isDirty() != null || dirtyPageTable.containsKey(pid)) {
+            try {
+                flushPage(pid);
+            } catch (IOException e) {
+                throw new DbException("could not write out evicted page: " + e.getMessage());
+            }
+        }
         // 1. 释放锁，删除关系
-        TransactionId[] relatedTransactionID = pageId2txIdMap.get(chosenPage.getId()).toArray(new TransactionId[0]);
+        // a transaction whose changes were just stolen keeps its lock, since
+        // the page on disk now holds its uncommitted data
+        // pages read with getPageUnlocked may never have been locked
+        TransactionId[] relatedTransactionID = pageId2txIdMap.getOrDefault(pid, Collections.emptySet())
+                .toArray(new TransactionId[0]);
         for (TransactionId tid : relatedTransactionID) {
-            unsafeReleasePage(tid, chosenPage.getId());
+            Map<PageId, Page> stolen = stolenPages.get(tid);
+            if (stolen == null || !stolen.containsKey(pid)) {
+                unsafeReleasePage(tid, pid);
+            }
         }
         // 2. 从内存中删除页
-        discardPage(chosenPage.getId());
+        discardPage(pid);
     }
 
     private void addTransactionPageRelation(TransactionId tid, PageId pid) {
-        txId2PageIdMap.computeIfAbsent(tid, k -> new HashSet<>());
-        txId2PageIdMap.get(tid).add(pid);
-        pageId2txIdMap.computeIfAbsent(pid, k -> new HashSet<>());
-        pageId2txIdMap.get(pid).add(tid);
+        txId2PageIdMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+        pageId2txIdMap.computeIfAbsent(pid, k -> ConcurrentHashMap.newKeySet()).add(tid);
     }
 
     private void removeTransactionPageRelation(TransactionId tid, PageId pid) {
@@ -350,19 +650,28 @@ public class BufferPool {
         pageId2txIdMap.get(pid).remove(tid);
     }
 
+    /**
+     * Prefers clean pages, then pages holding only committed changes, and
+     * steals a page with uncommitted changes only when nothing else is left.
+     */
     private Page choosePageToEvict() throws DbException {
         assert pageList.size() > 0;
-        Page ret = null;
+        Page committed = null;
+        Page uncommitted = null;
         for (Page page : pageList) {
-            if (page.isDirty() == null) {
-                ret = page;
-                break;
+            if (page.isDirty() != null) {
+                if (uncommitted == null) {
+                    uncommitted = page;
+                }
+            } else if (dirtyPageTable.containsKey(page.getId())) {
+                if (committed == null) {
+                    committed = page;
+                }
+            } else {
+                return page;
             }
         }
-        if (ret == null) {
-            throw new DbException("All pages are dirty.");
-        }
-        return ret;
+        return committed != null ? committed : uncommitted;
     }
 
 //    private void handleLocksOnCleanPage(Page thePage) {
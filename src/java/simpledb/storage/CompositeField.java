@@ -0,0 +1,109 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+import simpledb.common.Type;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that stores the values of several fields, used as the key
+ * of a B+ tree keyed on more than one field. Composite fields compare
+ * lexicographically: by their first fields, then by their second fields, and
+ * so on.
+ * <p>
+ * A composite field with fewer fields than another compares equal to it if
+ * all of its fields are equal to the leading fields of the other, so it can
+ * be used as a prefix of the keys of a tree: for example (5) is EQUALS to
+ * every key (5, x), and (5) &lt; (6, x) for every x. A Field that is not a
+ * CompositeField compares as a composite field holding just that field.
+ */
+public class CompositeField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field[] fields;
+
+    /**
+     * Constructor.
+     *
+     * @param fields The values of this field, at least one.
+     */
+    public CompositeField(Field... fields) {
+        if (fields.length == 0)
+            throw new IllegalArgumentException("a composite field needs at least one field");
+        this.fields = fields.clone();
+    }
+
+    /**
+     * @return the key of t on the given fields: the field itself if there is
+     *   only one, and a CompositeField of the fields otherwise
+     */
+    public static Field of(Tuple t, int[] fieldIndexes) {
+        if (fieldIndexes.length == 1)
+            return t.getField(fieldIndexes[0]);
+        Field[] fields = new Field[fieldIndexes.length];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = t.getField(fieldIndexes[i]);
+        return new CompositeField(fields);
+    }
+
+    public int numFields() {
+        return fields.length;
+    }
+
+    public Field getField(int i) {
+        return fields[i];
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(fields[i]);
+        }
+        return sb.append(")").toString();
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(fields);
+    }
+
+    public boolean equals(Object field) {
+        if (!(field instanceof CompositeField)) return false;
+        return Arrays.equals(((CompositeField) field).fields, fields);
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        for (Field f : fields)
+            f.serialize(dos);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, comparing as
+     * many leading fields as both of them have.
+     * Return semantics are as specified by Field.compare
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        Field[] other = val instanceof CompositeField ? ((CompositeField) val).fields : new Field[] { val };
+        int cmp = 0;
+        for (int i = 0; cmp == 0 && i < Math.min(fields.length, other.length); i++) {
+            if (fields[i].compare(Predicate.Op.LESS_THAN, other[i]))
+                cmp = -1;
+            else if (fields[i].compare(Predicate.Op.GREATER_THAN, other[i]))
+                cmp = 1;
+        }
+        return IntField.compare(cmp, op, 0);
+    }
+
+    /**
+     * Return the Type of the first field. The other fields may have other
+     * types; see {@link #getField}.
+     */
+    public Type getType() {
+        return fields[0].getType();
+    }
+}
@@ -48,6 +48,35 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts a batch of tuples to the file on behalf of transaction.
+     * Implementations should fill a page completely before moving on to
+     * the next one, rather than searching for free space for every tuple.
+     * A page may be evicted to make room for the next one, so every page
+     * must be marked dirty by tid as soon as it has been modified.
+     * <p>
+     * The default implementation inserts the tuples one at a time, and
+     * relies on insertTuple returning pages that are in the buffer pool.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to
+     *          reflect that it is now stored in this file.
+     * @return the pages that were modified, each listed once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    default List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> dirtyPages = new LinkedHashMap<>();
+        while (tuples.hasNext()) {
+            for (Page p : insertTuple(tid, tuples.next())) {
+                p.markDirty(true, tid);
+                dirtyPages.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<>(dirtyPages.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
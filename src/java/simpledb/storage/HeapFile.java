@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -143,6 +144,46 @@ public class HeapFile implements DbFile {
         return dirtyPages;
     }
 
+    /**
+     * Inserts a batch of tuples, filling each page with free space before
+     * moving on to the next one and appending pages once the file is full.
+     * The file is searched for free space once per batch rather than once
+     * per tuple.
+     *
+     * @see DbFile#insertTuples
+     */
+    @Override
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> dirtyPages = new ArrayList<>();
+        int pageNumber = 0;
+        while (tuples.hasNext()) {
+            HeapPage thePage = null;
+            for (; pageNumber < numPages(); pageNumber++) {
+                PageId thePageID = new HeapPageId(getId(), pageNumber);
+                HeapPage candidate = (HeapPage) Database.getBufferPool().getPage(tid, thePageID, Permissions.READ_WRITE);
+                if (candidate.getNumEmptySlots() > 0) {
+                    thePage = candidate;
+                    break;
+                }
+            }
+            if (thePage == null) {
+                // append an empty page and take it through the buffer pool,
+                // so it is locked and cached like any other
+                HeapPageId newPageID = new HeapPageId(getId(), numPages());
+                writePage(new HeapPage(newPageID, HeapPage.createEmptyPageData()));
+                thePage = (HeapPage) Database.getBufferPool().getPage(tid, newPageID, Permissions.READ_WRITE);
+            }
+            while (thePage.getNumEmptySlots() > 0 && tuples.hasNext()) {
+                thePage.insertTuple(tuples.next());
+            }
+            thePage.markDirty(true, tid);
+            dirtyPages.add(thePage);
+            pageNumber++;
+        }
+        return dirtyPages;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -159,44 +200,105 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid, tupleDesc);
+        return new HeapFileIterator(this, tid);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored on pages
+     * [startPage, endPage) of this file. Disjoint ranges can be scanned
+     * concurrently by the workers of a parallel query.
+     *
+     * @param startPage the first page to scan
+     * @param endPage one past the last page to scan
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(this, tid, startPage, endPage, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored on pages
+     * [startPage, endPage) of this file that satisfy all of the given
+     * predicates. The predicates are evaluated by each {@link HeapPage}
+     * against its byte image where possible, so tuples that fail them are
+     * never materialized.
+     *
+     * @param startPage the first page to scan
+     * @param endPage one past the last page to scan, or -1 for the whole file
+     * @param predicates predicates over the fields of this file's TupleDesc
+     * @param columns the fields to decode into the returned tuples, or null
+     *                for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage,
+                                   Predicate[] predicates, int[] columns) {
+        return new HeapFileIterator(this, tid, startPage, endPage, predicates, columns);
     }
 
 }
 
+/**
+ * Iterates over the tuples of a contiguous range of pages of a HeapFile.
+ */
 class HeapFileIterator extends AbstractDbFileIterator {
 
     private static final Permissions DEFAULT_PERMISSION = Permissions.READ_ONLY;
 
-    private boolean open;
-    private final TupleDesc tupleDesc;
     private final TransactionId txId;
     private final HeapFile heapFile;
-    private int currentPgeNumber;
-    private Iterator<Tuple> currentPageIterator;
     private final int tableID;
+    private final int startPage;
+    private final int endPage;
+    private final Predicate[] predicates;
+    private final int[] columns;
+    private int currentPageNumber;
+    private Iterator<Tuple> currentPageIterator;
+
+    public HeapFileIterator(HeapFile heapFile, TransactionId txId) {
+        this(heapFile, txId, 0, -1, null, null);
+    }
 
-    public HeapFileIterator(HeapFile heapFile, TransactionId txId, TupleDesc tupleDesc) {
+    /**
+     * @param startPage the first page to read
+     * @param endPage one past the last page to read, or -1 to read up to the
+     *                end of the file as it is when each page is reached
+     * @param predicates predicates every returned tuple satisfies, or null
+     * @param columns the fields to return, or null for all of them
+     */
+    public HeapFileIterator(HeapFile heapFile, TransactionId txId, int startPage, int endPage,
+                            Predicate[] predicates, int[] columns) {
         this.heapFile = heapFile;
-        this.tupleDesc = tupleDesc;
         this.txId = txId;
-        this.currentPgeNumber = 0;
-        tableID = heapFile.getId();
-        open = false;
+        this.tableID = heapFile.getId();
+        this.startPage = startPage;
+        this.endPage = endPage;
+        this.predicates = predicates;
+        this.columns = columns;
+        this.currentPageNumber = startPage;
+        this.currentPageIterator = null;
+    }
+
+    private int lastPage() {
+        return endPage < 0 ? heapFile.numPages() : Math.min(endPage, heapFile.numPages());
+    }
+
+    private Iterator<Tuple> pageIterator(int pageNumber) throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(txId, new HeapPageId(tableID, pageNumber), DEFAULT_PERMISSION);
+        return page.iterator(predicates, columns);
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        open = true;
-        currentPgeNumber = 0;
-        HeapPage currentPage = (HeapPage) Database.getBufferPool().getPage(txId, new HeapPageId(tableID, currentPgeNumber), DEFAULT_PERMISSION);
-        currentPageIterator = currentPage.iterator();
+        currentPageNumber = startPage;
+        if (currentPageNumber < lastPage()) {
+            currentPageIterator = pageIterator(currentPageNumber);
+        } else {
+            currentPageIterator = Collections.emptyIterator();
+        }
     }
 
     @Override
     public void close() {
         super.close();
-        open = false;
+        currentPageIterator = null;
     }
 
     @Override
@@ -207,30 +309,18 @@ class HeapFileIterator extends AbstractDbFileIterator {
 
     @Override
     protected Tuple readNext() throws DbException, TransactionAbortedException {
-        if (!open) {
+        if (currentPageIterator == null) {
             // Not open yet
             return null;
         }
 
-        if (currentPgeNumber >= heapFile.numPages()) {
-            return null;
-        } else if (currentPgeNumber == heapFile.numPages() - 1) {
-            if (!currentPageIterator.hasNext()) {
-                return null;
-            } else {
-                return currentPageIterator.next();
-            }
-        } else {
-            while (!currentPageIterator.hasNext() && currentPgeNumber < heapFile.numPages()) {
-                currentPgeNumber++;
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(txId, new HeapPageId(tableID, currentPgeNumber), DEFAULT_PERMISSION);
-                currentPageIterator = page.iterator();
-            }
-            if (!currentPageIterator.hasNext()) {
+        while (!currentPageIterator.hasNext()) {
+            if (currentPageNumber + 1 >= lastPage()) {
                 return null;
-            } else {
-                return currentPageIterator.next();
             }
+            currentPageNumber++;
+            currentPageIterator = pageIterator(currentPageNumber);
         }
+        return currentPageIterator.next();
     }
 }
@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
@@ -25,6 +27,17 @@ public class HeapPage implements Page {
     final Tuple[] tuples;
     final int numSlots;
 
+    /**
+     * The image this page was read from. Tuples are decoded from it lazily:
+     * a used slot whose entry in tuples is still null holds exactly the
+     * bytes it had on disk, so scans can test predicates against those bytes
+     * and only materialize the tuples that match. Never modified.
+     */
+    private final byte[] data;
+
+    /** Byte offset of each field within a record. */
+    private final int[] fieldOffsets;
+
     byte[] oldData;
     private final Byte oldDataLock = (byte) 0;
     private TransactionId lastTxID = null;
@@ -50,22 +63,17 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
+        this.fieldOffsets = new int[td.numFields()];
+        for (int i = 1; i < fieldOffsets.length; i++)
+            fieldOffsets[i] = fieldOffsets[i - 1] + td.getFieldType(i - 1).getLen();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        System.arraycopy(data, 0, header, 0, header.length);
+
+        // the records themselves are decoded on first access
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -121,36 +129,81 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the byte offset of the record in slot slotId within the page
+     *         image
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    /**
+     * Returns the tuple stored in a used slot, decoding it from the page
+     * image the first time it is asked for.
+     */
+    public Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            // pages are shared between concurrent readers, so decode under
+            // the page monitor to publish the tuple safely
+            synchronized (this) {
+                t = tuples[slotId];
+                if (t == null) {
+                    t = readTuple(slotId);
+                    tuples[slotId] = t;
                 }
             }
-            return null;
         }
+        return t;
+    }
 
-        // read fields in the tuple
+    /**
+     * Suck up the tuple in slot slotId from the page image.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, readField(slotId, j));
+        }
+        return t;
+    }
+
+    /**
+     * Decodes a single field of the record in slot slotId from the page image.
+     */
+    private Field readField(int slotId, int field) throws NoSuchElementException {
+        int off = slotOffset(slotId) + fieldOffsets[field];
+        Type type = td.getFieldType(field);
+        if (type == Type.INT_TYPE) {
+            return new IntField(readInt(data, off));
+        }
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return type.parse(new DataInputStream(
+                    new ByteArrayInputStream(data, off, type.getLen())));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
+    /**
+     * Builds a tuple holding only the given fields of the tuple in slot
+     * slotId. Fields of unmodified records are decoded straight from the page
+     * image, without materializing the rest of the record.
+     */
+    private Tuple readColumns(int slotId, int[] columns, TupleDesc projected) {
+        Tuple t = new Tuple(projected);
+        t.setRecordId(new RecordId(pid, slotId));
+        Tuple full = tuples[slotId];
+        for (int i = 0; i < columns.length; i++) {
+            t.setField(i, full != null ? full.getField(columns[i]) : readField(slotId, columns[i]));
+        }
         return t;
     }
 
@@ -196,6 +249,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // unmodified slot: copy the record straight from the image
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -253,7 +316,7 @@ public class HeapPage implements Page {
         int tupleNo = t.getRecordId().getTupleNumber();
         if (!isSlotUsed(tupleNo)) {
             throw new DbException("The tuple sloe is empty");
-        } else if (!tuples[tupleNo].getRecordId().equals(t.getRecordId())) {
+        } else if (!pid.equals(t.getRecordId().getPageId())) {
             // TODO: how to make sure the tuple is on this page?
             throw new DbException("The tuple to be deleted not on the page");
         }
@@ -376,14 +439,95 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> usedTupleList = new LinkedList<>();
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                usedTupleList.add(tuples[i]);
+        return iterator(null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates. Predicates on INT fields of tuples that have not
+     * been modified since the page was read are evaluated directly against
+     * the page image, so rows that fail them are never materialized.
+     *
+     * If columns is given, the returned tuples contain only those fields, and
+     * only those fields are decoded.
+     *
+     * @param predicates the predicates to apply, indexed by field of this
+     *                   page's TupleDesc; may be null or empty
+     * @param columns the fields of this page's TupleDesc to return, in order,
+     *                or null to return whole tuples
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates, int[] columns) {
+        int n = predicates == null ? 0 : predicates.length;
+        // byte offset within a record of each predicate's field, or -1 if the
+        // predicate has to be evaluated against a materialized tuple
+        int[] offsets = new int[n];
+        int[] operands = new int[n];
+        for (int i = 0; i < n; i++) {
+            Predicate p = predicates[i];
+            if (td.getFieldType(p.getField()) == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+                offsets[i] = fieldOffsets[p.getField()];
+                operands[i] = ((IntField) p.getOperand()).getValue();
+            } else {
+                offsets[i] = -1;
             }
         }
-        return usedTupleList.iterator();
+
+        TupleDesc projected = null;
+        if (columns != null) {
+            Type[] types = new Type[columns.length];
+            String[] names = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                types[i] = td.getFieldType(columns[i]);
+                names[i] = td.getFieldName(columns[i]);
+            }
+            projected = new TupleDesc(types, names);
+        }
+        TupleDesc projectedTd = projected;
+
+        // like a snapshot, don't return tuples inserted while iterating
+        byte[] usedSlots = header.clone();
+
+        return new Iterator<Tuple>() {
+            private int slot = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < numSlots; i++) {
+                    if ((usedSlots[i / 8] & (1 << (i % 8))) != 0 && isSlotUsed(i) && matches(i))
+                        return i;
+                }
+                return numSlots;
+            }
+
+            private boolean matches(int slotId) {
+                Tuple t = tuples[slotId];
+                int base = slotOffset(slotId);
+                for (int i = 0; i < n; i++) {
+                    if (t == null && offsets[i] >= 0) {
+                        int v = readInt(data, base + offsets[i]);
+                        if (!IntField.compare(v, predicates[i].getOp(), operands[i]))
+                            return false;
+                    } else {
+                        if (t == null)
+                            t = getTuple(slotId);
+                        if (!predicates[i].filter(t))
+                            return false;
+                    }
+                }
+                return true;
+            }
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (slot >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = columns == null ? getTuple(slot) : readColumns(slot, columns, projectedTd);
+                slot = advance(slot + 1);
+                return t;
+            }
+        };
     }
 
 }
-
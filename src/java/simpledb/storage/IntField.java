@@ -54,21 +54,30 @@ public class IntField implements Field {
     public boolean compare(Predicate.Op op, Field val) {
 
         IntField iVal = (IntField) val;
+        return compare(value, op, iVal.value);
+    }
 
+    /**
+     * Compare two raw int values with the given operator, following the
+     * semantics of Field.compare. Lets callers that hold field values as
+     * plain ints, such as a scan over a page's byte image, evaluate a
+     * predicate without allocating an IntField.
+     */
+    public static boolean compare(int value, Predicate.Op op, int operand) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != operand;
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > operand;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= operand;
             case LESS_THAN:
-                return value < iVal.value;
+                return value < operand;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= operand;
         }
 
         return false;
@@ -0,0 +1,144 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * LogArchiver does the housekeeping of a segmented {@link LogFile} in the
+ * background. Segments that truncation has taken out of the log are
+ * deleted, or moved to the archive directory if one is set (see
+ * {@link LogFile#setArchiveDirectory}), and once the log has grown by
+ * {@link LogFile#getCheckpointSegments} segments since the last checkpoint
+ * a new one is taken, so that the space the log needs stays bounded
+ * without anyone calling logCheckpoint().
+ * <p>
+ * Like {@link LogFlusher} and {@link PageWriter}, the archiver thread is
+ * started on demand and exits after it has been idle for a while.
+ */
+class LogArchiver {
+
+    /** Milliseconds the archiver thread stays alive without any work. */
+    private static final long IDLE_MILLIS = 1000;
+
+    private final LogFile log;
+    private final Deque<File> retired = new ArrayDeque<>(); // protected by this
+    private boolean checkpointWanted = false; // protected by this
+    private Thread thread = null; // protected by this
+    private boolean stopped = false; // protected by this
+
+    LogArchiver(LogFile log) {
+        this.log = log;
+    }
+
+    /** Delete or archive the given segment files. */
+    synchronized void retire(List<File> files) {
+        retired.addAll(files);
+        wake();
+    }
+
+    /** Take a checkpoint, unless one is already pending. */
+    synchronized void requestCheckpoint() {
+        checkpointWanted = true;
+        wake();
+    }
+
+    private void wake() {
+        if (stopped)
+            return;
+        if (thread != null) {
+            notifyAll();
+            return;
+        }
+        thread = new Thread(this::run, "simpledb-log-archiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the archiver for good and wait until it has finished what it is
+     * doing. Work that has not been started is dropped. Must not be called
+     * while holding the buffer pool's or the log's monitor.
+     */
+    void stop() {
+        Thread t;
+        synchronized (this) {
+            stopped = true;
+            t = thread;
+            notifyAll();
+        }
+        if (t == null || t == Thread.currentThread())
+            return;
+        boolean interrupted = false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Wait for work. Returns true for a checkpoint, the segment file to
+     * retire otherwise, or null once the archiver has been stopped or has
+     * been idle for long enough to exit.
+     */
+    private synchronized Object next() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + IDLE_MILLIS;
+        while (!stopped) {
+            if (checkpointWanted) {
+                checkpointWanted = false;
+                return Boolean.TRUE;
+            }
+            if (!retired.isEmpty())
+                return retired.removeFirst();
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                break;
+            wait(remaining);
+        }
+        thread = null;
+        return null;
+    }
+
+    private void run() {
+        while (true) {
+            Object work;
+            try {
+                work = next();
+            } catch (InterruptedException e) {
+                // nobody else owns this thread; keep going
+                continue;
+            }
+            if (work == null)
+                return;
+            try {
+                if (work instanceof File)
+                    archive((File) work);
+                else
+                    log.logCheckpoint();
+            } catch (IOException e) {
+                // a segment left behind only costs space, and the next
+                // checkpoint request will try again
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void archive(File segment) throws IOException {
+        File dir = LogFile.getArchiveDirectory();
+        if (dir == null) {
+            Files.deleteIfExists(segment.toPath());
+        } else {
+            Files.move(segment.toPath(), new File(dir, segment.getName()).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
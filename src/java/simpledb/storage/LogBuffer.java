@@ -0,0 +1,109 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * LogBuffer is the append path of {@link LogFile}. Log records are encoded
+ * into a direct ByteBuffer and written to the log's segments in large
+ * sequential writes whenever the buffer fills up or the log needs to be
+ * read or forced, instead of issuing a write for every field.
+ * <p>
+ * Values are encoded exactly as {@link java.io.DataOutput} would encode
+ * them, so the log can be read back with a DataInputStream.
+ */
+class LogBuffer {
+
+    /** Size of the in-memory buffer in bytes. */
+    static final int CAPACITY = 1 << 16;
+
+    private final LogSegments segments;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(CAPACITY);
+    private long start; // log offset of the first buffered byte
+
+    /**
+     * @param segments the segments to append to
+     */
+    LogBuffer(LogSegments segments) {
+        this.segments = segments;
+        this.start = segments.end();
+    }
+
+    /** @return the log offset at which the next value will be written */
+    synchronized long position() {
+        return start + buf.position();
+    }
+
+    synchronized void putByte(int v) throws IOException {
+        ensure(Byte.BYTES);
+        buf.put((byte) v);
+    }
+
+    synchronized void putInt(int v) throws IOException {
+        ensure(Integer.BYTES);
+        buf.putInt(v);
+    }
+
+    synchronized void putLong(long v) throws IOException {
+        ensure(Long.BYTES);
+        buf.putLong(v);
+    }
+
+    synchronized void put(byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            if (!buf.hasRemaining())
+                drain();
+            int n = Math.min(buf.remaining(), b.length - off);
+            buf.put(b, off, n);
+            off += n;
+        }
+    }
+
+    /** Write s in the modified UTF-8 format read by DataInput.readUTF. */
+    synchronized void putUTF(String s) throws IOException {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            len += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        if (len > 0xFFFF)
+            throw new UTFDataFormatException("encoded string too long: " + len + " bytes");
+        ensure(Short.BYTES + len);
+        buf.putShort((short) len);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                buf.put((byte) c);
+            } else if (c <= 0x07FF) {
+                buf.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buf.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /** Write all buffered bytes to the segments. */
+    synchronized void drain() throws IOException {
+        buf.flip();
+        start += buf.limit();
+        segments.write(buf);
+        buf.clear();
+    }
+
+    /** Discard everything at or after offset, both buffered and on disk. */
+    synchronized void truncate(long offset) throws IOException {
+        drain();
+        segments.truncate(offset);
+        start = offset;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buf.remaining() < bytes)
+            drain();
+    }
+}
@@ -7,7 +7,7 @@ import simpledb.common.Debug;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.*;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -43,40 +43,98 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
-
-<li> All additional data in the log consists of log records.  Log
+<li> The log itself is stored in segment files next to the log file
+(see LogSegments).  Log offsets are positions in the concatenation of
+the segments, and all data in them consists of log records.  Log
 records are variable length.
 
+<li> The log file holds a single long integer: the offset of the last
+checkpoint whose record is on disk, or -1 if there are no checkpoints
+
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, DELTA and CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  UPDATE records are
+no longer written, but are still read back from older logs.
+
+<li>DELTA records describe an update by the bytes it changed: the id
+of the page (see LogFile.writePageId()) followed by the changed byte
+ranges of the page with their old and new contents (see PageDelta).
+Consecutive DELTA records of a page chain onto each other: each one
+holds the changes since the previous one.
+
+<li>CLR (compensation) records are written while a transaction is
+rolled back, one for every DELTA record that is undone.  They hold
+the page id, the delta that undid the change, and the offset of the
+record that was undone.  They are redone like DELTA records but are
+never undone themselves.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction, followed by the buffer pool's dirty page
+table: an integer count of pages, and for each page its page id and
+the offset of the first record whose changes may not be on disk yet.
 
 </ul>
+
+<p> Since the buffer pool neither forces pages at commit nor keeps
+uncommitted pages off disk, recovery follows ARIES: an analysis pass
+finds the transactions that were still running, a redo pass repeats
+history from the last checkpoint, and an undo pass walks the log
+backwards (using the offset at the end of every record) and rolls back
+those transactions, logging a CLR for each undone record.  DELTA
+records carry the exact bytes of a page range, so redoing and undoing
+them is idempotent and needs no LSN stored on the page.
+
+<p> Checkpoints are fuzzy: they write no pages, only the tables above,
+and the redo pass starts at the oldest offset in the checkpoint's dirty
+page table.  Committed pages are written out in the background by the
+buffer pool (see {@link PageWriter}), which keeps that offset recent.
+
+<p> Forcing the log is done by group commit (see {@link LogFlusher}):
+threads that need the log on disk append their records and then wait,
+outside the log's monitor, for a shared flusher thread that forces the
+log once for everything appended so far.  The delay before a batch is
+forced and the number of waiters that force it early can be tuned with
+{@link #setGroupCommitDelay} and {@link #setGroupCommitMaxBatch}.
+Transactions that can afford to lose their commit in a crash can skip
+the wait altogether (see {@link #logCommit(TransactionId, boolean)}).
+
+<p> Records are not written field by field: they are encoded into an
+in-memory {@link LogBuffer} that is written out in large sequential
+writes.  Anything that reads the log back from the segments must drain
+that buffer first.
+
+<p> Offsets never change, so truncating the log rewrites nothing: after
+a checkpoint, the segments that lie entirely before the oldest record
+recovery could need are taken out of the log, and deleted or archived
+(see {@link #setArchiveDirectory}) by a background thread, the
+{@link LogArchiver}.  The archiver also takes a checkpoint whenever the
+log has grown by {@link #setCheckpointSegments} segments since the last
+one, which bounds the space the log needs as long as transactions are
+short.
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    // holds the offset of the last checkpoint; protected by itself
+    private final RandomAccessFile control;
+    private final LogSegments segments;
+    // records are appended through log and read back from segments
+    private final LogBuffer log;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,6 +142,8 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int CLR_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -95,6 +155,48 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    /** Microseconds a batch waits for more committers before it is forced. */
+    private static volatile long groupCommitDelay = 0;
+    /** Number of waiting committers that force a batch without further delay. */
+    private static volatile int groupCommitMaxBatch = 64;
+
+    /** Whether commits wait for their record to be forced by default. */
+    private static volatile boolean synchronousCommit = true;
+    /** Milliseconds within which an asynchronous commit is forced. */
+    private static volatile long asyncCommitDelay = 10;
+
+    /** Number of workers the redo pass of recovery is split over. */
+    private static volatile int recoveryParallelism = Runtime.getRuntime().availableProcessors();
+
+    /** Size in bytes of the segment files the log is split into. */
+    private static volatile long segmentSize = 1 << 20;
+    /** Number of segments the log grows by before a checkpoint is taken. */
+    private static volatile int checkpointSegments = 4;
+    /** Where retired segments are moved to, or null to delete them. */
+    private static volatile File archiveDirectory = null;
+
+    /** Worker threads shared by the redo passes of all log files. */
+    private static final ExecutorService REDO_WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-redo");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // end of the log as of the last sync, so forcing a log that is
+    // already on disk costs nothing; reset when the log is cut short
+    private volatile long durable = -1;
+    private final LogFlusher flusher = new LogFlusher(this::sync);
+    private final LogArchiver archiver = new LogArchiver(this);
+
+    // the checkpoint the log file points to, and the oldest offset that
+    // recovery from it needs; taken after this, never before it
+    private final Object checkpointLock = new Object();
+    private long checkpointPointer = NO_CHECKPOINT_ID; // protected by checkpointLock
+    private long truncationPoint = 0; // protected by checkpointLock
+
+    private long lastCheckpointOffset = 0; // protected by this
+    private boolean checkpointRequested = false; // protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -108,7 +210,9 @@ public class LogFile {
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        control = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
+        log = new LogBuffer(segments);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -129,17 +233,174 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            log.truncate(0);
+            synchronized (checkpointLock) {
+                writeCheckpointPointer(NO_CHECKPOINT_ID);
+                checkpointPointer = NO_CHECKPOINT_ID;
+                truncationPoint = 0;
+            }
+            currentOffset = log.position();
+            lastCheckpointOffset = currentOffset;
+        }
+        if (!checkpointRequested
+                && currentOffset - lastCheckpointOffset >= checkpointSegments * segments.segmentSize()) {
+            checkpointRequested = true;
+            archiver.requestCheckpoint();
+        }
+    }
+
+    private long readCheckpointPointer() throws IOException {
+        synchronized (control) {
+            if (control.length() < LONG_SIZE) {
+                return NO_CHECKPOINT_ID;
+            }
+            control.seek(0);
+            return control.readLong();
+        }
+    }
+
+    private void writeCheckpointPointer(long offset) throws IOException {
+        synchronized (control) {
+            control.seek(0);
+            control.writeLong(offset);
+            control.getChannel().force(true);
         }
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return the number of times the log has been forced to disk */
+    public long getSyncCount() {
+        return flusher.getSyncCount();
+    }
+
+    /**
+     * Set how long, in microseconds, the flusher waits for more transactions
+     * to join a batch before forcing it. Zero forces each batch as soon as
+     * its first waiter arrives; batches still form from the waiters that
+     * arrive while the previous one is being forced.
+     */
+    public static void setGroupCommitDelay(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("group commit delay must not be negative");
+        groupCommitDelay = micros;
+    }
+
+    public static long getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+    /**
+     * Set the number of waiting transactions that forces a batch before the
+     * group commit delay has passed.
+     */
+    public static void setGroupCommitMaxBatch(int waiters) {
+        if (waiters < 1)
+            throw new IllegalArgumentException("group commit batch must be at least 1");
+        groupCommitMaxBatch = waiters;
+    }
+
+    public static int getGroupCommitMaxBatch() {
+        return groupCommitMaxBatch;
+    }
+
+    /**
+     * Set whether transactions wait for their commit record to be forced
+     * unless they say otherwise (see Transaction.setSynchronousCommit).
+     */
+    public static void setSynchronousCommit(boolean synchronous) {
+        synchronousCommit = synchronous;
+    }
+
+    public static boolean getSynchronousCommit() {
+        return synchronousCommit;
+    }
+
+    /**
+     * Set how long, in milliseconds, the commit record of an asynchronous
+     * commit may stay in memory before the flusher forces it.  This is the
+     * most recent stretch of commits that a crash can lose.
+     */
+    public static void setAsyncCommitDelay(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("asynchronous commit delay must not be negative");
+        asyncCommitDelay = millis;
+    }
+
+    public static long getAsyncCommitDelay() {
+        return asyncCommitDelay;
+    }
+
+    /**
+     * Set the number of workers the redo pass of recovery is split over.
+     * Pages are assigned to workers by page id, so each page is redone by
+     * a single worker in log order.
+     */
+    public static void setRecoveryParallelism(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("recovery needs at least one worker");
+        recoveryParallelism = workers;
+    }
+
+    public static int getRecoveryParallelism() {
+        return recoveryParallelism;
+    }
+
+    /**
+     * Set the size of the segment files the log is split into.  Log files
+     * opened afterwards start new segments with this size; existing
+     * segments keep theirs.
+     */
+    public static void setSegmentSize(long bytes) {
+        if (bytes < 1)
+            throw new IllegalArgumentException("log segments must hold at least one byte");
+        segmentSize = bytes;
+    }
+
+    public static long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Set the number of segments the log grows by before the archiver
+     * takes a checkpoint on its own.
+     */
+    public static void setCheckpointSegments(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("checkpoint interval must be at least one segment");
+        checkpointSegments = count;
+    }
+
+    public static int getCheckpointSegments() {
+        return checkpointSegments;
+    }
+
+    /**
+     * Set the directory that segments taken out of the log are moved to,
+     * or null to delete them.
+     */
+    public static void setArchiveDirectory(File dir) {
+        archiveDirectory = dir;
+    }
+
+    public static File getArchiveDirectory() {
+        return archiveDirectory;
+    }
+
+    /** @return the number of bytes the log takes on disk, not counting
+        segments waiting to be deleted or archived */
+    public synchronized long size() throws IOException {
+        log.drain();
+        return segments.size();
+    }
+
+    /** @return the number of segment files the log takes on disk */
+    public synchronized int segmentCount() throws IOException {
+        log.drain();
+        return segments.count();
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -160,10 +421,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                log.putInt(ABORT_RECORD);
+                log.putLong(tid.getId());
+                log.putLong(currentOffset);
+                currentOffset = log.position();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -171,121 +432,119 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The force happens outside of the
+        log's monitor, so concurrent commits share a single flush.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        logCommit(tid, true);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Write a commit record for the specified tid.  A synchronous
+        commit forces the log before it returns.  An asynchronous one
+        returns as soon as the record is appended, and the flusher forces
+        it within the asynchronous commit delay; if the system crashes
+        before then, recovery rolls the transaction back like any other
+        that never committed.  Pages are never written before the records
+        that describe them, so either all of its changes survive or none.
+
+        @param tid The committing transaction.
+        @param synchronous whether to wait until the commit is durable
+    */
+    public void logCommit(TransactionId tid, boolean synchronous) throws IOException {
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            log.putInt(COMMIT_RECORD);
+            log.putLong(tid.getId());
+            log.putLong(currentOffset);
+            currentOffset = log.position();
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+        if (synchronous) {
+            force();
+        } else if (log.position() > durable) {
+            flusher.flushWithin(asyncCommitDelay);
+        }
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+    /** Write a DELTA record to disk for the specified tid and page,
+        holding the bytes that differ between the provided before and
+        after images.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the offset of the record in the log
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + log.position());
         preAppend();
-        /* update record conists of
+        /* delta record conists of
 
            record type
            transaction id
-           before page data (see writePageData)
-           after page data
+           page id (see writePageId)
+           changed ranges (see PageDelta)
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        PageDelta delta = PageDelta.diff(before.getPageData(), after.getPageData());
+        log.putInt(DELTA_RECORD);
+        log.putLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageId(log, after.getId());
+        delta.write(log);
+        long start = currentOffset;
+        log.putLong(currentOffset);
+        currentOffset = log.position();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return start;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+    /* a compensation record consists of
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+       record type
+       transaction id
+       page id (see writePageId)
+       the delta that undid the update (see PageDelta)
+       offset of the undone record
+       start offset
+    */
+    private void logCompensation(long tid, PageId pid, PageDelta delta, long undone)
+        throws IOException {
+        preAppend();
+        log.putInt(CLR_RECORD);
+        log.putLong(tid);
+        writePageId(log, pid);
+        delta.write(log);
+        log.putLong(undone);
+        log.putLong(currentOffset);
+        currentOffset = log.position();
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    /* page ids and pages are written by their tag in PageTypes rather
+       than their class name, and read back without reflection */
+    void writePageId(LogBuffer out, PageId pid) throws IOException {
+        PageTypes.writePageId(out, pid);
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    PageId readPageId(DataInput in) throws IOException {
+        return PageTypes.readPageId(in);
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
+    void writePageData(LogBuffer out, Page p) throws IOException {
+        PageTypes.writePage(out, p);
+    }
 
+    Page readPageData(DataInput in) throws IOException {
+        return PageTypes.readPage(in);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -300,205 +559,395 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        log.putInt(BEGIN_RECORD);
+        log.putLong(tid.getId());
+        log.putLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = log.position();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  No pages are
+        written: the active transactions and the buffer pool's dirty page
+        table are copied into the record while holding the buffer pool and
+        log monitors, which is only as long as appending the record takes.
+        Once the record is on disk, the log file is pointed at it and the
+        log is truncated.
+    */
     public void logCheckpoint() throws IOException {
+        long startCpOffset;
+        long minLogRecord;
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                Map<PageId, Long> dirtyPages = Database.getBufferPool().dirtyPages();
+                startCpOffset = currentOffset;
+                minLogRecord = startCpOffset;
+                log.putInt(CHECKPOINT_RECORD);
+                log.putLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                log.putInt(tidToFirstLogRecord.size());
+                for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    log.putLong(e.getKey());
+                    log.putLong(e.getValue());
+                    minLogRecord = Math.min(minLogRecord, e.getValue());
+                }
+
+                //write the dirty page table
+                log.putInt(dirtyPages.size());
+                for (Map.Entry<PageId, Long> e : dirtyPages.entrySet()) {
+                    writePageId(log, e.getKey());
+                    log.putLong(e.getValue());
+                    // redo starts at the oldest change not on disk
+                    minLogRecord = Math.min(minLogRecord, e.getValue());
                 }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                log.putLong(startCpOffset);
+                currentOffset = log.position();
+                lastCheckpointOffset = startCpOffset;
+                checkpointRequested = false;
             }
         }
 
+        //once the CP is on disk, make sure the log file points to it
+        force();
+        synchronized (checkpointLock) {
+            if (startCpOffset <= checkpointPointer) {
+                return; // a later checkpoint got there first
+            }
+            writeCheckpointPointer(startCpOffset);
+            checkpointPointer = startCpOffset;
+            truncationPoint = minLogRecord;
+        }
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
+        consumption.  Everything before the oldest record that recovery
+        from the last checkpoint needs can go, but only whole segments are
+        taken out of the log; their files are deleted or archived in the
+        background. */
+    public void logTruncate() throws IOException {
+        synchronized (checkpointLock) {
+            archiver.retire(segments.retireBefore(truncationPoint));
+        }
+    }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+    /** Stop the background work of this log, as if the system had
+        crashed: segments are no longer deleted or archived, checkpoints
+        are no longer taken, and asynchronous commits that have not been
+        forced yet are not forced any more.  Work that has not been
+        started is dropped. */
+    public void stopBackgroundWork() {
+        flusher.cancelLazy();
+        archiver.stop();
+    }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+    /** Rollback the specified transaction, setting the state of any
+        of pages it updated to their pre-updated state.  To preserve
+        transaction semantics, this should not be called on
+        transactions that have already committed (though this may not
+        be enforced by this method.)
 
-            int numOutstanding = raf.readInt();
+        The transaction's logged updates are undone newest first, with
+        a CLR for each; its pages that are still cached are reverted
+        and its locks are released.
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
+        @param tid The transaction to rollback
+    */
+    public void rollback(TransactionId tid)
+        throws NoSuchElementException, IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized(this) {
+                preAppend();
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first != null) {
+                    log.drain();
+                    Map<PageId, byte[]> pages = new HashMap<>();
+                    undo(readRecords(first, log.position()), Collections.singleton(tid.getId()), pages);
+                    writePages(pages);
                 }
+                Database.getBufferPool().transactionComplete(tid, false);
             }
         }
+    }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+    /** A log record read back by readRecords.  Only the fields that
+        recovery needs for the record's type are set. */
+    private static class LogRecord {
+        final int type;
+        final long tid;
+        final long offset;
+        long next;          // offset of the following record
+        PageId pid;         // DELTA, CLR and UPDATE
+        PageDelta delta;    // DELTA and CLR
+        Page before;        // UPDATE
+        byte[] after;       // UPDATE
+        long undone;        // CLR
+
+        LogRecord(int type, long tid, long offset) {
+            this.type = type;
+            this.tid = tid;
+            this.offset = offset;
+        }
+    }
 
-                switch (type) {
+    /** Read the records from offset start up to end in one sequential
+        pass over the log, instead of seeking for every field.  A record
+        cut short by a crash ends the list.  The log must have been
+        drained. */
+    private List<LogRecord> readRecords(long start, long end) throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(
+                segments.openInput(start, end), LogBuffer.CAPACITY), start);
+        DataInputStream in = new DataInputStream(counter);
+        long offset = start;
+        try {
+            while (offset < end) {
+                LogRecord r = new LogRecord(in.readInt(), in.readLong(), offset);
+                switch (r.type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                    r.before = readPageData(in);
+                    Page after = readPageData(in);
+                    r.pid = after.getId();
+                    r.after = after.getPageData();
+                    break;
+                case DELTA_RECORD:
+                    r.pid = readPageId(in);
+                    r.delta = PageDelta.read(in);
+                    break;
+                case CLR_RECORD:
+                    r.pid = readPageId(in);
+                    r.delta = PageDelta.read(in);
+                    r.undone = in.readLong();
                     break;
                 case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                    int txNumber = in.readInt();
+                    in.skipBytes(txNumber * 2 * LONG_SIZE);
+                    int pageNumber = in.readInt();
+                    for (int i = 0; i < pageNumber; i++) {
+                        readPageId(in);
+                        in.readLong();
                     }
                     break;
+                case ABORT_RECORD:
+                case COMMIT_RECORD:
                 case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
+                    break;
+                default:
+                    throw new IOException("Unrecognized record type " + r.type + " at offset " + offset);
+                }
+                in.readLong(); // start offset
+                r.next = counter.position();
+                if (r.next > end) {
                     break;
                 }
+                records.add(r);
+                offset = r.next;
+            }
+        } catch (EOFException e) {
+            // torn record at the end of the log
+        }
+        return records;
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    /** An InputStream that knows the log offset it has read up to. */
+    private static class CountingInputStream extends FilterInputStream {
+        private long position;
 
-            } catch (EOFException e) {
-                break;
+        CountingInputStream(InputStream in, long position) {
+            super(in);
+            this.position = position;
+        }
+
+        long position() {
+            return position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                position++;
             }
+            return b;
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+    /** Walk records backwards, undoing every update of the given
+        transactions that has not been compensated yet and logging a CLR
+        for it.  All losers share this one pass.  Undone pages are
+        collected in pages. */
+    private void undo(List<LogRecord> records, Set<Long> losers, Map<PageId, byte[]> pages)
+        throws IOException {
+        // oldest record of each loser that an earlier rollback already undid
+        Map<Long, Long> compensated = new HashMap<>();
+        for (int i = records.size() - 1; i >= 0; i--) {
+            LogRecord r = records.get(i);
+            if (!losers.contains(r.tid)) {
+                continue;
+            }
+            if (r.type == CLR_RECORD) {
+                compensated.merge(r.tid, r.undone, Math::min);
+            } else if ((r.type == DELTA_RECORD || r.type == UPDATE_RECORD)
+                    && r.offset < compensated.getOrDefault(r.tid, Long.MAX_VALUE)) {
+                PageDelta undo;
+                if (r.type == DELTA_RECORD) {
+                    undo = r.delta.inverse();
+                } else {
+                    undo = PageDelta.diff(page(r.pid, pages), r.before.getPageData());
+                }
+                undo.redo(page(r.pid, pages));
+                logCompensation(r.tid, r.pid, undo, r.offset);
+            }
+        }
     }
 
-    /** Rollback the specified transaction, setting the state of any
-        of pages it updated to their pre-updated state.  To preserve
-        transaction semantics, this should not be called on
-        transactions that have already committed (though this may not
-        be enforced by this method.)
+    /** Repeat history: apply every update and CLR at or after offset start
+        to the page it describes.  Records are grouped by page, since
+        records of different pages commute, and the pages are split
+        between recoveryParallelism workers.
+        @return the redone page images */
+    private Map<PageId, byte[]> redo(List<LogRecord> records, long start) throws IOException {
+        Map<PageId, List<LogRecord>> byPage = new LinkedHashMap<>();
+        for (LogRecord r : records) {
+            if (r.offset >= start && r.pid != null) {
+                byPage.computeIfAbsent(r.pid, k -> new ArrayList<>()).add(r);
+            }
+        }
 
-        @param tid The transaction to rollback
-    */
-    public void rollback(TransactionId tid)
-        throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            // TODO: didn't reset the file pointer of raf, might have some issue?
-            synchronized(this) {
-                preAppend();
-                // some code goes here
-                // print();
-                long currentRecordOffset = tidToFirstLogRecord.get(tid.getId());
-                raf.seek(currentRecordOffset);
-                while (true) {
-                    try {
-                        int logType = raf.readInt();
-                        if (logType > CHECKPOINT_RECORD || logType < ABORT_RECORD) {
-                            throw new RuntimeException("Not supported log record type: " + logType);
-                        }
-
-                        if (logType == UPDATE_RECORD) {
-                            long logTxID = raf.readLong();
-                            if (logTxID == tid.getId()) {
-                                Page pageBefore = readPageData(raf);
-                                Database.getCatalog().getDatabaseFile(pageBefore.getId().getTableId()).writePage(pageBefore);
-                                Database.getBufferPool().discardPage(pageBefore.getId());
-                            }
-                        }
-                        currentRecordOffset = getNextRecordBeginOffset(currentRecordOffset);
-                        raf.seek(currentRecordOffset);
-                    } catch (EOFException e) {
-                        // release the locks associated with the transaction
-                        Database.getBufferPool().transactionComplete(tid);
-                        break;
-                    }
+        int workers = Math.min(recoveryParallelism, byPage.size());
+        if (workers <= 1) {
+            return redoPages(byPage.values());
+        }
+        List<List<List<LogRecord>>> partitions = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (Map.Entry<PageId, List<LogRecord>> e : byPage.entrySet()) {
+            partitions.get(Math.floorMod(e.getKey().hashCode(), workers)).add(e.getValue());
+        }
+        List<Future<Map<PageId, byte[]>>> futures = new ArrayList<>();
+        for (List<List<LogRecord>> partition : partitions) {
+            futures.add(REDO_WORKERS.submit(() -> redoPages(partition)));
+        }
+        Map<PageId, byte[]> pages = new HashMap<>();
+        for (Future<Map<PageId, byte[]>> f : futures) {
+            try {
+                pages.putAll(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted during redo");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+        }
+        return pages;
+    }
+
+    /** Redo the records of some pages, each list holding one page's
+        records in log order. */
+    private Map<PageId, byte[]> redoPages(Collection<List<LogRecord>> perPage) {
+        Map<PageId, byte[]> pages = new HashMap<>();
+        for (List<LogRecord> pageRecords : perPage) {
+            for (LogRecord r : pageRecords) {
+                if (r.type == UPDATE_RECORD) {
+                    pages.put(r.pid, r.after);
+                } else {
+                    r.delta.redo(page(r.pid, pages));
                 }
             }
         }
+        return pages;
+    }
+
+    /** @return the image of page pid being recovered, read from disk
+        the first time it is needed */
+    private byte[] page(PageId pid, Map<PageId, byte[]> pages) {
+        return pages.computeIfAbsent(pid, id ->
+                Database.getCatalog().getDatabaseFile(id.getTableId()).readPage(id).getPageData());
+    }
+
+    /** Write recovered page images to disk, dropping any cached copies. */
+    private void writePages(Map<PageId, byte[]> pages) throws IOException {
+        for (Map.Entry<PageId, byte[]> e : pages.entrySet()) {
+            PageId pid = e.getKey();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(new PageImage(pid, e.getValue()));
+            Database.getBufferPool().discardPage(pid);
+        }
+    }
+
+    /** A page known only by its serialized contents.  DbFile.writePage
+        needs nothing else, so recovery can write a patched page back
+        without rebuilding the page object of the right type. */
+    private static class PageImage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        PageImage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+            throw new UnsupportedOperationException();
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                log.drain();
+                segments.close();
+                control.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -508,118 +957,152 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+
+        The log is read once, sequentially, from the oldest record any
+        pass needs; analysis, redo and undo then work on those records
+        in memory.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
-
-                // print();
-
-                // 1. get the last checkpoint record/start of log file
-                raf.seek(0);
-                long checkPointPointer = raf.readLong();
-                long currentRecordOffset = LONG_SIZE;
-                Set<Long> transactionToRollback;
-                if (checkPointPointer != -1) {
-                    // if there is checkpoint
-                    raf.seek(checkPointPointer);
-                    currentRecordOffset = checkPointPointer;
-                    reconstructTidToFirstLogRecord(checkPointPointer);
-                    transactionToRollback = new HashSet<>(tidToFirstLogRecord.keySet());
-                } else {
-                    transactionToRollback = new HashSet<>();
+                log.drain();
+
+                long checkPointPointer = readCheckpointPointer();
+                long analysisStart = 0;
+                long redoStart = 0;
+                long scanStart = 0;
+                if (checkPointPointer != NO_CHECKPOINT_ID) {
+                    analysisStart = checkPointPointer;
+                    redoStart = reconstructTidToFirstLogRecord(checkPointPointer);
+                    scanStart = redoStart;
+                    for (long first : tidToFirstLogRecord.values()) {
+                        scanStart = Math.min(scanStart, first);
+                    }
+                    lastCheckpointOffset = checkPointPointer;
                 }
+                synchronized (checkpointLock) {
+                    checkpointPointer = checkPointPointer;
+                    truncationPoint = scanStart;
+                }
+                List<LogRecord> records = readRecords(scanStart, log.position());
+
+                // cut off a record torn by the crash; new records are
+                // appended after whatever survived
+                long end = records.isEmpty() ? scanStart : records.get(records.size() - 1).next;
+                if (end < log.position()) {
+                    log.truncate(end);
+                    durable = -1;
+                }
+                currentOffset = log.position();
 
-                // 2. reconstruct the tidToFirstLogRecord map(no need to do it here) &  figure out the loser transactions.
-
-                while (true) {
-                    try {
-                        int logType = raf.readInt();
-                        if (logType > CHECKPOINT_RECORD || logType < ABORT_RECORD) {
-                            throw new RuntimeException("Not supported log record type: " + logType);
-                        }
-                        if (logType == BEGIN_RECORD) {
-                            long logTxID = raf.readLong();
-                            transactionToRollback.add(logTxID);
-                            tidToFirstLogRecord.put(logTxID, raf.getFilePointer() + LONG_SIZE);
-                        } else if (logType == COMMIT_RECORD || logType == ABORT_RECORD) {
-                            long logTxID = raf.readLong();
-                            transactionToRollback.remove(logTxID);
-                        }
-                        currentRecordOffset = getNextRecordBeginOffset(currentRecordOffset);
-                        raf.seek(currentRecordOffset);
-                    } catch (EOFException e) {
-                        break;
+                // 1. analysis: find the transactions that never finished
+                Set<Long> losers = new HashSet<>(tidToFirstLogRecord.keySet());
+                for (LogRecord r : records) {
+                    if (r.offset < analysisStart) {
+                        continue;
+                    }
+                    if (r.type == BEGIN_RECORD) {
+                        losers.add(r.tid);
+                        tidToFirstLogRecord.put(r.tid, r.offset);
+                    } else if (r.type == COMMIT_RECORD || r.type == ABORT_RECORD) {
+                        losers.remove(r.tid);
+                        tidToFirstLogRecord.remove(r.tid);
                     }
                 }
 
-                // 3. rollback the loser transactions
-                for (Long txID : transactionToRollback) {
-                    logAbort(new TransactionId(txID));
-                }
+                // 2. redo: repeat history from the oldest change that the
+                // checkpoint's dirty page table says may not be on disk
+                Map<PageId, byte[]> pages = redo(records, redoStart);
 
-                // System.out.println("===============================================");
-                // System.out.println("===============================================");
-                // System.out.println("===============================================");
-                // print();
+                // 3. undo the losers in one backward pass
+                if (!losers.isEmpty()) {
+                    undo(records, losers, pages);
+                }
+                writePages(pages);
+
+                for (Long tid : losers) {
+                    preAppend();
+                    log.putInt(ABORT_RECORD);
+                    log.putLong(tid);
+                    log.putLong(currentOffset);
+                    currentOffset = log.position();
+                    tidToFirstLogRecord.remove(tid);
+                }
+                force();
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
-
-        raf.seek(0);
+        long from;
+        synchronized (checkpointLock) {
+            from = truncationPoint;
+        }
+        long end;
+        synchronized (this) {
+            log.drain();
+            end = log.position();
+        }
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(
+                segments.openInput(from, end)), from);
+        DataInputStream in = new DataInputStream(counter);
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        System.out.println("checkpoint record at offset " + readCheckpointPointer());
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = in.readInt();
+                long cpTid = in.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((counter.position() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((counter.position() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(counter.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(counter.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(counter.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    int numTransactions = in.readInt();
+                    System.out.println((counter.position() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long tid = in.readLong();
+                        long firstRecord = in.readLong();
+                        System.out.println((counter.position() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                        System.out.println((counter.position() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    int numDirty = in.readInt();
+                    System.out.println((counter.position() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+                    while (numDirty-- > 0) {
+                        long dirtyStart = counter.position();
+                        PageId dirtyPid = readPageId(in);
+                        System.out.println(dirtyStart + ": table id " + dirtyPid.getTableId() + ", page number "
+                                + dirtyPid.getPageNumber() + ", first change " + in.readLong());
+                    }
+                    System.out.println(counter.position() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    long start = counter.position();
+                    Page before = readPageData(in);
 
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    long middle = counter.position();
+                    Page after = readPageData(in);
 
                     System.out.println(start + ": before image table id " + before.getId().getTableId());
                     System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
@@ -627,9 +1110,37 @@ public class LogFile {
 
                     System.out.println(middle + ": after image table id " + after.getId().getTableId());
                     System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    System.out.println((middle + INT_SIZE) + " TO " + (counter.position()) + ": page data");
+
+                    System.out.println(counter.position() + ": RECORD START OFFSET: " + in.readLong());
+
+                    break;
+                case DELTA_RECORD:
+                    System.out.println(" (DELTA)");
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    long idStart = counter.position();
+                    PageId pid = readPageId(in);
+                    long rangesStart = counter.position();
+                    PageDelta delta = PageDelta.read(in);
+
+                    System.out.println(idStart + ": table id " + pid.getTableId() + ", page number " + pid.getPageNumber());
+                    System.out.println(rangesStart + " TO " + counter.position() + ": " + delta.ranges()
+                            + " changed ranges, " + delta.changedBytes() + " bytes");
+
+                    System.out.println(counter.position() + ": RECORD START OFFSET: " + in.readLong());
+
+                    break;
+                case CLR_RECORD:
+                    System.out.println(" (CLR)");
+
+                    long clrStart = counter.position();
+                    PageId clrPid = readPageId(in);
+                    PageDelta clrDelta = PageDelta.read(in);
+
+                    System.out.println(clrStart + ": table id " + clrPid.getTableId() + ", page number "
+                            + clrPid.getPageNumber() + ", " + clrDelta.changedBytes() + " bytes restored");
+                    System.out.println(counter.position() + ": UNDONE RECORD: " + in.readLong());
+                    System.out.println(counter.position() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 }
@@ -639,64 +1150,51 @@ public class LogFile {
                 break;
             }
         }
-
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
-    }
-
-    // return the offset of the next record
-    private long getNextRecordBeginOffset(long currentRecordOffset) throws IOException {
-        long ret;
-        try {
-            raf.seek(currentRecordOffset);
-            int recordType = raf.readInt();
-            switch (recordType) {
-                case ABORT_RECORD:
-                case COMMIT_RECORD:
-                case BEGIN_RECORD:
-                    ret = currentRecordOffset + INT_SIZE + 2 * LONG_SIZE;
-                    break;
-                case CHECKPOINT_RECORD: {
-                    raf.seek(currentRecordOffset + INT_SIZE + LONG_SIZE);
-                    int txNumber = raf.readInt();
-                    ret = currentRecordOffset + 2 * INT_SIZE + (2 + txNumber * 2L) * LONG_SIZE;
-                    break;
-                }
-                case UPDATE_RECORD: {
-                    raf.readLong();
-                    readPageData(raf);
-                    readPageData(raf);
-                    ret = raf.getFilePointer() + LONG_SIZE;
-                    break;
-                }
-                default:
-                    throw new RuntimeException("Noe recognizable record type: " + recordType);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException();
+    /** Force everything appended to the log so far to disk.  Callers
+        block until a batch that includes their records has been forced
+        by the flusher thread.
+    */
+    public void force() throws IOException {
+        if (log.position() <= durable) {
+            return;
         }
+        flusher.flush();
+    }
 
-        return ret;
+    // called by the flusher thread only
+    private void sync() throws IOException {
+        long end = log.position();
+        log.drain();
+        segments.force();
+        durable = end;
     }
 
-    private void reconstructTidToFirstLogRecord(long checkpointPointer) {
-        long pointerBefore;
+    /** Restore tidToFirstLogRecord from a checkpoint record.
+        @return where the redo pass starts: the oldest offset in the
+        checkpoint's dirty page table, or the checkpoint itself */
+    private long reconstructTidToFirstLogRecord(long checkpointPointer) {
+        long redoStart = checkpointPointer;
         try {
-            pointerBefore = raf.getFilePointer();
-            raf.seek(checkpointPointer);
-            raf.readInt();
-            raf.readLong();
-            int txNumber = raf.readInt();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    segments.openInput(checkpointPointer, log.position())));
+            if (in.readInt() != CHECKPOINT_RECORD) {
+                throw new IOException("Checkpoint pointer does not point to checkpoint record");
+            }
+            in.readLong();
+            int txNumber = in.readInt();
             for (int i = 0; i < txNumber; i++) {
-                tidToFirstLogRecord.put(raf.readLong(), raf.readLong());
+                tidToFirstLogRecord.put(in.readLong(), in.readLong());
+            }
+            int pageNumber = in.readInt();
+            for (int i = 0; i < pageNumber; i++) {
+                readPageId(in);
+                redoStart = Math.min(redoStart, in.readLong());
             }
-            raf.seek(pointerBefore);
         } catch (IOException e) {
-            throw new RuntimeException();
+            throw new RuntimeException(e);
         }
+        return redoStart;
     }
 }
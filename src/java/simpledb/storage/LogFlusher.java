@@ -0,0 +1,170 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * LogFlusher implements group commit for {@link LogFile}. Threads that need
+ * the log to be durable ask for a flush and wait on the future of the next
+ * batch; a single flusher thread forces the log once per batch and completes
+ * the future of every thread that joined it. While one batch is being forced
+ * the next one fills up, so under load a single fsync covers many commits.
+ * <p>
+ * A batch is started as soon as the first thread joins it, unless a group
+ * commit delay is configured, in which case the flusher waits up to that
+ * long for more threads, or until the maximum batch size is reached.
+ * <p>
+ * Asynchronous commits do not wait at all: they only set a deadline by
+ * which the flusher forces a batch even if no thread has joined it.
+ * <p>
+ * The flusher thread is started on demand and exits after it has been idle
+ * for a while, so discarded log files do not keep threads around.
+ */
+class LogFlusher {
+
+    /** Forces the log to disk. */
+    interface Sync {
+        void sync() throws IOException;
+    }
+
+    /** Milliseconds the flusher thread stays alive without any requests. */
+    private static final long IDLE_MILLIS = 1000;
+
+    private final Sync sync;
+    private CompletableFuture<Void> pending = new CompletableFuture<>(); // protected by this
+    private int waiters = 0; // protected by this
+    private boolean lazy = false; // a deadline is set; protected by this
+    private long lazyDeadline; // System.nanoTime() deadline; protected by this
+    private Thread thread = null; // protected by this
+    private long syncs = 0; // protected by this
+
+    LogFlusher(Sync sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Join the next batch and wait until it is durable. Everything appended
+     * to the log before this call is on disk when it returns.
+     */
+    void flush() throws IOException {
+        CompletableFuture<Void> batch = request();
+        try {
+            batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for log flush");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Make sure everything appended to the log before this call is forced
+     * within the given number of milliseconds, without waiting for it.
+     */
+    synchronized void flushWithin(long millis) {
+        long deadline = System.nanoTime() + millis * 1000000L;
+        if (!lazy || deadline - lazyDeadline < 0) {
+            lazyDeadline = deadline;
+            lazy = true;
+        }
+        start();
+        notifyAll();
+    }
+
+    /** Forget the deadline set by flushWithin, as if the system had crashed. */
+    synchronized void cancelLazy() {
+        lazy = false;
+    }
+
+    /** @return the number of times the log has been forced, counting only forces that have finished */
+    synchronized long getSyncCount() {
+        return syncs;
+    }
+
+    private synchronized CompletableFuture<Void> request() {
+        waiters++;
+        start();
+        notifyAll();
+        return pending;
+    }
+
+    private void start() {
+        if (thread == null) {
+            thread = new Thread(this::run, "simpledb-log-flusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Wait for the next batch to fill up, or for the deadline of an
+     * asynchronous commit, and detach it. Returns null once the flusher
+     * has been idle for long enough to exit.
+     */
+    private synchronized CompletableFuture<Void> nextBatch() throws InterruptedException {
+        long idleUntil = System.currentTimeMillis() + IDLE_MILLIS;
+        while (waiters == 0) {
+            if (lazy) {
+                long remaining = lazyDeadline - System.nanoTime();
+                if (remaining <= 0)
+                    break;
+                wait(remaining / 1000000, (int) (remaining % 1000000));
+                continue;
+            }
+            long remaining = idleUntil - System.currentTimeMillis();
+            if (remaining <= 0) {
+                thread = null;
+                return null;
+            }
+            wait(remaining);
+        }
+
+        long delayNanos = waiters == 0 ? 0 : LogFile.getGroupCommitDelay() * 1000L;
+        long deadline = System.nanoTime() + delayNanos;
+        while (waiters < LogFile.getGroupCommitMaxBatch()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                break;
+            wait(remaining / 1000000, (int) (remaining % 1000000));
+        }
+
+        // requests arriving from now on belong to the next batch; they were
+        // appended after this point, so this batch's sync may not cover them
+        CompletableFuture<Void> batch = pending;
+        pending = new CompletableFuture<>();
+        waiters = 0;
+        lazy = false;
+        return batch;
+    }
+
+    private void run() {
+        while (true) {
+            CompletableFuture<Void> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                // nobody else owns this thread; keep serving waiters
+                continue;
+            }
+            if (batch == null)
+                return;
+            try {
+                sync.sync();
+                // counted before the waiters wake, so that they see it
+                synchronized (this) {
+                    syncs++;
+                }
+                batch.complete(null);
+            } catch (IOException | RuntimeException e) {
+                batch.completeExceptionally(e);
+            }
+        }
+    }
+}
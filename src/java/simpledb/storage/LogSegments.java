@@ -0,0 +1,260 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * LogSegments stores the log of a {@link LogFile} as a sequence of segment
+ * files next to it, each named after the log and the offset of its first
+ * byte, such as log.0000000000000000 and log.0000000001048576. Log offsets
+ * are positions in the concatenation of the segments and never change, so
+ * dropping the oldest segments is all it takes to truncate the log.
+ * <p>
+ * Records are appended to the last segment until it holds the segment
+ * size, and may span two segments. Segments written with a different
+ * segment size are read back by the length they were written with.
+ */
+class LogSegments {
+
+    private static class Segment {
+        final long base; // log offset of the segment's first byte
+        final File file;
+        final long capacity; // bytes the segment holds when full
+        FileChannel channel = null; // opened on first use
+
+        Segment(long base, File file, long capacity) {
+            this.base = base;
+            this.file = file;
+            this.capacity = capacity;
+        }
+
+        long limit() {
+            return base + capacity;
+        }
+    }
+
+    private final File dir;
+    private final String prefix;
+    private final long segmentSize;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>(); // protected by this
+    private final Set<Segment> unforced = new HashSet<>(); // protected by this
+    private long end; // offset just past the last byte written, protected by this
+
+    /**
+     * Open the segments of the log named by base.
+     *
+     * @param base the log's control file; segments are created next to it
+     * @param segmentSize the size of new segments in bytes
+     */
+    LogSegments(File base, long segmentSize) {
+        this.dir = base.getAbsoluteFile().getParentFile();
+        this.prefix = base.getName();
+        this.segmentSize = segmentSize;
+
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                long offset = baseOf(name);
+                if (offset >= 0) {
+                    File f = new File(dir, name);
+                    segments.put(offset, new Segment(offset, f, f.length()));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            end = 0;
+        } else {
+            // only the last segment can take more records
+            Segment last = segments.lastEntry().getValue();
+            end = last.limit();
+            segments.put(last.base, new Segment(last.base, last.file, Math.max(last.capacity, segmentSize)));
+        }
+    }
+
+    /** @return the offset encoded in the name of a segment file, or -1 */
+    private long baseOf(String name) {
+        if (!name.startsWith(prefix + ".")) {
+            return -1;
+        }
+        String suffix = name.substring(prefix.length() + 1);
+        if (suffix.isEmpty() || suffix.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (!Character.isDigit(suffix.charAt(i))) {
+                return -1;
+            }
+        }
+        return Long.parseLong(suffix);
+    }
+
+    private File segmentFile(long base) {
+        return new File(dir, String.format("%s.%016d", prefix, base));
+    }
+
+    /** @return the size of new segments in bytes */
+    long segmentSize() {
+        return segmentSize;
+    }
+
+    /** @return the offset just past the last byte written */
+    synchronized long end() {
+        return end;
+    }
+
+    /** @return the number of bytes the live segments take on disk */
+    synchronized long size() {
+        return segments.isEmpty() ? 0 : end - segments.firstKey();
+    }
+
+    /** @return the number of live segments */
+    synchronized int count() {
+        return segments.size();
+    }
+
+    private static FileChannel channel(Segment s) throws IOException {
+        if (s.channel == null) {
+            s.channel = new RandomAccessFile(s.file, "rw").getChannel();
+        }
+        return s.channel;
+    }
+
+    /** Append the remaining bytes of buf to the log, starting a new
+        segment whenever the last one is full. */
+    synchronized void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            Map.Entry<Long, Segment> last = segments.lastEntry();
+            Segment s = last == null ? null : last.getValue();
+            if (s == null || end >= s.limit()) {
+                s = new Segment(end, segmentFile(end), segmentSize);
+                segments.put(end, s);
+            }
+            int n = (int) Math.min(buf.remaining(), s.limit() - end);
+            ByteBuffer part = buf.duplicate();
+            part.limit(part.position() + n);
+            long pos = end - s.base;
+            FileChannel ch = channel(s);
+            while (part.hasRemaining()) {
+                pos += ch.write(part, pos);
+            }
+            buf.position(buf.position() + n);
+            unforced.add(s);
+            end += n;
+        }
+    }
+
+    /** Force every segment written since the last call to disk.  Appends
+        may continue while the segments are being forced. */
+    void force() throws IOException {
+        List<FileChannel> toForce = new ArrayList<>();
+        synchronized (this) {
+            for (Segment s : unforced) {
+                if (s.channel != null) {
+                    toForce.add(s.channel);
+                }
+            }
+            unforced.clear();
+        }
+        for (FileChannel ch : toForce) {
+            try {
+                ch.force(true);
+            } catch (ClosedChannelException e) {
+                // dropped in the meantime; nobody needs it any more
+            }
+        }
+    }
+
+    /** Discard everything at or after offset. */
+    synchronized void truncate(long offset) throws IOException {
+        while (!segments.isEmpty() && segments.lastKey() >= offset) {
+            Files.deleteIfExists(drop(segments.lastEntry().getValue()).toPath());
+        }
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            channel(last).truncate(offset - last.base);
+        }
+        end = offset;
+    }
+
+    /**
+     * Take every segment that lies entirely before offset out of the log.
+     *
+     * @return the files of those segments, oldest first, for the caller to
+     *         delete or archive
+     */
+    synchronized List<File> retireBefore(long offset) throws IOException {
+        List<File> retired = new ArrayList<>();
+        while (!segments.isEmpty()) {
+            Segment first = segments.firstEntry().getValue();
+            if (first.limit() > Math.min(offset, end)) {
+                break;
+            }
+            retired.add(drop(first));
+        }
+        return retired;
+    }
+
+    private File drop(Segment s) throws IOException {
+        segments.remove(s.base);
+        unforced.remove(s);
+        if (s.channel != null) {
+            s.channel.close();
+        }
+        return s.file;
+    }
+
+    synchronized void close() throws IOException {
+        for (Segment s : segments.values()) {
+            if (s.channel != null) {
+                s.channel.close();
+                s.channel = null;
+            }
+        }
+    }
+
+    /** Read into b from offset pos, within a single segment.
+        @return the number of bytes read, or -1 past the end */
+    private synchronized int read(long pos, long limit, byte[] b, int off, int len) throws IOException {
+        Map.Entry<Long, Segment> e = segments.floorEntry(pos);
+        if (e == null || pos >= Math.min(limit, end)) {
+            return -1;
+        }
+        Segment s = e.getValue();
+        int n = (int) Math.min(len, Math.min(s.limit(), Math.min(limit, end)) - pos);
+        return channel(s).read(ByteBuffer.wrap(b, off, n), pos - s.base);
+    }
+
+    /** @return a stream over the log from offset start up to end */
+    InputStream openInput(long start, long end) {
+        return new InputStream() {
+            private long pos = start;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int n = LogSegments.this.read(pos, end, b, off, len);
+                if (n <= 0) {
+                    return -1;
+                }
+                pos += n;
+                return n;
+            }
+        };
+    }
+}
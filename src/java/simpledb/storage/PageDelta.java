@@ -0,0 +1,136 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PageDelta is the body of a DELTA log record: the byte ranges in which a
+ * page differs from its before image, with their old and new contents.
+ * An insert or delete on a heap page touches one slot and one header
+ * byte, so its delta is a few dozen bytes instead of two full page images.
+ * <p>
+ * A delta is applied to the serialized page: {@link #undo} restores the
+ * old bytes of every range and {@link #redo} installs the new ones.
+ */
+class PageDelta {
+
+    /**
+     * Changed ranges separated by fewer unchanged bytes than this are merged
+     * into one, since every range costs two ints in the log anyway.
+     */
+    private static final int MERGE_GAP = 8;
+
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(int[] offsets, byte[][] before, byte[][] after) {
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Compute the delta between two serialized images of the same page.
+     */
+    static PageDelta diff(byte[] oldData, byte[] newData) {
+        if (oldData.length != newData.length)
+            throw new IllegalArgumentException("page images differ in size");
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < oldData.length) {
+            if (oldData[i] == newData[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1; // exclusive
+            for (int j = end; j < oldData.length && j < end + MERGE_GAP; j++) {
+                if (oldData[j] != newData[j])
+                    end = j + 1;
+            }
+            ranges.add(new int[]{start, end});
+            i = end;
+        }
+
+        int[] offsets = new int[ranges.size()];
+        byte[][] before = new byte[ranges.size()][];
+        byte[][] after = new byte[ranges.size()][];
+        for (int r = 0; r < ranges.size(); r++) {
+            int start = ranges.get(r)[0], end = ranges.get(r)[1];
+            offsets[r] = start;
+            before[r] = Arrays.copyOfRange(oldData, start, end);
+            after[r] = Arrays.copyOfRange(newData, start, end);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+
+    /** @return the number of changed ranges */
+    int ranges() {
+        return offsets.length;
+    }
+
+    /** @return the number of changed bytes */
+    int changedBytes() {
+        int n = 0;
+        for (byte[] b : after)
+            n += b.length;
+        return n;
+    }
+
+    /** Restore the old contents of every changed range of data, in place. */
+    byte[] undo(byte[] data) {
+        return apply(data, before);
+    }
+
+    /** Install the new contents of every changed range of data, in place. */
+    byte[] redo(byte[] data) {
+        return apply(data, after);
+    }
+
+    /** @return the delta that reverses this one */
+    PageDelta inverse() {
+        return new PageDelta(offsets, after, before);
+    }
+
+    private byte[] apply(byte[] data, byte[][] contents) {
+        for (int r = 0; r < offsets.length; r++)
+            System.arraycopy(contents[r], 0, data, offsets[r], contents[r].length);
+        return data;
+    }
+
+    /*
+     * A delta is written as
+     *
+     *   number of ranges
+     *   for each range: offset, length, old bytes, new bytes
+     */
+    void write(LogBuffer out) throws IOException {
+        out.putInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.putInt(offsets[r]);
+            out.putInt(before[r].length);
+            out.put(before[r]);
+            out.put(after[r]);
+        }
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            before[r] = new byte[len];
+            in.readFully(before[r]);
+            after[r] = new byte[len];
+            in.readFully(after[r]);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.*;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageTypes gives every kind of page and page id that can appear in the
+ * log a one byte tag. Log records name them by tag instead of by class
+ * name, and pages and ids read back from the log are built by a factory
+ * registered for the tag instead of by reflection.
+ * <p>
+ * HeapPage, the B+ tree and hash file pages and their ids are registered
+ * here; new page formats register themselves with {@link #registerPageId}
+ * and {@link #registerPage} before anything of theirs is logged. Tags are
+ * written to the log, so a tag must never be reused for another type.
+ */
+public final class PageTypes {
+
+    /** Builds a page id from the fields returned by PageId.serialize(). */
+    public interface PageIdFactory {
+        PageId create(int[] fields);
+    }
+
+    /** Builds a page from its id and its serialized data. */
+    public interface PageFactory {
+        Page create(PageId pid, byte[] data) throws IOException;
+    }
+
+    private static class IdType {
+        final int tag;
+        final int fields;
+        final PageIdFactory factory;
+
+        IdType(int tag, int fields, PageIdFactory factory) {
+            this.tag = tag;
+            this.fields = fields;
+            this.factory = factory;
+        }
+    }
+
+    private static class PageType {
+        final int tag;
+        final PageFactory factory;
+
+        PageType(int tag, PageFactory factory) {
+            this.tag = tag;
+            this.factory = factory;
+        }
+    }
+
+    private static final int MAX_TAG = 255;
+
+    private static final IdType[] idsByTag = new IdType[MAX_TAG + 1];
+    private static final PageType[] pagesByTag = new PageType[MAX_TAG + 1];
+    private static final Map<Class<?>, IdType> idsByClass = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, PageType> pagesByClass = new ConcurrentHashMap<>();
+
+    static {
+        registerPageId(1, HeapPageId.class, 2, f -> new HeapPageId(f[0], f[1]));
+        registerPageId(2, BTreePageId.class, 3, f -> new BTreePageId(f[0], f[1], f[2]));
+        registerPageId(3, HashPageId.class, 2, f -> new HashPageId(f[0], f[1]));
+
+        registerPage(1, HeapPage.class, (pid, data) -> new HeapPage((HeapPageId) pid, data));
+        registerPage(2, BTreeRootPtrPage.class,
+                (pid, data) -> new BTreeRootPtrPage((BTreePageId) pid, data));
+        registerPage(3, BTreeInternalPage.class,
+                (pid, data) -> new BTreeInternalPage((BTreePageId) pid, data, keyFields(pid)));
+        registerPage(4, BTreeLeafPage.class,
+                (pid, data) -> new BTreeLeafPage((BTreePageId) pid, data, keyFields(pid)));
+        registerPage(5, BTreeHeaderPage.class,
+                (pid, data) -> new BTreeHeaderPage((BTreePageId) pid, data));
+        registerPage(6, HashMetaPage.class, (pid, data) -> new HashMetaPage((HashPageId) pid, data));
+        registerPage(7, HashBucketPage.class, (pid, data) -> new HashBucketPage((HashPageId) pid, data));
+    }
+
+    private PageTypes() {
+    }
+
+    private static int[] keyFields(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyFields();
+    }
+
+    private static void checkTag(int tag, Object[] byTag) {
+        if (tag < 1 || tag > MAX_TAG)
+            throw new IllegalArgumentException("page type tags run from 1 to " + MAX_TAG);
+        if (byTag[tag] != null)
+            throw new IllegalArgumentException("page type tag " + tag + " is already registered");
+    }
+
+    /**
+     * Register a kind of page id.
+     *
+     * @param tag the tag that names the kind in the log, from 1 to 255
+     * @param idClass the class of the page ids
+     * @param fields the length of the array their serialize() returns
+     * @param factory builds a page id from that array
+     * @throws IllegalArgumentException if the tag or class is taken
+     */
+    public static synchronized void registerPageId(int tag, Class<? extends PageId> idClass, int fields,
+                                                   PageIdFactory factory) {
+        checkTag(tag, idsByTag);
+        if (idsByClass.containsKey(idClass))
+            throw new IllegalArgumentException(idClass.getName() + " is already registered");
+        IdType type = new IdType(tag, fields, factory);
+        idsByTag[tag] = type;
+        idsByClass.put(idClass, type);
+    }
+
+    /**
+     * Register a kind of page.
+     *
+     * @param tag the tag that names the kind in the log, from 1 to 255
+     * @param pageClass the class of the pages
+     * @param factory builds a page from its id and serialized data
+     * @throws IllegalArgumentException if the tag or class is taken
+     */
+    public static synchronized void registerPage(int tag, Class<? extends Page> pageClass, PageFactory factory) {
+        checkTag(tag, pagesByTag);
+        if (pagesByClass.containsKey(pageClass))
+            throw new IllegalArgumentException(pageClass.getName() + " is already registered");
+        PageType type = new PageType(tag, factory);
+        pagesByTag[tag] = type;
+        pagesByClass.put(pageClass, type);
+    }
+
+    /* a page id is written as its tag followed by its serialized fields */
+    static void writePageId(LogBuffer out, PageId pid) throws IOException {
+        IdType type = idsByClass.get(pid.getClass());
+        if (type == null)
+            throw new IOException("no page type tag registered for " + pid.getClass().getName());
+        int[] fields = pid.serialize();
+        if (fields.length != type.fields)
+            throw new IOException(pid.getClass().getName() + " serialized to " + fields.length
+                    + " fields, expected " + type.fields);
+        out.putByte(type.tag);
+        for (int field : fields) {
+            out.putInt(field);
+        }
+    }
+
+    static PageId readPageId(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        IdType type = idsByTag[tag];
+        if (type == null)
+            throw new IOException("unknown page id tag " + tag);
+        int[] fields = new int[type.fields];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = in.readInt();
+        }
+        return type.factory.create(fields);
+    }
+
+    /* a page is written as its tag, its id, and its length and data */
+    static void writePage(LogBuffer out, Page p) throws IOException {
+        PageType type = pagesByClass.get(p.getClass());
+        if (type == null)
+            throw new IOException("no page type tag registered for " + p.getClass().getName());
+        out.putByte(type.tag);
+        writePageId(out, p.getId());
+        byte[] data = p.getPageData();
+        out.putInt(data.length);
+        out.put(data);
+    }
+
+    static Page readPage(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        PageType type = pagesByTag[tag];
+        if (type == null)
+            throw new IOException("unknown page tag " + tag);
+        PageId pid = readPageId(in);
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return type.factory.create(pid, data);
+    }
+}
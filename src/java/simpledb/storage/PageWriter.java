@@ -0,0 +1,114 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * PageWriter is the background writer of {@link BufferPool}. Committed
+ * pages are not written at commit, so they stay in the buffer pool's dirty
+ * page table and hold back both the redo start point of recovery and log
+ * truncation. The writer trickles them out in rounds: every writer delay it
+ * writes up to {@link #MAX_PAGES_PER_ROUND} of them, oldest first, taking
+ * the buffer pool's monitor for one page at a time so foreground
+ * transactions are never blocked for more than a single page write.
+ * <p>
+ * Like {@link LogFlusher}, the writer thread is started on demand and
+ * exits after it has been idle for a while.
+ */
+class PageWriter {
+
+    /** Pages written per round at most. */
+    static final int MAX_PAGES_PER_ROUND = 100;
+
+    /** Milliseconds the writer thread stays alive without anything to write. */
+    private static final long IDLE_MILLIS = 1000;
+
+    private final BufferPool pool;
+    private Thread thread = null; // protected by this
+    private boolean stopped = false; // protected by this
+
+    PageWriter(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /** Start the writer thread if it is not running. */
+    synchronized void wake() {
+        if (stopped || thread != null || BufferPool.getWriterDelay() == 0)
+            return;
+        thread = new Thread(this::run, "simpledb-page-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the writer for good and wait until it has finished the page it
+     * is writing. Must not be called while holding the buffer pool's monitor.
+     */
+    void stop() {
+        Thread t;
+        synchronized (this) {
+            stopped = true;
+            t = thread;
+            notifyAll();
+        }
+        if (t == null || t == Thread.currentThread())
+            return;
+        boolean interrupted = false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Wait for the next round. Returns false once the writer has been
+     * stopped or has been idle for long enough to exit.
+     */
+    private synchronized boolean nextRound(long idleSince) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + BufferPool.getWriterDelay();
+        while (!stopped) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                break;
+            wait(remaining);
+        }
+        if (stopped || System.currentTimeMillis() - idleSince >= IDLE_MILLIS
+                || BufferPool.getWriterDelay() == 0) {
+            thread = null;
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    private void run() {
+        long idleSince = System.currentTimeMillis();
+        while (true) {
+            try {
+                if (!nextRound(idleSince))
+                    return;
+            } catch (InterruptedException e) {
+                // nobody else owns this thread; keep writing
+                continue;
+            }
+            int written = 0;
+            try {
+                while (written < MAX_PAGES_PER_ROUND && !isStopped() && pool.writeOldestPage())
+                    written++;
+            } catch (IOException e) {
+                // leave the page in the dirty page table; eviction or the
+                // next round will try again
+                e.printStackTrace();
+            }
+            if (written > 0)
+                idleSince = System.currentTimeMillis();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb.transaction;
 
 import simpledb.common.Database;
+import simpledb.storage.LogFile;
 
 import java.io.*;
 
@@ -12,6 +13,7 @@ import java.io.*;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    private volatile boolean synchronousCommit = LogFile.getSynchronousCommit();
 
     public Transaction() {
         tid = new TransactionId();
@@ -31,6 +33,20 @@ public class Transaction {
         return tid;
     }
 
+    /**
+     * Set whether commit() waits until the commit is durable. An
+     * asynchronous commit returns as soon as its record is in the log
+     * buffer, and may be lost in a crash within
+     * LogFile.getAsyncCommitDelay() milliseconds of it.
+     */
+    public void setSynchronousCommit(boolean synchronous) {
+        synchronousCommit = synchronous;
+    }
+
+    public boolean isSynchronousCommit() {
+        return synchronousCommit;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -48,14 +64,10 @@ public class Transaction {
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
-            } 
-
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            // write commit log record
-            if (!abort) {
-            	Database.getLogFile().logCommit(tid);
+                Database.getBufferPool().transactionComplete(tid, false); // release locks
+            } else {
+                // write commit log record, then release locks
+                Database.getBufferPool().commitTransaction(tid, synchronousCommit);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
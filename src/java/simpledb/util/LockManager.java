@@ -61,6 +61,15 @@ public class LockManager {
         }
     }
 
+    /**
+     * Take the lock only if no other transaction stands in the way.
+     *
+     * @return whether the lock was taken
+     */
+    public boolean tryLock(TransactionId tid, PageId pageId, Permissions perm) {
+        return acquireLock(tid, pageId, perm);
+    }
+
     private synchronized boolean acquireLock(TransactionId tid, PageId pageId, Permissions perm) {
         // FIXME: the if-else clause is too tedious here
         if (pageId2LocksMap.get(pageId) == null) {
@@ -118,6 +127,34 @@ public class LockManager {
         pageId2LocksMap.get(pageId).removeIf(lock -> lock.getTid().equals(tid));
     }
 
+    /** @return whether some transaction holds a write lock on the page */
+    public synchronized boolean isWriteLocked(PageId pageId) {
+        Set<Lock> locks = pageId2LocksMap.get(pageId);
+        if (locks == null) {
+            return false;
+        }
+        for (Lock lock : locks) {
+            if (lock.getPermission() == Permissions.READ_WRITE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return whether a transaction other than tid holds a write lock on the page */
+    public synchronized boolean isWriteLockedByOther(TransactionId tid, PageId pageId) {
+        Set<Lock> locks = pageId2LocksMap.get(pageId);
+        if (locks == null) {
+            return false;
+        }
+        for (Lock lock : locks) {
+            if (lock.getPermission() == Permissions.READ_WRITE && !lock.getTid().equals(tid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public synchronized boolean holdsLock(TransactionId tid, PageId pageId) {
         if (!pageId2LocksMap.containsKey(pageId)) {
             return false;
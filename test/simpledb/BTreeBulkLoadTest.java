@@ -0,0 +1,179 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() {
+		// small pages, so that a few thousand tuples make a tree of several levels
+		BufferPool.setPageSize(512);
+		Database.reset();
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private BTreeFile createEmptyFile() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+	}
+
+	private static List<Tuple> sortedTuples(int rows, int max) {
+		List<Tuple> tuples = BTreeUtility.generateRandomTuples(2, rows, 0, max);
+		tuples.sort(new BTreeFileEncoder.TupleComparator(0));
+		return tuples;
+	}
+
+	private static List<Integer> keys(BTreeFile bf, TransactionId tid) throws Exception {
+		List<Integer> keys = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while(it.hasNext()) {
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		return keys;
+	}
+
+	@Test
+	public void testBulkLoad() throws Exception {
+		BTreeFile bf = createEmptyFile();
+		// plenty of duplicates, so that runs of equal keys span leaves
+		List<Tuple> tuples = sortedTuples(20000, 2000);
+		assertEquals(20000, bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), tuples), 0.75));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		List<Integer> expected = new ArrayList<>();
+		for(Tuple t : tuples) {
+			expected.add(((IntField) t.getField(0)).getValue());
+		}
+		assertEquals(expected, keys(bf, tid));
+
+		// look up a key through the internal pages
+		IntField key = (IntField) tuples.get(12345).getField(0);
+		int count = 0;
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+		it.open();
+		while(it.hasNext()) {
+			assertEquals(key, it.next().getField(0));
+			count++;
+		}
+		it.close();
+		assertEquals(Collections.frequency(expected, key.getValue()), count);
+
+		// the loaded tree takes inserts and deletes like any other
+		for(int i = 0; i < 500; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i * 4, 2));
+		}
+		for(int i = 0; i < 1000; i++) {
+			// deletes move tuples around, so look up the next one each time
+			it = bf.iterator(tid);
+			it.open();
+			Tuple t = it.next();
+			it.close();
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(20000 + 500 - 1000, keys(bf, tid).size());
+	}
+
+	@Test
+	public void testFillFactor() throws Exception {
+		List<Tuple> tuples = sortedTuples(10000, BTreeUtility.MAX_RAND_VALUE);
+
+		BTreeFile full = createEmptyFile();
+		full.bulkLoad(tid, new TupleIterator(full.getTupleDesc(), tuples), 1.0);
+		BTreeChecker.checkRep(full, tid, new HashMap<>(), true);
+
+		BTreeFile half = createEmptyFile();
+		half.bulkLoad(tid, new TupleIterator(half.getTupleDesc(), tuples), 0.5);
+		BTreeChecker.checkRep(half, tid, new HashMap<>(), true);
+
+		int perPage = new BTreeLeafPage(new BTreePageId(full.getId(), 1, BTreePageId.LEAF),
+				BTreeLeafPage.createEmptyPageData(), 0).getMaxTuples();
+		int leaves = (10000 + perPage - 1) / perPage;
+		assertTrue(full.numPages() < leaves * 1.1);
+		assertTrue(half.numPages() > 2 * leaves);
+		assertTrue(half.numPages() < 2.5 * leaves);
+	}
+
+	@Test
+	public void testSmallInputs() throws Exception {
+		// no tuples leaves the tree empty, and a few make a single leaf
+		BTreeFile bf = createEmptyFile();
+		assertEquals(0, bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), new ArrayList<>()), 1.0));
+		assertTrue(keys(bf, tid).isEmpty());
+
+		List<Tuple> tuples = sortedTuples(5, 100);
+		assertEquals(5, bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), tuples), 1.0));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(5, keys(bf, tid).size());
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		BTreeFile bf = createEmptyFile();
+		TransactionId tid1 = new TransactionId();
+		bf.bulkLoad(tid1, new TupleIterator(bf.getTupleDesc(), sortedTuples(5000, 1000)), 1.0);
+		assertEquals(5000, keys(bf, tid1).size());
+		Database.getBufferPool().transactionComplete(tid1, false);
+
+		// the tree is empty again and can be loaded once more
+		assertTrue(keys(bf, tid).isEmpty());
+		bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), sortedTuples(3000, 1000)), 1.0);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(3000, keys(bf, tid).size());
+	}
+
+	@Test(expected = DbException.class)
+	public void testNonEmptyTree() throws Exception {
+		BTreeFile bf = createEmptyFile();
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(1, 2));
+		bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), sortedTuples(10, 100)), 1.0);
+	}
+
+	@Test(expected = DbException.class)
+	public void testUnsortedInput() throws Exception {
+		BTreeFile bf = createEmptyFile();
+		List<Tuple> tuples = sortedTuples(1000, 100);
+		Collections.reverse(tuples);
+		bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), tuples), 1.0);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+	}
+}
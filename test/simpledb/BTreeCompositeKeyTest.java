@@ -0,0 +1,246 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeCompositeKeyTest extends SimpleDbTestBase {
+	private static final int TENANTS = 20;
+	private static final int MAX_TS = 1000;
+	private static final int ROWS = 3000;
+
+	private TransactionId tid;
+	private BTreeFile bf;
+	private final List<List<Integer>> tuples = new ArrayList<>();
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		// small pages, so that a few thousand tuples make a tree of several levels
+		BufferPool.setPageSize(512);
+		Database.reset();
+		tid = new TransactionId();
+
+		// (tenant, ts, payload), keyed on (tenant, ts)
+		File f = File.createTempFile("composite", ".dat");
+		f.deleteOnExit();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 3, new int[] { 0, 1 });
+		Random r = new Random(47);
+		for(int i = 0; i < ROWS; i++) {
+			tuples.add(Arrays.asList(r.nextInt(TENANTS), r.nextInt(MAX_TS), i));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private void insertAll() throws Exception {
+		for(List<Integer> t : tuples) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(t));
+		}
+	}
+
+	private static Field key(int tenant, int ts) {
+		return new CompositeField(new IntField(tenant), new IntField(ts));
+	}
+
+	private List<List<Integer>> lookup(IndexPredicate ipred) throws Exception {
+		List<List<Integer>> found = new ArrayList<>();
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		while(it.hasNext()) {
+			found.add(SystemTestUtil.tupleToList(it.next()));
+		}
+		it.close();
+		return found;
+	}
+
+	/**
+	 * @return the tuples with the given tenant and a ts in [from, to), in
+	 *   key order; the order of tuples with equal keys is left to the tree
+	 */
+	private List<List<Integer>> expected(int tenant, int from, int to) {
+		List<List<Integer>> expected = new ArrayList<>();
+		for(List<Integer> t : tuples) {
+			if(t.get(0) == tenant && t.get(1) >= from && t.get(1) < to)
+				expected.add(t);
+		}
+		expected.sort(Comparator.comparing((List<Integer> t) -> t.get(1)));
+		return expected;
+	}
+
+	/**
+	 * Check that two lists hold the same tuples in the same order of keys.
+	 */
+	private static void assertSameInKeyOrder(List<List<Integer>> expected, List<List<Integer>> actual) {
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).subList(0, 2), actual.get(i).subList(0, 2));
+		}
+		assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+	}
+
+	@Test
+	public void testCompare() {
+		assertTrue(key(1, 5).compare(Op.LESS_THAN, key(2, 0)));
+		assertTrue(key(2, 0).compare(Op.LESS_THAN, key(2, 1)));
+		assertTrue(key(2, 1).compare(Op.EQUALS, key(2, 1)));
+		assertFalse(key(2, 1).compare(Op.EQUALS, key(2, 2)));
+
+		// a shorter field compares as a prefix
+		Field prefix = new CompositeField(new IntField(2));
+		assertTrue(key(2, 7).compare(Op.EQUALS, prefix));
+		assertTrue(key(2, 7).compare(Op.EQUALS, new IntField(2)));
+		assertTrue(key(1, 999).compare(Op.LESS_THAN, new IntField(2)));
+		assertTrue(key(3, 0).compare(Op.GREATER_THAN, prefix));
+
+		assertEquals(key(4, 2), key(4, 2));
+		assertEquals(key(4, 2).hashCode(), key(4, 2).hashCode());
+		assertEquals("(4, 2)", key(4, 2).toString());
+	}
+
+	@Test
+	public void testInsert() throws Exception {
+		insertAll();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		// the tuples are sorted on tenant, then on ts
+		List<List<Integer>> all = lookup(new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(0, 0)));
+		assertEquals(ROWS, all.size());
+		for(int i = 1; i < all.size(); i++) {
+			List<Integer> a = all.get(i - 1);
+			List<Integer> b = all.get(i);
+			assertTrue(a.get(0) < b.get(0) || a.get(0).equals(b.get(0)) && a.get(1) <= b.get(1));
+		}
+	}
+
+	@Test
+	public void testPrefixLookup() throws Exception {
+		insertAll();
+		for(int tenant = 0; tenant < TENANTS; tenant += 3) {
+			assertSameInKeyOrder(expected(tenant, 0, MAX_TS),
+					lookup(new IndexPredicate(Op.EQUALS, new IntField(tenant))));
+		}
+
+		List<Integer> t = tuples.get(ROWS / 2);
+		assertSameInKeyOrder(expected(t.get(0), t.get(1), t.get(1) + 1),
+				lookup(new IndexPredicate(Op.EQUALS, key(t.get(0), t.get(1)))));
+		assertTrue(lookup(new IndexPredicate(Op.EQUALS, new IntField(TENANTS))).isEmpty());
+	}
+
+	@Test
+	public void testRangeOnTrailingField() throws Exception {
+		insertAll();
+		for(int tenant = 0; tenant < TENANTS; tenant += 4) {
+			assertSameInKeyOrder(expected(tenant, 100, 300),
+					lookup(new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(tenant, 100), Op.LESS_THAN, key(tenant, 300))));
+		}
+		// the bounds may be prefixes too: every tenant in [3, 5]
+		List<List<Integer>> expected = new ArrayList<>();
+		for(int tenant = 3; tenant <= 5; tenant++) {
+			expected.addAll(expected(tenant, 0, MAX_TS));
+		}
+		assertSameInKeyOrder(expected, lookup(new IndexPredicate(
+				Op.GREATER_THAN_OR_EQ, new IntField(3), Op.LESS_THAN_OR_EQ, new IntField(5))));
+	}
+
+	@Test
+	public void testRangeStopsAtUpperBound() throws Exception {
+		insertAll();
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// the scan locks the leaves it reads, which should be the few that
+		// hold the range, not every leaf right of it
+		lookup(new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(0, 100), Op.LESS_THAN, key(0, 150)));
+		int read = 0;
+		for(int i = 1; i <= bf.numPages(); i++) {
+			BTreePageId pid = new BTreePageId(bf.getId(), i, BTreePageId.LEAF);
+			if(Database.getBufferPool().holdsLock(tid, pid))
+				read++;
+		}
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		Set<PageId> pages = new HashSet<>();
+		while(it.hasNext()) {
+			pages.add(it.next().getRecordId().getPageId());
+		}
+		it.close();
+		int leaves = pages.size();
+		assertTrue(read + " of " + leaves + " leaves read", read <= 3 && leaves > 20);
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		insertAll();
+		// look the tuples up one at a time, since merges move the tuples
+		// left in the tree to other pages
+		while(true) {
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(7)));
+			it.open();
+			Tuple t = it.hasNext() ? it.next() : null;
+			it.close();
+			if(t == null)
+				break;
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertTrue(lookup(new IndexPredicate(Op.EQUALS, new IntField(7))).isEmpty());
+		assertSameInKeyOrder(expected(8, 0, MAX_TS), lookup(new IndexPredicate(Op.EQUALS, new IntField(8))));
+	}
+
+	@Test
+	public void testBulkLoad() throws Exception {
+		List<Tuple> sorted = new ArrayList<>();
+		for(List<Integer> t : tuples) {
+			sorted.add(BTreeUtility.getBTreeTuple(t));
+		}
+		sorted.sort(new BTreeFileEncoder.TupleComparator(0, 1));
+		assertEquals(ROWS, bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), sorted), 0.75));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		assertSameInKeyOrder(expected(11, 500, 900),
+				lookup(new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(11, 500), Op.LESS_THAN, key(11, 900))));
+
+		// and the tree takes inserts as usual afterwards
+		Tuple t = BTreeUtility.getBTreeTuple(new int[] { 11, 600, -1 });
+		Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		tuples.add(SystemTestUtil.tupleToList(t));
+		assertSameInKeyOrder(expected(11, 600, 601), lookup(new IndexPredicate(Op.EQUALS, key(11, 600))));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRangeOps() {
+		new IndexPredicate(Op.LESS_THAN, key(0, 0), Op.LESS_THAN, key(0, 1));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeCompositeKeyTest.class);
+	}
+}
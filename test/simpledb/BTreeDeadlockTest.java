@@ -16,6 +16,7 @@ import simpledb.systemtest.SimpleDbTestBase;
 
 import java.util.*;
 import org.junit.Before;
+import static org.junit.Assert.*;
 import org.junit.Test;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.transaction.TransactionId;
@@ -82,6 +83,24 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * Delete all the tuples with the given key from the B+ tree.
+	 * @return the number of tuples we must insert to replace the deleted tuples
+	 * and cause the root node to split
+	 */
+	private int clearItem(TransactionId tid, int item) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(item)));
+		it.open();
+		List<Tuple> tuples = new ArrayList<>();
+		while(it.hasNext()) {
+			tuples.add(it.next());
+		}
+		for(Tuple t : tuples) {
+			bp.deleteTuple(tid, t);
+		}
+		return tuples.size() + 1;
+	}
+
 	/**
 	 * Helper method to clean up the syntax of starting a BTreeWriter thread.
 	 * The parameters pass through to the BTreeWriter constructor.
@@ -145,6 +164,42 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 		System.out.println("testReadWriteDeadlock resolved deadlock");
 	}
 
+	/**
+	 * A lookup only locks the leaf pages it reads; the internal pages on the way
+	 * down are protected by a short-term latch instead. So a transaction holding
+	 * on to what it looked up doesn't stop another one from splitting pages
+	 * all the way up to the root elsewhere in the tree.
+	 */
+	@Test public void testLookupDoesNotBlockSplit() throws Exception {
+		// keep the items apart and in the left half of the tree: the pages split
+		// on behalf of item1 then don't include the leaf of item2, not even when
+		// splitting the root moves the right half of the leaves to a new parent
+		item1 = rand.nextInt(BTreeUtility.MAX_RAND_VALUE / 10);
+		item2 = BTreeUtility.MAX_RAND_VALUE * 3 / 10 + rand.nextInt(BTreeUtility.MAX_RAND_VALUE / 10);
+		TransactionId tid = new TransactionId();
+		count1 = clearItem(tid, item1);
+		bp.transactionComplete(tid);
+
+		TransactionId reader = new TransactionId();
+		DbFileIterator it = bf.indexIterator(reader,
+				new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(item2)));
+		it.open();
+		assertTrue(it.hasNext());
+		it.next();
+
+		TransactionId tid1 = new TransactionId();
+		BTreeWriter writer1 = startWriter(tid1, item1, count1);
+		while(!writer1.succeeded() && writer1.getError() == null) {
+			Thread.sleep(POLL_INTERVAL);
+		}
+		assertNull(writer1.getError());
+		assertTrue(bp.holdsLock(reader, it.next().getRecordId().getPageId()));
+
+		it.close();
+		bp.transactionComplete(tid1);
+		bp.transactionComplete(reader);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -136,6 +136,38 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 				entriesPerPage/2 - 1 == otherPage.getNumEntries());
 	}    
 
+	@Test
+	public void testEmptyPageHint() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0, 3);
+		Map<PageId, Page> dirtypages = new HashMap<>();
+
+		// new pages count as soon as they are handed out, but the file only
+		// grows when they are written, so the ones never written are not
+		// left behind in it
+		long length = emptyFile.length();
+		for(int i = 4; i <= 40; i++) {
+			assertEquals(i, empty.getEmptyPageNo(tid, dirtypages));
+			assertEquals(i, empty.numPages());
+		}
+		assertEquals(length, emptyFile.length());
+		assertEquals(3, BTreeUtility.openBTreeFile(2, emptyFile, 0).numPages());
+
+		// freed pages are reused first, lowest first, even when they are
+		// freed after the search has gone past them
+		empty.setEmptyPage(tid, dirtypages, 10);
+		empty.setEmptyPage(tid, dirtypages, 30);
+		assertEquals(10, empty.getEmptyPageNo(tid, dirtypages));
+		empty.setEmptyPage(tid, dirtypages, 20);
+		assertEquals(20, empty.getEmptyPageNo(tid, dirtypages));
+		assertEquals(30, empty.getEmptyPageNo(tid, dirtypages));
+		int next = empty.numPages() + 1;
+		assertEquals(next, empty.getEmptyPageNo(tid, dirtypages));
+		assertEquals(next, empty.numPages());
+	}
+
 	@Test
 	public void testReusePage() throws Exception {
 		File emptyFile = File.createTempFile("empty", ".dat");
@@ -112,6 +112,23 @@ public class BTreeHeaderPageTest extends SimpleDbTestBase {
 		assertEquals(50, page.getEmptySlot());
 	}
 
+	/**
+	 * Unit test for BTreeHeaderPage.getEmptySlot(int)
+	 */
+	@Test public void getEmptySlotFrom() throws Exception {
+		BTreeHeaderPage page = new BTreeHeaderPage(pid, EXAMPLE_DATA);
+		page.init();
+		page.markSlotUsed(5, false);
+		page.markSlotUsed(70, false);
+		page.markSlotUsed(32703, false);
+		assertEquals(5, page.getEmptySlot(0));
+		assertEquals(5, page.getEmptySlot(5));
+		assertEquals(70, page.getEmptySlot(6));
+		assertEquals(70, page.getEmptySlot(64));
+		assertEquals(32703, page.getEmptySlot(71));
+		assertEquals(-1, page.getEmptySlot(32704));
+	}
+
 	/**
 	 * Unit test for BTreeHeaderPage.isSlotUsed() and BTreeHeaderPage.markSlotUsed()
 	 */
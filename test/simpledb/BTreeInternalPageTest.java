@@ -8,6 +8,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -321,6 +322,49 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Find the child findLeafPage should descend into by walking the entries
+	 */
+	private static BTreePageId scanForChild(BTreeInternalPage page, IntField f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			if (f == null || e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, f))
+				return e.getLeftChild();
+		}
+		return e == null ? null : e.getRightChild();
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.findChildId()
+	 */
+	@Test public void findChildId() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(new BTreePageId(-1, 1, BTreePageId.LEAF), page.findChildId(null));
+		assertEquals(new BTreePageId(-1, 2, BTreePageId.LEAF), page.findChildId(new IntField(1469)));
+		assertEquals(new BTreePageId(-1, 21, BTreePageId.LEAF), page.findChildId(new IntField(70000)));
+
+		// probe every key and the values around it, then again with holes in the page
+		for (int round = 0; round < 2; round++) {
+			for (int[] entry : EXAMPLE_VALUES) {
+				for (int d = -1; d <= 1; d++) {
+					IntField f = new IntField(entry[1] + d);
+					assertEquals(scanForChild(page, f), page.findChildId(f));
+				}
+			}
+			Iterator<BTreeEntry> it = page.iterator();
+			while (it.hasNext()) {
+				page.deleteKeyAndRightChild(it.next());
+				if (it.hasNext())
+					it.next();
+			}
+		}
+
+		page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 0);
+		assertEquals(null, page.findChildId(new IntField(1)));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,252 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeKeyCompressionTest extends SimpleDbTestBase {
+	private static final int ROWS = 3000;
+
+	private TransactionId tid;
+	private BTreeFile bf;
+	private final List<Tuple> tuples = new ArrayList<>();
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		// small pages, so that a few thousand tuples make a tree of several levels
+		BufferPool.setPageSize(1024);
+		Database.reset();
+		tid = new TransactionId();
+
+		// (url, id), keyed on the url; the urls share long prefixes
+		File f = File.createTempFile("strings", ".dat");
+		f.deleteOnExit();
+		TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "url", "id" });
+		bf = new BTreeFile(f, 0, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+
+		List<Integer> ids = new ArrayList<>();
+		for(int i = 0; i < ROWS; i++) {
+			ids.add(i);
+		}
+		Collections.shuffle(ids, new Random(48));
+		for(int id : ids) {
+			Tuple t = new Tuple(td);
+			t.setField(0, url(id));
+			t.setField(1, new IntField(id));
+			tuples.add(t);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private static StringField url(int id) {
+		return new StringField(String.format("https://example.com/accounts/%08d/profile", id * 7), Type.STRING_LEN);
+	}
+
+	private void insertAll() throws Exception {
+		for(Tuple t : tuples) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		}
+	}
+
+	private List<Tuple> lookup(Field key) throws Exception {
+		List<Tuple> found = new ArrayList<>();
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+		it.open();
+		while(it.hasNext()) {
+			found.add(it.next());
+		}
+		it.close();
+		return found;
+	}
+
+	private Page getPage(BTreePageId pid) throws Exception {
+		return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	/**
+	 * @return the internal pages of the tree, level by level from the root
+	 */
+	private List<List<BTreeInternalPage>> internalLevels() throws Exception {
+		List<List<BTreeInternalPage>> levels = new ArrayList<>();
+		BTreePageId root = ((BTreeRootPtrPage) getPage(BTreeRootPtrPage.getId(bf.getId()))).getRootId();
+		List<BTreePageId> level = Collections.singletonList(root);
+		while(level.get(0).pgcateg() == BTreePageId.INTERNAL) {
+			List<BTreeInternalPage> pages = new ArrayList<>();
+			List<BTreePageId> next = new ArrayList<>();
+			for(BTreePageId pid : level) {
+				BTreeInternalPage p = (BTreeInternalPage) getPage(pid);
+				pages.add(p);
+				Iterator<BTreeEntry> it = p.iterator();
+				BTreeEntry e = null;
+				while(it.hasNext()) {
+					e = it.next();
+					next.add(e.getLeftChild());
+				}
+				next.add(e.getRightChild());
+			}
+			levels.add(pages);
+			level = next;
+		}
+		return levels;
+	}
+
+	/**
+	 * @return how many entries an internal page would hold if its keys took
+	 *   up a fixed-width string field each
+	 */
+	private static int fixedWidthEntries() {
+		return (BufferPool.getPageSize() * 8 - 81) / ((Type.STRING_TYPE.getLen() + 4) * 8 + 1);
+	}
+
+	@Test
+	public void testSeparator() {
+		Field a = new StringField("https://example.com/a/0041", Type.STRING_LEN);
+		Field b = new StringField("https://example.com/a/0057", Type.STRING_LEN);
+		assertEquals(new StringField("https://example.com/a/005", Type.STRING_LEN), BTreeInternalPage.getSeparator(a, b));
+		// a key that is a prefix of the next one
+		Field c = new StringField("https://example.com/a/00571", Type.STRING_LEN);
+		assertEquals(c, BTreeInternalPage.getSeparator(b, c));
+		assertEquals(b, BTreeInternalPage.getSeparator(b, b));
+		assertEquals(new IntField(7), BTreeInternalPage.getSeparator(new IntField(3), new IntField(7)));
+
+		// on composite keys, the strings after the first difference are dropped
+		Field d = new CompositeField(new IntField(1), new StringField("bob", Type.STRING_LEN));
+		Field e = new CompositeField(new IntField(2), new StringField("alice", Type.STRING_LEN));
+		Field sep = BTreeInternalPage.getSeparator(d, e);
+		assertEquals(new CompositeField(new IntField(2), new StringField("", Type.STRING_LEN)), sep);
+		assertTrue(sep.compare(Op.GREATER_THAN, d) && sep.compare(Op.LESS_THAN_OR_EQ, e));
+	}
+
+	@Test
+	public void testPageRoundTrip() throws Exception {
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 0);
+		assertTrue(page.isCompressed());
+		// fill the page
+		int n = 0;
+		for(int i = 0; page.getNumEmptySlots() > 0; i++, n++) {
+			page.insertEntry(new BTreeEntry(url(i),
+					new BTreePageId(bf.getId(), 100 + i, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), 101 + i, BTreePageId.LEAF)));
+		}
+
+		BTreeInternalPage copy = new BTreeInternalPage(pid, page.getPageData(), 0);
+		assertEquals(n, copy.getNumEntries());
+		Iterator<BTreeEntry> it = copy.iterator();
+		for(int i = 0; i < n; i++) {
+			BTreeEntry e = it.next();
+			assertEquals(url(i), e.getKey());
+			assertEquals(100 + i, e.getLeftChild().getPageNumber());
+			assertEquals(101 + i, e.getRightChild().getPageNumber());
+		}
+		assertFalse(it.hasNext());
+		assertArrayEquals(page.getPageData(), copy.getPageData());
+
+		// the shared prefixes are stored once, so the page holds far more
+		// entries than a page of fixed-width keys
+		assertTrue(n > 3 * fixedWidthEntries());
+	}
+
+	@Test
+	public void testInsert() throws Exception {
+		insertAll();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		for(int i = 0; i < ROWS; i += 37) {
+			List<Tuple> found = lookup(url(i));
+			assertEquals(1, found.size());
+			assertEquals(new IntField(i), found.get(0).getField(1));
+		}
+		assertTrue(lookup(new StringField("https://example.com/accounts/", Type.STRING_LEN)).isEmpty());
+
+		// the keys between leaves are cut short, and the internal pages hold
+		// several times as many of them as fixed-width keys would allow
+		List<List<BTreeInternalPage>> levels = internalLevels();
+		List<BTreeInternalPage> bottom = levels.get(levels.size() - 1);
+		int entries = 0;
+		for(BTreeInternalPage p : bottom) {
+			entries += p.getNumEntries();
+			Iterator<BTreeEntry> it = p.iterator();
+			while(it.hasNext()) {
+				assertTrue(((StringField) it.next().getKey()).getValue().length() < url(0).getValue().length());
+			}
+		}
+		assertTrue(entries / bottom.size() > 3 * fixedWidthEntries());
+		assertTrue(levels.size() <= 2);
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		insertAll();
+		// delete all but every tenth tuple, looking each one up afresh, since
+		// merges move the tuples left in the tree to other pages
+		for(int i = 0; i < ROWS; i++) {
+			if(i % 10 == 0)
+				continue;
+			List<Tuple> found = lookup(url(i));
+			assertEquals(1, found.size());
+			Database.getBufferPool().deleteTuple(tid, found.get(0));
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		for(int i = 0; i < ROWS; i++) {
+			assertEquals(i % 10 == 0 ? 1 : 0, lookup(url(i)).size());
+		}
+	}
+
+	@Test
+	public void testBulkLoad() throws Exception {
+		List<Tuple> sorted = new ArrayList<>(tuples);
+		sorted.sort(new BTreeFileEncoder.TupleComparator(0));
+		assertEquals(ROWS, bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), sorted), 0.75));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertTrue(internalLevels().size() <= 2);
+
+		for(int i = 0; i < ROWS; i += 41) {
+			assertEquals(1, lookup(url(i)).size());
+		}
+
+		// and the tree takes inserts as usual afterwards
+		Tuple t = new Tuple(bf.getTupleDesc());
+		t.setField(0, new StringField("https://example.com/accounts/00000700/profilf", Type.STRING_LEN));
+		t.setField(1, new IntField(-1));
+		Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		assertEquals(1, lookup(t.getField(0)).size());
+		assertEquals(1, lookup(url(100)).size());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeKeyCompressionTest.class);
+	}
+}
@@ -7,6 +7,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.index.BTreeLeafPage;
 import simpledb.index.BTreePageId;
 import simpledb.index.BTreeUtility;
@@ -347,6 +348,50 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.findFirstSlot() and BTreeLeafPage.iterator(Field)
+	 */
+	@Test public void findFirstSlot() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(0, page.findFirstSlot(new IntField(0)));
+		assertEquals(page.getMaxTuples(), page.findFirstSlot(new IntField(70000)));
+
+		// probe every key and the values around it, then again with holes in the page
+		for (int round = 0; round < 2; round++) {
+			for (int[] tuple : EXAMPLE_VALUES) {
+				for (int d = -1; d <= 1; d++) {
+					IntField f = new IntField(tuple[0] + d);
+					Iterator<Tuple> expected = page.iterator();
+					Tuple first = null;
+					while (expected.hasNext()) {
+						Tuple tup = expected.next();
+						if (tup.getField(0).compare(Predicate.Op.GREATER_THAN_OR_EQ, f)) {
+							first = tup;
+							break;
+						}
+					}
+					Iterator<Tuple> it = page.iterator(f);
+					if (first == null) {
+						assertEquals(page.getMaxTuples(), page.findFirstSlot(f));
+						assertFalse(it.hasNext());
+						continue;
+					}
+					assertEquals(first.getRecordId().getTupleNumber(), page.findFirstSlot(f));
+					assertEquals(first, it.next());
+					while (expected.hasNext())
+						assertEquals(expected.next(), it.next());
+					assertFalse(it.hasNext());
+				}
+			}
+			Iterator<Tuple> it = page.iterator();
+			while (it.hasNext()) {
+				page.deleteTuple(it.next());
+				if (it.hasNext())
+					it.next();
+			}
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
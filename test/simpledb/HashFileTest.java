@@ -0,0 +1,299 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+	private static final int ROWS = 5000;
+	private static final int KEYS = 2000;
+
+	private TransactionId tid;
+	private HashFile hf;
+	private final List<List<Integer>> tuples = new ArrayList<>();
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		// small pages, so that a few thousand tuples fill many buckets
+		BufferPool.setPageSize(1024);
+		Database.reset();
+		tid = new TransactionId();
+
+		File f = File.createTempFile("hash", ".dat");
+		f.deleteOnExit();
+		hf = new HashFile(f, 0, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+		Random r = new Random(49);
+		for(int i = 0; i < ROWS; i++) {
+			tuples.add(Arrays.asList(r.nextInt(KEYS), i));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private void insertAll() throws Exception {
+		for(List<Integer> t : tuples) {
+			Database.getBufferPool().insertTuple(tid, hf.getId(), BTreeUtility.getBTreeTuple(t));
+		}
+	}
+
+	private List<List<Integer>> lookup(int key) throws Exception {
+		List<List<Integer>> found = new ArrayList<>();
+		DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		while(it.hasNext()) {
+			found.add(SystemTestUtil.tupleToList(it.next()));
+		}
+		it.close();
+		return found;
+	}
+
+	private Set<List<Integer>> expected(int key) {
+		Set<List<Integer>> expected = new HashSet<>();
+		for(List<Integer> t : tuples) {
+			if(t.get(0) == key)
+				expected.add(t);
+		}
+		return expected;
+	}
+
+	private HashMetaPage getMetaPage() throws Exception {
+		return (HashMetaPage) Database.getBufferPool().getPage(tid, HashMetaPage.getId(hf.getId()),
+				Permissions.READ_ONLY);
+	}
+
+	@Test
+	public void testAddressing() throws Exception {
+		HashMetaPage meta = new HashMetaPage(HashMetaPage.getId(hf.getId()), HashMetaPage.createEmptyPageData());
+		assertEquals(1, meta.getNumBuckets());
+		assertEquals(1, meta.getBucketPageId(0).getPageNumber());
+
+		// 0 splits into 0 and 1, then 0 into 0 and 2, then 1 into 1 and 3
+		meta.advanceSplit();
+		assertEquals(2, meta.getNumBuckets());
+		assertEquals(0, meta.getSplitBucket());
+		assertEquals(2, meta.getNewBucket());
+		meta.advanceSplit();
+		assertEquals(3, meta.getNumBuckets());
+		assertEquals(2, meta.getBucket(6));
+		assertEquals(1, meta.getBucket(7));
+		assertEquals(3, meta.getNewBucket());
+		assertTrue(meta.movesOnSplit(7));
+		assertFalse(meta.movesOnSplit(5));
+
+		// the primary pages of a group are contiguous
+		assertEquals(3, HashMetaPage.getGroup(4));
+		assertEquals(3, HashMetaPage.getGroup(7));
+		meta.setGroupStart(3, 40);
+		assertEquals(42, meta.getBucketPageId(6).getPageNumber());
+
+		HashMetaPage copy = new HashMetaPage(meta.getId(), meta.getPageData());
+		assertEquals(3, copy.getNumBuckets());
+		assertEquals(42, copy.getBucketPageId(6).getPageNumber());
+	}
+
+	@Test
+	public void testBucketPage() throws Exception {
+		HashPageId pid = new HashPageId(hf.getId(), 1);
+		HashBucketPage page = new HashBucketPage(pid, HashBucketPage.createEmptyPageData());
+		assertNull(page.getNextPageId());
+		int n = page.getNumEmptySlots();
+		assertEquals(page.getMaxTuples(), n);
+		for(int i = 0; i < n; i++) {
+			page.insertTuple(BTreeUtility.getBTreeTuple(new int[] { i, -i }));
+		}
+		assertEquals(0, page.getNumEmptySlots());
+		page.setNextPageId(new HashPageId(hf.getId(), 7));
+
+		HashBucketPage copy = new HashBucketPage(pid, page.getPageData());
+		assertEquals(7, copy.getNextPageId().getPageNumber());
+		Iterator<Tuple> it = copy.iterator();
+		for(int i = 0; i < n; i++) {
+			Tuple t = it.next();
+			assertEquals(Arrays.asList(i, -i), SystemTestUtil.tupleToList(t));
+			assertEquals(new RecordId(pid, i), t.getRecordId());
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testInsert() throws Exception {
+		insertAll();
+		HashMetaPage meta = getMetaPage();
+		int perPage = new HashBucketPage(new HashPageId(hf.getId(), 1), HashBucketPage.createEmptyPageData())
+				.getMaxTuples();
+		// the buckets have split as the file grew
+		assertTrue(meta.getNumBuckets() >= ROWS / perPage);
+
+		for(int key = 0; key < KEYS; key += 7) {
+			assertEquals(expected(key), new HashSet<>(lookup(key)));
+		}
+		assertTrue(lookup(KEYS).isEmpty());
+
+		// and a scan finds each tuple once
+		List<List<Integer>> all = new ArrayList<>();
+		DbFileIterator it = hf.iterator(tid);
+		it.open();
+		while(it.hasNext()) {
+			all.add(SystemTestUtil.tupleToList(it.next()));
+		}
+		it.close();
+		assertEquals(ROWS, all.size());
+		assertEquals(new HashSet<>(tuples), new HashSet<>(all));
+	}
+
+	@Test
+	public void testLookupReadsOneBucket() throws Exception {
+		insertAll();
+		Database.getBufferPool().transactionComplete(tid);
+
+		// the splits keep the chains short, so most lookups lock one page
+		int locked = 0;
+		int lookups = 0;
+		for(int key = 0; key < KEYS; key += 13, lookups++) {
+			tid = new TransactionId();
+			assertEquals(expected(key), new HashSet<>(lookup(key)));
+			for(int i = 1; i < hf.numPages(); i++) {
+				if(Database.getBufferPool().holdsLock(tid, new HashPageId(hf.getId(), i)))
+					locked++;
+			}
+			Database.getBufferPool().transactionComplete(tid);
+		}
+		assertTrue(locked + " pages locked by " + lookups + " lookups", locked < 1.5 * lookups);
+	}
+
+	@Test
+	public void testNonEqualityPredicate() throws Exception {
+		insertAll();
+		Set<List<Integer>> expected = new HashSet<>();
+		for(List<Integer> t : tuples) {
+			if(t.get(0) < 100)
+				expected.add(t);
+		}
+		Set<List<Integer>> found = new HashSet<>();
+		DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(100)));
+		it.open();
+		while(it.hasNext()) {
+			found.add(SystemTestUtil.tupleToList(it.next()));
+		}
+		it.close();
+		assertEquals(expected, found);
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		insertAll();
+		// delete every tuple with an even key, through the lookups that find them
+		for(int key = 0; key < KEYS; key += 2) {
+			DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+			it.open();
+			while(it.hasNext()) {
+				Database.getBufferPool().deleteTuple(tid, it.next());
+			}
+			it.close();
+		}
+		tuples.removeIf(t -> t.get(0) % 2 == 0);
+		for(int key = 0; key < 200; key++) {
+			assertEquals(expected(key), new HashSet<>(lookup(key)));
+		}
+
+		// and the file takes inserts as usual afterwards
+		List<Integer> t = Arrays.asList(4, -1);
+		Database.getBufferPool().insertTuple(tid, hf.getId(), BTreeUtility.getBTreeTuple(t));
+		assertEquals(Collections.singletonList(t), lookup(4));
+	}
+
+	@Test
+	public void testAbortSplit() throws Exception {
+		insertAll();
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		int buckets = getMetaPage().getNumBuckets();
+		Database.getBufferPool().transactionComplete(tid);
+
+		// enough inserts to split buckets, then abort them
+		tid = new TransactionId();
+		for(int i = 0; i < ROWS / 2; i++) {
+			Database.getBufferPool().insertTuple(tid, hf.getId(), BTreeUtility.getBTreeTuple(new int[] { i % KEYS, -i }));
+		}
+		assertTrue(getMetaPage().getNumBuckets() > buckets);
+		Database.getBufferPool().transactionComplete(tid, false);
+
+		tid = new TransactionId();
+		assertEquals(buckets, getMetaPage().getNumBuckets());
+		for(int key = 0; key < KEYS; key += 11) {
+			assertEquals(expected(key), new HashSet<>(lookup(key)));
+		}
+	}
+
+	private Set<List<Integer>> drain(OpIterator it) throws Exception {
+		Set<List<Integer>> found = new HashSet<>();
+		while(it.hasNext()) {
+			found.add(SystemTestUtil.tupleToList(it.next()));
+		}
+		return found;
+	}
+
+	@Test
+	public void testScanOperator() throws Exception {
+		insertAll();
+		HashScan scan = new HashScan(tid, hf.getId(), "h", new IndexPredicate(Op.EQUALS, new IntField(42)));
+		scan.open();
+		assertEquals(expected(42), drain(scan));
+
+		// the same operator looks up other keys
+		scan.rewind(new IndexPredicate(Op.EQUALS, new IntField(7)));
+		assertEquals(expected(7), drain(scan));
+		scan.close();
+		scan.open(new IndexPredicate(Op.EQUALS, new IntField(KEYS)));
+		assertFalse(scan.hasNext());
+		scan.close();
+
+		// and without a predicate, it returns every tuple
+		scan = new HashScan(tid, hf.getId(), null);
+		scan.open();
+		assertEquals(new HashSet<>(tuples), drain(scan));
+		scan.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testScanOperatorRange() {
+		new HashScan(tid, hf.getId(), new IndexPredicate(Op.LESS_THAN, new IntField(42)));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashFileTest.class);
+	}
+}
@@ -12,7 +12,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
-import java.util.Arrays;
+import java.util.*;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -53,6 +53,41 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         // assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuples()
+     */
+    @Test public void addTuples() throws Exception {
+        // 1200 tuples fill two pages and spill onto a third, and each of
+        // them is reported dirty once
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1200; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        List<Page> dirty = empty.insertTuples(tid, tuples.iterator());
+        assertEquals(3, empty.numPages());
+        assertEquals(3, dirty.size());
+        assertEquals(0, ((HeapPage) dirty.get(0)).getNumEmptySlots());
+        assertEquals(0, ((HeapPage) dirty.get(1)).getNumEmptySlots());
+        for (Page p : dirty)
+            assertEquals(tid, p.isDirty());
+
+        // the next batch starts on the page with room left
+        List<Page> more = empty.insertTuples(tid,
+                Collections.singletonList(Utility.getHeapTuple(0, 2)).iterator());
+        assertEquals(1, more.size());
+        assertEquals(2, more.get(0).getId().getPageNumber());
+        assertEquals(3, empty.numPages());
+
+        int count = 0;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(1201, count);
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -102,6 +103,58 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate[], int[])
+     */
+    @Test public void testIteratorWithPredicates() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] preds = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+            new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947)),
+        };
+
+        List<Integer> expected = new ArrayList<>();
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 20000 && tuple[1] <= 44947)
+                expected.add(tuple[0]);
+        }
+
+        // a tuple inserted after the page was read is not in the page image
+        Tuple inserted = Utility.getHeapTuple(new int[] { 30000, 1 });
+        page.insertTuple(inserted);
+        expected.add(30000);
+
+        List<Integer> actual = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator(preds, null);
+        while (it.hasNext())
+            actual.add(((IntField) it.next().getField(0)).getValue());
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate[], int[]) with a column mask
+     */
+    @Test public void testIteratorWithColumns() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] preds = new Predicate[] {
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20000)),
+        };
+
+        Iterator<Tuple> it = page.iterator(preds, new int[] { 1 });
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            while (EXAMPLE_VALUES[row][0] >= 20000)
+                row++;
+            assertEquals(1, tup.getTupleDesc().numFields());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(0)).getValue());
+            assertEquals(row, tup.getRecordId().getTupleNumber());
+            row++;
+        }
+        for (; row < EXAMPLE_VALUES.length; row++)
+            assertTrue(EXAMPLE_VALUES[row][0] >= 20000);
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
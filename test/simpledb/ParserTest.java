@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Zql.ZDelete;
+import Zql.ZqlParser;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.TopN;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ParserTest extends SimpleDbTestBase {
+
+    private static final String TABLE = "T";
+
+    Parser p;
+
+    /**
+     * Set up the test; create a table to query
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100, 20, null,
+                new ArrayList<>(), "c");
+        Database.getCatalog().addTable(f, TABLE);
+        TableStats.setTableStats(TABLE, new TableStats(f.getId(), 19));
+        p = new Parser();
+    }
+
+    /**
+     * @return the operator below the final projection of the query's plan
+     */
+    private OpIterator plan(String query) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator root = p.generateLogicalPlan(tid, query).physicalPlan(tid,
+                TableStats.getStatsMap(), false);
+        return ((Operator) root).getChildren()[0];
+    }
+
+    /**
+     * A trailing LIMIT puts a Limit with no offset on top of the plan
+     */
+    @Test
+    public void limit() throws Exception {
+        OpIterator op = plan("SELECT * FROM " + TABLE + " LIMIT 5;");
+        Assert.assertTrue(op instanceof Limit);
+        Assert.assertEquals(5, ((Limit) op).getLimit());
+        Assert.assertEquals(0, ((Limit) op).getOffset());
+    }
+
+    /**
+     * LIMIT ... OFFSET is case insensitive
+     */
+    @Test
+    public void limitOffset() throws Exception {
+        OpIterator op = plan("SELECT * FROM " + TABLE + " limit 5 offset 3;");
+        Assert.assertTrue(op instanceof Limit);
+        Assert.assertEquals(5, ((Limit) op).getLimit());
+        Assert.assertEquals(3, ((Limit) op).getOffset());
+    }
+
+    /**
+     * ORDER BY ... LIMIT becomes a TopN instead of a sort and a Limit
+     */
+    @Test
+    public void orderByLimit() throws Exception {
+        OpIterator op = plan("SELECT * FROM " + TABLE + " ORDER BY " + TABLE
+                + ".c0 DESC LIMIT 10 OFFSET 2;");
+        Assert.assertTrue(op instanceof TopN);
+        TopN topN = (TopN) op;
+        Assert.assertEquals(10, topN.getLimit());
+        Assert.assertEquals(2, topN.getOffset());
+        Assert.assertEquals(0, topN.getOrderByField());
+        Assert.assertFalse(topN.isASC());
+    }
+
+    /**
+     * A statement without the clause gets no Limit, even after one with it
+     */
+    @Test
+    public void noLimit() throws Exception {
+        plan("SELECT * FROM " + TABLE + " LIMIT 5;");
+        Assert.assertFalse(plan("SELECT * FROM " + TABLE + ";") instanceof Limit);
+    }
+
+    /**
+     * Values that do not fit in an int are rejected
+     */
+    @Test(expected = ParsingException.class)
+    public void limitTooLarge() throws Exception {
+        plan("SELECT * FROM " + TABLE + " LIMIT 99999999999;");
+    }
+
+    /**
+     * DELETE does not support LIMIT
+     */
+    @Test(expected = ParsingException.class)
+    public void deleteLimit() throws Exception {
+        String stmt = p.stripLimitClause("DELETE FROM " + TABLE + " WHERE "
+                + TABLE + ".c0 > 3 LIMIT 5;");
+        ZDelete delete = (ZDelete) new ZqlParser(
+                new ByteArrayInputStream(stmt.getBytes())).readStatement();
+        p.handleDeleteStatement(delete, new TransactionId());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParserTest.class);
+    }
+}
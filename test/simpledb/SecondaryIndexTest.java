@@ -0,0 +1,392 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+	private static final int MAX_VALUE = 100;
+
+	private TransactionId tid;
+	private HeapFile table;
+	private final List<List<Integer>> tuples = new ArrayList<>();
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		table = SystemTestUtil.createRandomHeapFile(2, 2000, MAX_VALUE, null, tuples, "c");
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private SecondaryIndex addIndex(String field) throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		return Database.getCatalog().addIndex(table.getId(), field,
+				SecondaryIndex.openFile(f, Type.INT_TYPE));
+	}
+
+	private SecondaryIndex addHashIndex(String field) throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		return Database.getCatalog().addIndex(table.getId(), field,
+				SecondaryIndex.openHashFile(f, Type.INT_TYPE));
+	}
+
+	/**
+	 * @return the tuples the index returns for the predicate
+	 */
+	private List<List<Integer>> lookup(SecondaryIndex index, IndexPredicate ipred) throws Exception {
+		List<List<Integer>> found = new ArrayList<>();
+		DbFileIterator it = index.iterator(tid, ipred);
+		it.open();
+		while(it.hasNext()) {
+			found.add(SystemTestUtil.tupleToList(it.next()));
+		}
+		it.close();
+		return found;
+	}
+
+	private List<List<Integer>> expected(int field, int value) {
+		List<List<Integer>> expected = new ArrayList<>();
+		for(List<Integer> t : tuples) {
+			if(t.get(field) == value)
+				expected.add(t);
+		}
+		return expected;
+	}
+
+	private static void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+		Comparator<List<Integer>> order = Comparator.comparing(Object::toString);
+		expected = new ArrayList<>(expected);
+		actual = new ArrayList<>(actual);
+		expected.sort(order);
+		actual.sort(order);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testBuild() throws Exception {
+		SecondaryIndex index = addIndex("c1");
+		assertEquals(2000, index.build(tid));
+		BTreeChecker.checkRep((BTreeFile) index.getFile(), tid, new HashMap<>(), true);
+
+		for(int v = 0; v < MAX_VALUE; v += 7) {
+			assertSameTuples(expected(1, v), lookup(index, new IndexPredicate(Op.EQUALS, new IntField(v))));
+		}
+
+		// the tuples come back in the order of the indexed field
+		List<List<Integer>> all = lookup(index, null);
+		assertEquals(2000, all.size());
+		for(int i = 1; i < all.size(); i++) {
+			assertTrue(all.get(i - 1).get(1) <= all.get(i).get(1));
+		}
+	}
+
+	@Test
+	public void testInsertAndDelete() throws Exception {
+		SecondaryIndex index = addIndex("c1");
+		index.build(tid);
+
+		for(int i = 0; i < 100; i++) {
+			Tuple t = Utility.getHeapTuple(new int[] { i, 42 });
+			Database.getBufferPool().insertTuple(tid, table.getId(), t);
+			tuples.add(SystemTestUtil.tupleToList(t));
+		}
+		assertSameTuples(expected(1, 42), lookup(index, new IndexPredicate(Op.EQUALS, new IntField(42))));
+
+		// delete the tuples with c1 = 42 through tuples holding only c0, as a
+		// projected scan would return them
+		List<Tuple> victims = new ArrayList<>();
+		DbFileIterator it = index.iterator(tid, new IndexPredicate(Op.EQUALS, new IntField(42)));
+		it.open();
+		while(it.hasNext()) {
+			Tuple t = it.next();
+			Tuple projected = new Tuple(Utility.getTupleDesc(1));
+			projected.setField(0, t.getField(0));
+			projected.setRecordId(t.getRecordId());
+			victims.add(projected);
+		}
+		it.close();
+		for(Tuple t : victims) {
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		assertTrue(lookup(index, new IndexPredicate(Op.EQUALS, new IntField(42))).isEmpty());
+		assertEquals(2000 + 100 - victims.size(), lookup(index, null).size());
+		BTreeChecker.checkRep((BTreeFile) index.getFile(), tid, new HashMap<>(), true);
+	}
+
+	@Test
+	public void testDeleteWhileScanning() throws Exception {
+		SecondaryIndex index = addIndex("c1");
+		index.build(tid);
+
+		// deleting the tuples as the index returns them merges its leaves
+		// under the iterator
+		int deleted = 0;
+		DbFileIterator it = index.iterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(MAX_VALUE / 2)));
+		it.open();
+		while(it.hasNext()) {
+			Database.getBufferPool().deleteTuple(tid, it.next());
+			deleted++;
+		}
+		it.close();
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for(List<Integer> t : tuples) {
+			if(t.get(1) >= MAX_VALUE / 2)
+				expected.add(t);
+		}
+		assertEquals(2000 - expected.size(), deleted);
+		assertSameTuples(expected, lookup(index, null));
+		BTreeChecker.checkRep((BTreeFile) index.getFile(), tid, new HashMap<>(), true);
+	}
+
+	@Test
+	public void testInsertTuples() throws Exception {
+		SecondaryIndex c0 = addIndex("c0");
+		SecondaryIndex c1 = addIndex("c1");
+		c0.build(tid);
+		c1.build(tid);
+
+		List<Tuple> batch = new ArrayList<>();
+		for(int i = 0; i < 500; i++) {
+			batch.add(Utility.getHeapTuple(new int[] { MAX_VALUE + i, i % 5 }));
+		}
+		assertEquals(500, Database.getBufferPool().insertTuples(tid, table.getId(), batch.iterator()));
+		for(Tuple t : batch) {
+			tuples.add(SystemTestUtil.tupleToList(t));
+		}
+
+		assertSameTuples(expected(1, 3), lookup(c1, new IndexPredicate(Op.EQUALS, new IntField(3))));
+		assertSameTuples(expected(0, MAX_VALUE + 123), lookup(c0, new IndexPredicate(Op.EQUALS, new IntField(MAX_VALUE + 123))));
+		assertEquals(500, lookup(c0, new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(MAX_VALUE))).size());
+	}
+
+	@Test
+	public void testHashIndex() throws Exception {
+		SecondaryIndex index = addHashIndex("c1");
+		assertTrue(index.getFile() instanceof HashFile);
+		assertTrue(index.supports(Op.EQUALS));
+		assertFalse(index.supports(Op.LESS_THAN));
+		assertFalse(index.isOrdered());
+		assertEquals(2000, index.build(tid));
+		for(int v = 0; v < MAX_VALUE; v += 7) {
+			assertSameTuples(expected(1, v), lookup(index, new IndexPredicate(Op.EQUALS, new IntField(v))));
+		}
+		assertEquals(2000, lookup(index, null).size());
+
+		// the BufferPool keeps it up to date, like a B+ tree index
+		for(int i = 0; i < 100; i++) {
+			Tuple t = Utility.getHeapTuple(new int[] { i, 42 });
+			Database.getBufferPool().insertTuple(tid, table.getId(), t);
+			tuples.add(SystemTestUtil.tupleToList(t));
+		}
+		assertSameTuples(expected(1, 42), lookup(index, new IndexPredicate(Op.EQUALS, new IntField(42))));
+		List<Tuple> victims = new ArrayList<>();
+		DbFileIterator it = index.iterator(tid, new IndexPredicate(Op.EQUALS, new IntField(42)));
+		it.open();
+		while(it.hasNext()) {
+			victims.add(it.next());
+		}
+		it.close();
+		for(Tuple t : victims) {
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		assertTrue(lookup(index, new IndexPredicate(Op.EQUALS, new IntField(42))).isEmpty());
+		assertEquals(2100 - victims.size(), lookup(index, null).size());
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		SecondaryIndex index = addIndex("c1");
+		index.build(tid);
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 1, MAX_VALUE }));
+		assertEquals(1, lookup(index, new IndexPredicate(Op.EQUALS, new IntField(MAX_VALUE))).size());
+		Database.getBufferPool().transactionComplete(tid, false);
+
+		tid = new TransactionId();
+		assertTrue(lookup(index, new IndexPredicate(Op.EQUALS, new IntField(MAX_VALUE))).isEmpty());
+		assertEquals(2000, lookup(index, null).size());
+	}
+
+	@Test
+	public void testTableIdIterator() throws Exception {
+		SecondaryIndex index = addIndex("c1");
+		assertEquals(Collections.singletonList(index), Database.getCatalog().getIndexes(table.getId()));
+		Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+		while(it.hasNext()) {
+			assertNotEquals(index.getFile().getId(), (int) it.next());
+		}
+		// but its pages can be read by id
+		assertEquals(index.getFile(), Database.getCatalog().getDatabaseFile(index.getFile().getId()));
+	}
+
+	@Test
+	public void testInclude() throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		SecondaryIndex index = Database.getCatalog().addIndex(table.getId(), "c1", new String[] { "c0" },
+				SecondaryIndex.openFile(f, Type.INT_TYPE, Type.INT_TYPE));
+		assertArrayEquals(new int[] { 1, 0 }, index.getColumns());
+		index.build(tid);
+		Tuple t = Utility.getHeapTuple(new int[] { -5, 42 });
+		Database.getBufferPool().insertTuple(tid, table.getId(), t);
+
+		// the entries hold the key, the included field and the RecordId
+		IndexOnlyScan scan = new IndexOnlyScan(tid, index, "t", new IndexPredicate(Op.EQUALS, new IntField(42)));
+		scan.open();
+		boolean found = false;
+		while(scan.hasNext()) {
+			Tuple e = scan.next();
+			assertEquals(new IntField(42), e.getField(0));
+			if(e.getField(1).equals(new IntField(-5))) {
+				assertEquals(t.getRecordId(), e.getRecordId());
+				found = true;
+			}
+		}
+		scan.close();
+		assertTrue(found);
+		assertEquals("t.c1", scan.getTupleDesc().getFieldName(0));
+		assertEquals("t.c0", scan.getTupleDesc().getFieldName(1));
+	}
+
+	@Test
+	public void testDuplicateKeys() throws Exception {
+		SecondaryIndex index = addIndex("c1");
+		index.build(tid);
+
+		// enough duplicates of one key to fill many leaves
+		for(int i = 0; i < 3000; i++) {
+			Tuple t = Utility.getHeapTuple(new int[] { i, -1 });
+			Database.getBufferPool().insertTuple(tid, table.getId(), t);
+			tuples.add(SystemTestUtil.tupleToList(t));
+		}
+		BTreeChecker.checkRep((BTreeFile) index.getFile(), tid, new HashMap<>(), true);
+
+		// the duplicates come back in RecordId order, and each is deleted
+		// by searching for its whole entry as the scan goes
+		IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(-1));
+		int deleted = 0;
+		RecordId last = null;
+		DbFileIterator it = index.iterator(tid, ipred);
+		it.open();
+		while(it.hasNext()) {
+			Tuple t = it.next();
+			RecordId rid = t.getRecordId();
+			if(last != null)
+				assertTrue(last.getPageId().getPageNumber() < rid.getPageId().getPageNumber()
+						|| last.getPageId().getPageNumber() == rid.getPageId().getPageNumber()
+						&& last.getTupleNumber() < rid.getTupleNumber());
+			last = rid;
+			Database.getBufferPool().deleteTuple(tid, t);
+			deleted++;
+		}
+		it.close();
+		assertEquals(3000, deleted);
+		assertTrue(lookup(index, ipred).isEmpty());
+		assertEquals(2000, lookup(index, null).size());
+		BTreeChecker.checkRep((BTreeFile) index.getFile(), tid, new HashMap<>(), true);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeyedOnField() throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		// the B+ tree must be keyed on the RecordId too
+		Database.getCatalog().addIndex(table.getId(), "c1",
+				new BTreeFile(f, 0, SecondaryIndex.getTupleDesc(Type.INT_TYPE)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIncludeMismatch() throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		// the file has no room for the included field
+		Database.getCatalog().addIndex(table.getId(), "c1", new String[] { "c0" },
+				SecondaryIndex.openFile(f, Type.INT_TYPE));
+	}
+
+	@Test(expected = DbException.class)
+	public void testNoEntry() throws Exception {
+		// an index that was never built has no entries to delete
+		addIndex("c1");
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		Tuple t = it.next();
+		it.close();
+		Database.getBufferPool().deleteTuple(tid, t);
+	}
+
+	@Test
+	public void testLoadSchema() throws Exception {
+		File dir = File.createTempFile("schema", "");
+		assertTrue(dir.delete() && dir.mkdir());
+		dir.deleteOnExit();
+		File schema = new File(dir, "catalog.txt");
+		schema.deleteOnExit();
+		try (PrintWriter w = new PrintWriter(schema)) {
+			w.println("emp (id int pk, dept int index, name string index)");
+			w.println("dept (id int hashindex, name string)");
+		}
+		Database.getCatalog().loadSchema(schema.getAbsolutePath());
+		int empId = Database.getCatalog().getTableId("emp");
+		List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(empId);
+		assertEquals(2, indexes.size());
+		assertEquals(1, indexes.get(0).getField());
+		assertEquals(2, indexes.get(1).getField());
+		List<SecondaryIndex> deptIndexes = Database.getCatalog().getIndexes(Database.getCatalog().getTableId("dept"));
+		assertEquals(1, deptIndexes.size());
+		assertTrue(deptIndexes.get(0).getFile() instanceof HashFile);
+		for(String name : new String[] { "emp.dat", "emp.dept.idx", "emp.name.idx", "dept.dat", "dept.id.hidx" }) {
+			new File(dir, name).deleteOnExit();
+		}
+		assertTrue(new File(dir, "emp.dept.idx").exists());
+
+		Tuple t = new Tuple(Database.getCatalog().getTupleDesc(empId));
+		t.setField(0, new IntField(1));
+		t.setField(1, new IntField(7));
+		t.setField(2, new StringField("bob", Type.STRING_LEN));
+		Database.getBufferPool().insertTuple(tid, empId, t);
+		DbFileIterator it = indexes.get(1).iterator(tid, new IndexPredicate(Op.EQUALS, new StringField("bob", Type.STRING_LEN)));
+		it.open();
+		assertEquals(t.toString(), it.next().toString());
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SecondaryIndexTest.class);
+	}
+}
@@ -0,0 +1,161 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  final int testWidth = 2;
+  OpIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = TestUtil.createTupleList(testWidth,
+        new int[] { 5, 1, -3, 2, 9, 3, 0, 4, 7, 5, 1, 6, 8, 7 });
+  }
+
+  /**
+   * Unit test for TopN.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    TopN op = new TopN(0, true, 3, scan);
+    TupleDesc expected = Utility.getTupleDesc(testWidth);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for TopN.getNext() in ascending order
+   */
+  @Test public void topAscending() throws Exception {
+    TopN op = new TopN(0, true, 3, scan);
+    OpIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { -3, 2, 0, 4, 1, 6 });
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext() in descending order with an offset
+   */
+  @Test public void topDescendingWithOffset() throws Exception {
+    TopN op = new TopN(0, false, 2, 1, scan);
+    OpIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 8, 7, 7, 5 });
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext() when the limit exceeds the input size
+   */
+  @Test public void limitLargerThanInput() throws Exception {
+    TopN op = new TopN(0, true, 100, scan);
+    OpIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { -3, 2, 0, 4, 1, 6, 5, 1, 7, 5, 8, 7, 9, 3 });
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext() when offset + limit does not fit in an int
+   */
+  @Test public void limitOverflow() throws Exception {
+    TopN op = new TopN(0, true, Integer.MAX_VALUE, 5, scan);
+    OpIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 8, 7, 9, 3 });
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    TopN op = new TopN(0, false, 1, scan);
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { 9, 3 }), op.next()));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { 9, 3 }), op.next()));
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.getNext() over an unordered child
+   */
+  @Test public void limitOffset() throws Exception {
+    Limit op = new Limit(2, 3, scan);
+    OpIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 0, 4, 7, 5 });
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * The estimated cardinality of TopN and Limit skips the offset first,
+   * then caps the rest at the limit
+   */
+  @Test public void estimatedCardinality() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(testWidth, 100, null, new ArrayList<>());
+    Database.getCatalog().addTable(f, "t");
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("t", new TableStats(f.getId(), 1000));
+    Map<String, Integer> aliases = new HashMap<>();
+    aliases.put("t", f.getId());
+    TransactionId tid = new TransactionId();
+
+    assertEquals(10, estimate(new TopN(0, true, 10, 0, new SeqScan(tid, f.getId(), "t")), aliases, stats));
+    assertEquals(10, estimate(new TopN(0, true, 10, 50, new SeqScan(tid, f.getId(), "t")), aliases, stats));
+    assertEquals(5, estimate(new TopN(0, true, 10, 95, new SeqScan(tid, f.getId(), "t")), aliases, stats));
+    assertEquals(0, estimate(new TopN(0, true, 10, 200, new SeqScan(tid, f.getId(), "t")), aliases, stats));
+    assertEquals(10, estimate(new Limit(10, 0, new SeqScan(tid, f.getId(), "t")), aliases, stats));
+    assertEquals(5, estimate(new Limit(10, 95, new SeqScan(tid, f.getId(), "t")), aliases, stats));
+    assertEquals(0, estimate(new Limit(10, 200, new SeqScan(tid, f.getId(), "t")), aliases, stats));
+  }
+
+  private static int estimate(Operator o, Map<String, Integer> aliases,
+      Map<String, TableStats> stats) {
+    OperatorCardinality.updateOperatorCardinality(o, aliases, stats);
+    return o.getEstimatedCardinality();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
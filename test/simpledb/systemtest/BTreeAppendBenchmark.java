@@ -0,0 +1,45 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures inserting tuples with increasing keys into a B+ tree, the way
+ * event and log tables are filled, one transaction per batch of tuples.
+ * Reports the time taken, the number of pages in the file and how full
+ * the pages are on average.
+ * <p>
+ * Usage: BTreeAppendBenchmark [rows] [tuples per transaction]
+ */
+public class BTreeAppendBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int batch = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        Database.reset();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 20);
+        File f = File.createTempFile("append", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i += batch) {
+            TransactionId tid = new TransactionId();
+            for (int j = i; j < Math.min(rows, i + batch); j++)
+                Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(j, 2));
+            Database.getBufferPool().transactionComplete(tid, true);
+        }
+        double ms = (System.nanoTime() - start) / 1e6;
+
+        int perPage = BTreeUtility.getNumTuplesPerPage(2);
+        System.out.println("rows\tms\tpages\tfill");
+        System.out.printf("%d\t%.0f\t%d\t%.2f%n", rows, ms, bf.numPages(),
+                (double) rows / perPage / bf.numPages());
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares building a B+ tree index by inserting sorted tuples one by one
+ * through the buffer pool against BTreeFile.bulkLoad(), and reports the
+ * time taken and the size of the resulting file for each.
+ * <p>
+ * Usage: BTreeBulkLoadBenchmark [rows] [fill factor]
+ */
+public class BTreeBulkLoadBenchmark {
+
+    private static BTreeFile emptyFile() throws Exception {
+        File f = File.createTempFile("bulkload", ".dat");
+        f.deleteOnExit();
+        return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+    }
+
+    private static void report(String name, long nanos, BTreeFile bf) {
+        System.out.printf("%s\t%.0f\t%d%n", name, nanos / 1e6, bf.numPages());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        double fillFactor = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+
+        List<Tuple> tuples = BTreeUtility.generateRandomTuples(2, rows, 0, Integer.MAX_VALUE);
+        tuples.sort(new BTreeFileEncoder.TupleComparator(0));
+
+        System.out.println("method\tms\tpages");
+
+        Database.reset();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 20);
+        BTreeFile bf = emptyFile();
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        Database.getBufferPool().insertTuples(tid, bf.getId(), tuples.iterator());
+        Database.getBufferPool().transactionComplete(tid, true);
+        report("insertTuples", System.nanoTime() - start, bf);
+
+        Database.reset();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 20);
+        bf = emptyFile();
+        tid = new TransactionId();
+        start = System.nanoTime();
+        bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), tuples), fillFactor);
+        Database.getBufferPool().transactionComplete(tid, true);
+        report("bulkLoad", System.nanoTime() - start, bf);
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.systemtest;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how B+ tree inserts and lookups scale with the number of
+ * threads working on one index. Each thread runs short transactions that
+ * look up a random key and insert a random tuple, for a fixed time, and
+ * the benchmark reports the committed transactions per second and the
+ * number of transactions aborted on a lock timeout.
+ * <p>
+ * Usage: BTreeConcurrencyBenchmark [seconds] [rows] [lookups per insert]
+ */
+public class BTreeConcurrencyBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        System.out.println("threads\tcommits/s\taborts");
+        for (int threads : THREADS) {
+            Database.reset();
+            BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+            // leave room for the tree to grow, so that eviction doesn't dominate
+            Database.resetBufferPool(bf.numPages() * 2 + BufferPool.DEFAULT_PAGES);
+
+            AtomicLong commits = new AtomicLong();
+            AtomicLong aborts = new AtomicLong();
+            long stop = System.currentTimeMillis() + seconds * 1000L;
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                Random rand = new Random(i);
+                workers[i] = new Thread(() -> {
+                    while (System.currentTimeMillis() < stop) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            for (int j = 0; j < lookups; j++) {
+                                IntField key = new IntField(rand.nextInt(BTreeUtility.MAX_RAND_VALUE));
+                                DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+                                it.open();
+                                while (it.hasNext())
+                                    it.next();
+                                it.close();
+                            }
+                            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(
+                                    rand.nextInt(BTreeUtility.MAX_RAND_VALUE), 2));
+                            Database.getBufferPool().transactionComplete(tid, true);
+                            commits.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            Database.getBufferPool().transactionComplete(tid, false);
+                            aborts.incrementAndGet();
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread t : workers)
+                t.start();
+            for (Thread t : workers)
+                t.join();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d\t%.0f\t%d%n", threads, commits.get() / elapsed, aborts.get());
+        }
+    }
+}
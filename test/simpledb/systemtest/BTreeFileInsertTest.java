@@ -56,16 +56,17 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 			assertEquals(1, empty.numPages());
 		}
 
-		// the next 251 tuples should live on page 2 since they are greater than
-		// all existing tuples in the file
-		for (int i = 502; i < 753; ++i) {
+		// the next 452 tuples should live on page 2 since they are greater than
+		// all existing tuples in the file. Appending to the right-most leaf
+		// splits it 90/10, so page 1 keeps 452 tuples and page 2 gets 50
+		for (int i = 502; i < 954; ++i) {
 			tup = BTreeUtility.getBTreeTuple(i, 2);
 			empty.insertTuple(tid, tup);
 			assertEquals(3, empty.numPages());
 		}
 
 		// one more insert greater than 502 should cause page 2 to split
-		tup = BTreeUtility.getBTreeTuple(753, 2);
+		tup = BTreeUtility.getBTreeTuple(954, 2);
 		empty.insertTuple(tid, tup);
 		assertEquals(4, empty.numPages());
 
@@ -77,7 +78,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 			Tuple t = it0.next();
 			total++;
 		}
-		assertEquals(total, 754);
+		assertEquals(total, 955);
 
 		// now make sure the records are sorted on the key field
 		DbFileIterator it = empty.iterator(tid);
@@ -297,6 +298,41 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		
 	}
 
+	@Test
+	public void testAppendIncreasingKeys() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+
+		// increasing keys split the right-most pages 90/10, so the others end up 90% full
+		int rows = 20 * 502;
+		for (int i = 0; i < rows; ++i) {
+			empty.insertTuple(tid, BTreeUtility.getBTreeTuple(i, 2));
+		}
+		BTreeChecker.checkRep(empty, tid, new HashMap<>(), true);
+		assertTrue(empty.numPages() <= rows / 452 + 2);
+
+		// keys that go before the last one are not appended to the right-most leaf
+		empty.insertTuple(tid, BTreeUtility.getBTreeTuple(rows / 2, 2));
+		empty.insertTuple(tid, BTreeUtility.getBTreeTuple(rows, 2));
+		empty.insertTuple(tid, BTreeUtility.getBTreeTuple(-1, 2));
+		BTreeChecker.checkRep(empty, tid, new HashMap<>(), true);
+
+		DbFileIterator it = empty.iterator(tid);
+		it.open();
+		int count = 0;
+		int prev = Integer.MIN_VALUE;
+		while (it.hasNext()) {
+			int value = ((IntField) it.next().getField(0)).getValue();
+			assertTrue(value >= prev);
+			prev = value;
+			count++;
+		}
+		it.close();
+		assertEquals(rows + 3, count);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
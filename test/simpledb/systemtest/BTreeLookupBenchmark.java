@@ -0,0 +1,110 @@
+package simpledb.systemtest;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeEntry;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures the cost of B+ tree point lookups. The first part compares
+ * finding the child to descend into on a full internal page by walking its
+ * entries with iterator(), as findLeafPage used to, against
+ * BTreeInternalPage.findChildId(); the second times whole lookups through
+ * BTreeFile.indexIterator(). Both report the time and the bytes allocated
+ * per operation.
+ * <p>
+ * Usage: BTreeLookupBenchmark [rows] [lookups]
+ */
+public class BTreeLookupBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink = 0;
+
+    private static long allocated() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static BTreePageId scanForChild(BTreeInternalPage page, IntField f) {
+        Iterator<BTreeEntry> it = page.iterator();
+        BTreeEntry e = null;
+        while (it.hasNext()) {
+            e = it.next();
+            if (e.getKey().compare(Op.GREATER_THAN_OR_EQ, f))
+                return e.getLeftChild();
+        }
+        return e == null ? null : e.getRightChild();
+    }
+
+    private static void report(String name, int ops, long nanos, long bytes) {
+        System.out.printf("%s\t%.1f\t%.1f%n", name, (double) nanos / ops, (double) bytes / ops);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        Random rand = new Random(0);
+
+        Database.reset();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        // keep the whole tree cached, so that lookups don't measure reading pages
+        Database.resetBufferPool(bf.numPages() + 16);
+        BTreeInternalPage page = BTreeUtility.createRandomInternalPage(
+                new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL), 0, BTreePageId.LEAF,
+                0, BTreeUtility.MAX_RAND_VALUE, 2);
+        IntField[] keys = new IntField[lookups];
+        for (int i = 0; i < lookups; i++)
+            keys[i] = new IntField(rand.nextInt(BTreeUtility.MAX_RAND_VALUE));
+
+        System.out.println("operation\tns/op\tbytes/op");
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            boolean warm = round == WARMUP_ROUNDS;
+
+            long bytes = allocated();
+            long start = System.nanoTime();
+            for (IntField key : keys)
+                sink += scanForChild(page, key).getPageNumber();
+            if (warm)
+                report("page scan (" + page.getNumEntries() + " keys)", lookups,
+                        System.nanoTime() - start, allocated() - bytes);
+
+            bytes = allocated();
+            start = System.nanoTime();
+            for (IntField key : keys)
+                sink += page.findChildId(key).getPageNumber();
+            if (warm)
+                report("page binary search (" + page.getNumEntries() + " keys)", lookups,
+                        System.nanoTime() - start, allocated() - bytes);
+
+            TransactionId tid = new TransactionId();
+            bytes = allocated();
+            start = System.nanoTime();
+            for (IntField key : keys) {
+                DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+                it.open();
+                while (it.hasNext())
+                    sink += it.next().getField(1).hashCode();
+                it.close();
+            }
+            if (warm)
+                report("index lookup (" + rows + " rows)", lookups,
+                        System.nanoTime() - start, allocated() - bytes);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+}
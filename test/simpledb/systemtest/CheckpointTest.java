@@ -0,0 +1,235 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Test fuzzy checkpoints, the buffer pool's background writer and the
+ * truncation of the segmented log.
+ */
+public class CheckpointTest extends SimpleDbTestBase {
+    private static final long DEFAULT_WRITER_DELAY = BufferPool.getWriterDelay();
+    private static final long DEFAULT_SEGMENT_SIZE = LogFile.getSegmentSize();
+    private static final int DEFAULT_CHECKPOINT_SEGMENTS = LogFile.getCheckpointSegments();
+    private static final int SEGMENT = 256;
+
+    private File file1;
+    private File file2;
+    private HeapFile hf1;
+    private HeapFile hf2;
+
+    private void setup() throws IOException {
+        Database.reset();
+        File[] files = GroupCommitTest.createTables(2);
+        file1 = files[0];
+        file2 = files[1];
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+    }
+
+    private void crash() throws IOException {
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        Database.getLogFile().recover();
+    }
+
+    private static boolean onDisk(HeapFile hf, int value) {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == value)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean present(HeapFile hf, int value) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        boolean found = false;
+        scan.open();
+        while (scan.hasNext()) {
+            if (((IntField) scan.next().getField(0)).getValue() == value)
+                found = true;
+        }
+        scan.close();
+        t.commit();
+        return found;
+    }
+
+    private static void insertRow(HeapFile hf, Transaction t, int value)
+            throws DbException, TransactionAbortedException {
+        Tuple row = new Tuple(Utility.getTupleDesc(2));
+        row.setField(0, new IntField(value));
+        row.setField(1, new IntField(0));
+        Insert insert = new Insert(t.getId(),
+                new TupleIterator(Utility.getTupleDesc(2), Collections.singletonList(row)), hf.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+    }
+
+    private static void waitForDisk(HeapFile hf, int value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!onDisk(hf, value) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(onDisk(hf, value));
+    }
+
+    @After public void resetWriter() {
+        BufferPool.setWriterDelay(DEFAULT_WRITER_DELAY);
+        LogFile.setSegmentSize(DEFAULT_SEGMENT_SIZE);
+        LogFile.setCheckpointSegments(DEFAULT_CHECKPOINT_SEGMENTS);
+        LogFile.setArchiveDirectory(null);
+    }
+
+    @Test public void testCheckpointWritesNoPages() throws Exception {
+        BufferPool.setWriterDelay(0);
+        setup();
+        GroupCommitTest.commitRow(hf1, 1);
+        Database.getLogFile().logCheckpoint();
+        assertFalse(onDisk(hf1, 1));
+
+        // redo starts before the checkpoint, at the row's record
+        crash();
+        assertTrue(present(hf1, 1));
+    }
+
+    @Test public void testLoserAcrossCheckpoint() throws Exception {
+        BufferPool.setWriterDelay(0);
+        setup();
+        Transaction open = new Transaction();
+        open.start();
+        insertRow(hf1, open, 2);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+        GroupCommitTest.commitRow(hf2, 3);
+
+        crash();
+        assertFalse(present(hf1, 2));
+        assertTrue(present(hf2, 3));
+    }
+
+    @Test public void testBackgroundWriter() throws Exception {
+        BufferPool.setWriterDelay(10);
+        LogFile.setSegmentSize(SEGMENT);
+        setup();
+        for (int i = 0; i < 10; i++)
+            GroupCommitTest.commitRow(hf1, 4 + i);
+        waitForDisk(hf1, 13);
+
+        // nothing is left to redo, so the checkpoint truncates every
+        // segment before its own
+        Database.getLogFile().logCheckpoint();
+        assertTrue(Database.getLogFile().size() < 2 * SEGMENT);
+
+        crash();
+        assertTrue(present(hf1, 4));
+        assertTrue(present(hf1, 13));
+    }
+
+    @Test public void testSegmentsArchived() throws Exception {
+        BufferPool.setWriterDelay(10);
+        LogFile.setSegmentSize(SEGMENT);
+        File archive = java.nio.file.Files.createTempDirectory("simpledb-archive").toFile();
+        archive.deleteOnExit();
+        LogFile.setArchiveDirectory(archive);
+        setup();
+        for (int i = 0; i < 10; i++)
+            GroupCommitTest.commitRow(hf1, 20 + i);
+        waitForDisk(hf1, 29);
+        Database.getLogFile().logCheckpoint();
+
+        // retired segments are moved out of the log in the background
+        long deadline = System.currentTimeMillis() + 5000;
+        while (archive.list().length == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        File[] archived = archive.listFiles();
+        assertTrue(archived.length > 0);
+        for (File f : archived) {
+            assertTrue(f.getName().startsWith("log."));
+            f.deleteOnExit();
+        }
+
+        crash();
+        assertTrue(present(hf1, 20));
+        assertTrue(present(hf1, 29));
+    }
+
+    @Test public void testOpenTransactionHoldsSegments() throws Exception {
+        BufferPool.setWriterDelay(10);
+        LogFile.setSegmentSize(SEGMENT);
+        setup();
+        Transaction open = new Transaction();
+        open.start();
+        insertRow(hf1, open, 40);
+        for (int i = 0; i < 10; i++)
+            GroupCommitTest.commitRow(hf2, 41 + i);
+        waitForDisk(hf2, 50);
+
+        // the open transaction's records must survive the checkpoint
+        long before = Database.getLogFile().size();
+        Database.getLogFile().logCheckpoint();
+        assertTrue(Database.getLogFile().size() >= before);
+
+        crash();
+        assertFalse(present(hf1, 40));
+        assertTrue(present(hf2, 50));
+    }
+
+    @Test public void testAutomaticCheckpoint() throws Exception {
+        BufferPool.setWriterDelay(10);
+        LogFile.setSegmentSize(SEGMENT);
+        LogFile.setCheckpointSegments(2);
+        setup();
+
+        // no one calls logCheckpoint(), yet the log stays a few segments
+        // long however much is committed
+        int value = 100;
+        for (; value < 200; value++)
+            GroupCommitTest.commitRow(hf1, value);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Database.getLogFile().size() > 16 * SEGMENT && System.currentTimeMillis() < deadline) {
+            GroupCommitTest.commitRow(hf1, value++);
+            Thread.sleep(10);
+        }
+        assertTrue(Database.getLogFile().size() <= 16 * SEGMENT);
+
+        crash();
+        assertTrue(present(hf1, 100));
+        assertTrue(present(hf1, value - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSegmentSize() {
+        LogFile.setSegmentSize(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDelay() {
+        BufferPool.setWriterDelay(-1);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CheckpointTest.class);
+    }
+}
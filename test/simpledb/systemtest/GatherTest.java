@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.execution.Gather;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+public class GatherTest extends SimpleDbTestBase {
+    private final static int ROWS = 4000;
+    private final static int MAX_VALUE = 32;
+    private final static int COLUMNS = 3;
+    private final static int WORKERS = 4;
+
+    private HeapFile table;
+    private String tableName;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+
+    private LogicalPlan createPlan() throws IOException {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "c");
+        tableName = Database.getCatalog().getTableName(table.getId());
+        TableStats.setTableStats(tableName, new TableStats(table.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        return lp;
+    }
+
+    private OpIterator physicalPlan(LogicalPlan lp, TransactionId tid) throws ParsingException {
+        LogicalPlan.setParallelism(WORKERS);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(containsGather(plan));
+        return plan;
+    }
+
+    private static boolean containsGather(OpIterator op) {
+        if (op instanceof Gather)
+            return true;
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren())
+                if (containsGather(child))
+                    return true;
+        }
+        return false;
+    }
+
+    @After public void resetParallelism() {
+        LogicalPlan.setParallelism(1);
+    }
+
+    @Test public void testParallelFilteredScan() throws Exception {
+        LogicalPlan lp = createPlan();
+        assertTrue(table.numPages() >= WORKERS);
+        lp.addFilter("t.c1", Predicate.Op.LESS_THAN, "10");
+        lp.addProjectField("null.*", null);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) < 10)
+                expected.add(t);
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(physicalPlan(lp, tid), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelGroupedCount() throws Exception {
+        LogicalPlan lp = createPlan();
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", "COUNT");
+        lp.addAggregate("COUNT", "t.c1", "t.c0");
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples)
+            counts.merge(t.get(0), 1, Integer::sum);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : counts.entrySet())
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(physicalPlan(lp, tid), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelMin() throws Exception {
+        LogicalPlan lp = createPlan();
+        lp.addFilter("t.c2", Predicate.Op.GREATER_THAN, "20");
+        lp.addProjectField("t.c1", "MIN");
+        lp.addAggregate("MIN", "t.c1", null);
+
+        int min = Integer.MAX_VALUE;
+        for (List<Integer> t : tuples)
+            if (t.get(2) > 20)
+                min = Math.min(min, t.get(1));
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(physicalPlan(lp, tid),
+                Collections.singletonList(Collections.singletonList(min)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GatherTest.class);
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+
+/**
+ * Measures commit throughput against the number of committing threads.
+ * Each thread repeatedly inserts a row into its own table and commits, so
+ * the threads never wait on each other's locks and only share the log.
+ * <p>
+ * Usage: GroupCommitBenchmark [seconds] [delay micros] [max batch]
+ */
+public class GroupCommitBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        if (args.length > 1)
+            LogFile.setGroupCommitDelay(Long.parseLong(args[1]));
+        if (args.length > 2)
+            LogFile.setGroupCommitMaxBatch(Integer.parseInt(args[2]));
+
+        System.out.println("threads\tcommits/s\tcommits/sync");
+        for (int n : THREADS) {
+            Database.reset();
+            File[] files = GroupCommitTest.createTables(n);
+            HeapFile[] tables = new HeapFile[n];
+            for (int i = 0; i < n; i++)
+                tables[i] = Utility.openHeapFile(2, files[i]);
+
+            AtomicLong commits = new AtomicLong();
+            long stop = System.currentTimeMillis() + seconds * 1000L;
+            Thread[] threads = new Thread[n];
+            for (int i = 0; i < n; i++) {
+                HeapFile table = tables[i];
+                threads[i] = new Thread(() -> {
+                    try {
+                        for (int v = 0; System.currentTimeMillis() < stop; v++) {
+                            GroupCommitTest.commitRow(table, v);
+                            commits.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread th : threads)
+                th.start();
+            for (Thread th : threads)
+                th.join();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            long syncs = Math.max(1, Database.getLogFile().getSyncCount());
+            System.out.printf("%d\t%.0f\t%.2f%n", n, commits.get() / elapsed,
+                    commits.get() / (double) syncs);
+            for (File f : files)
+                f.delete();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Test that concurrent commits share log forces and are all durable, and
+ * that asynchronous commits are forced within their delay.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int COMMITS = 20;
+    private static final long DEFAULT_WRITER_DELAY = BufferPool.getWriterDelay();
+    private static final long DEFAULT_ASYNC_COMMIT_DELAY = LogFile.getAsyncCommitDelay();
+
+    /** Insert a single row (value, 0) into hf and commit. */
+    static void commitRow(HeapFile hf, int value)
+            throws DbException, TransactionAbortedException, IOException {
+        commitRow(hf, value, true);
+    }
+
+    /** Insert a single row (value, 0) into hf and commit, waiting for the
+        commit to be durable only if synchronous is set. */
+    static void commitRow(HeapFile hf, int value, boolean synchronous)
+            throws DbException, TransactionAbortedException, IOException {
+        Tuple row = new Tuple(Utility.getTupleDesc(2));
+        row.setField(0, new IntField(value));
+        row.setField(1, new IntField(0));
+
+        Transaction t = new Transaction();
+        t.setSynchronousCommit(synchronous);
+        t.start();
+        Insert insert = new Insert(t.getId(),
+                new TupleIterator(Utility.getTupleDesc(2), Collections.singletonList(row)), hf.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+        t.commit();
+    }
+
+    /** Create one empty two column table per committer thread. */
+    static File[] createTables(int n) throws IOException {
+        File[] files = new File[n];
+        for (int i = 0; i < n; i++) {
+            files[i] = File.createTempFile("groupcommit", ".dat");
+            files[i].deleteOnExit();
+            Utility.createEmptyHeapFile(files[i].getAbsolutePath(), 2);
+        }
+        return files;
+    }
+
+    private static Set<Integer> values(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        Set<Integer> values = new HashSet<>();
+        scan.open();
+        while (scan.hasNext())
+            assertTrue(values.add(((IntField) scan.next().getField(0)).getValue()));
+        scan.close();
+        t.commit();
+        return values;
+    }
+
+    private static HeapFile crash(File file) throws IOException {
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        return hf;
+    }
+
+    @After public void resetGroupCommit() {
+        LogFile.setGroupCommitDelay(0);
+        LogFile.setGroupCommitMaxBatch(64);
+        LogFile.setAsyncCommitDelay(DEFAULT_ASYNC_COMMIT_DELAY);
+        BufferPool.setWriterDelay(DEFAULT_WRITER_DELAY);
+    }
+
+    @Test public void testConcurrentCommitsShareForces() throws Exception {
+        LogFile.setGroupCommitDelay(2000);
+        LogFile.setGroupCommitMaxBatch(THREADS);
+        File[] files = createTables(THREADS);
+        HeapFile[] tables = new HeapFile[THREADS];
+        for (int i = 0; i < THREADS; i++)
+            tables[i] = Utility.openHeapFile(2, files[i]);
+
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < THREADS; i++) {
+            final int table = i;
+            Thread th = new Thread(() -> {
+                try {
+                    for (int j = 0; j < COMMITS; j++)
+                        commitRow(tables[table], j);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads.add(th);
+            th.start();
+        }
+        for (Thread th : threads)
+            th.join();
+        assertEquals(Collections.emptyList(), failures);
+
+        // every commit forces the log twice: once for its update records
+        // and once for its commit record
+        long requested = 2L * THREADS * COMMITS;
+        assertTrue(Database.getLogFile().getSyncCount() < requested);
+
+        // crash and recover: every committed row must survive
+        Database.reset();
+        for (int i = 0; i < THREADS; i++)
+            tables[i] = Utility.openHeapFile(2, files[i]);
+        Database.getLogFile().recover();
+
+        Set<Integer> expected = new HashSet<>();
+        for (int j = 0; j < COMMITS; j++)
+            expected.add(j);
+        for (HeapFile table : tables)
+            assertEquals(expected, values(table));
+    }
+
+    @Test public void testSingleCommitter() throws Exception {
+        HeapFile table = Utility.openHeapFile(2, createTables(1)[0]);
+        for (int j = 0; j < COMMITS; j++)
+            commitRow(table, j);
+        // a lone committer never waits for a batch to fill up, and only
+        // the commit record is forced since pages are not written at commit
+        assertEquals(COMMITS, Database.getLogFile().getSyncCount());
+        assertEquals(COMMITS, values(table).size());
+    }
+
+    @Test public void testAsyncCommitForcedWithinDelay() throws Exception {
+        BufferPool.setWriterDelay(0);
+        LogFile.setAsyncCommitDelay(500);
+        Database.reset();
+        File file = createTables(1)[0];
+        HeapFile table = Utility.openHeapFile(2, file);
+        for (int j = 0; j < COMMITS; j++)
+            commitRow(table, j, false);
+        // nobody waited for the log, so none of the commits forced it
+        assertEquals(0, Database.getLogFile().getSyncCount());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Database.getLogFile().getSyncCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, Database.getLogFile().getSyncCount());
+
+        table = crash(file);
+        assertEquals(COMMITS, values(table).size());
+    }
+
+    @Test public void testAsyncCommitLostInCrash() throws Exception {
+        BufferPool.setWriterDelay(0);
+        LogFile.setAsyncCommitDelay(60000);
+        Database.reset();
+        File file = createTables(1)[0];
+        HeapFile table = Utility.openHeapFile(2, file);
+        commitRow(table, 1, true);
+        commitRow(table, 2, false);
+
+        // the asynchronous commit had not been forced yet, so recovery
+        // rolls it back as a whole
+        table = crash(file);
+        assertEquals(Collections.singleton(1), values(table));
+
+        // a synchronous commit forces the asynchronous ones before it
+        commitRow(table, 3, false);
+        commitRow(table, 4, true);
+        table = crash(file);
+        assertEquals(new HashSet<>(Arrays.asList(1, 3, 4)), values(table));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAsyncCommitDelay() {
+        LogFile.setAsyncCommitDelay(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatch() {
+        LogFile.setGroupCommitMaxBatch(0);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
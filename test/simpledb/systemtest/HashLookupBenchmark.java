@@ -0,0 +1,106 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.index.HashFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares equality lookups on a HashFile against the same lookups on a
+ * BTreeFile holding the same tuples. Each is timed with both files cached
+ * in the buffer pool, and with a buffer pool too small to hold either, so
+ * that lookups read their pages from the file: a hash lookup reads about one
+ * bucket page, where a B+ tree lookup reads a page per level. Reports the
+ * time and the bytes allocated per lookup.
+ * <p>
+ * Usage: HashLookupBenchmark [rows] [lookups]
+ */
+public class HashLookupBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int SMALL_POOL = 8;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink = 0;
+
+    private static long allocated() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void report(String name, int ops, long nanos, long bytes) {
+        System.out.printf("%s\t%.1f\t%.1f%n", name, (double) nanos / ops, (double) bytes / ops);
+    }
+
+    private interface Lookup {
+        DbFileIterator find(TransactionId tid, IndexPredicate ipred);
+    }
+
+    private static void time(String name, Lookup lookup, IntField[] keys, boolean warm) throws Exception {
+        TransactionId tid = new TransactionId();
+        long bytes = allocated();
+        long start = System.nanoTime();
+        for (IntField key : keys) {
+            DbFileIterator it = lookup.find(tid, new IndexPredicate(Op.EQUALS, key));
+            it.open();
+            while (it.hasNext())
+                sink += it.next().getField(1).hashCode();
+            it.close();
+        }
+        if (warm)
+            report(name, keys.length, System.nanoTime() - start, allocated() - bytes);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Random rand = new Random(0);
+
+        Database.reset();
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, tuples, 0);
+
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        HashFile hf = new HashFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        Database.resetBufferPool(rows);
+        TransactionId tid = new TransactionId();
+        for (List<Integer> t : tuples)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), BTreeUtility.getBTreeTuple(t));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        System.out.println("B+ tree pages: " + bf.numPages() + ", hash file pages: " + hf.numPages());
+
+        IntField[] keys = new IntField[lookups];
+        for (int i = 0; i < lookups; i++)
+            keys[i] = new IntField(tuples.get(rand.nextInt(rows)).get(0));
+
+        System.out.println("operation\tns/op\tbytes/op");
+        for (int pool : new int[] { bf.numPages() + hf.numPages() + 16, SMALL_POOL }) {
+            Database.resetBufferPool(pool);
+            String cache = pool == SMALL_POOL ? "uncached" : "cached";
+            for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+                boolean warm = round == WARMUP_ROUNDS;
+                time("B+ tree lookup, " + cache, bf::indexIterator, keys, warm);
+                time("hash lookup, " + cache, hf::indexIterator, keys, warm);
+            }
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Delete;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+    private final static int ROWS = 10000;
+    private final static int MAX_VALUE = 1000;
+    private final static int COLUMNS = 6;
+
+    private HeapFile table;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "c");
+        String tableName = Database.getCatalog().getTableName(table.getId());
+        TableStats.setTableStats(tableName, new TableStats(table.getId(), 1));
+    }
+
+    private SecondaryIndex addIndex(String field, String... include) throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        Type[] includeTypes = new Type[include.length];
+        Arrays.fill(includeTypes, Type.INT_TYPE);
+        SecondaryIndex index = Database.getCatalog().addIndex(table.getId(), field, include,
+                SecondaryIndex.openFile(f, Type.INT_TYPE, includeTypes));
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return index;
+    }
+
+    private static IndexOnlyScan findIndexOnlyScan(OpIterator op) {
+        if (op instanceof IndexOnlyScan)
+            return (IndexOnlyScan) op;
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                IndexOnlyScan scan = findIndexOnlyScan(child);
+                if (scan != null)
+                    return scan;
+            }
+        }
+        return null;
+    }
+
+    private static OpIterator physicalPlan(LogicalPlan lp, TransactionId tid) throws Exception {
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        // the visualizer knows index only scans too
+        new QueryPlanVisualizer().getQueryPlanTree(plan);
+        return plan;
+    }
+
+    @Test public void testGroupByKey() throws Exception {
+        SecondaryIndex index = addIndex("c1");
+        assertTrue(index.numPages() < table.numPages());
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c1", null);
+        lp.addProjectField("t.c1", "COUNT");
+        lp.addAggregate("COUNT", "t.c1", "t.c1");
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples)
+            counts.merge(t.get(1), 1, Integer::sum);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : counts.entrySet())
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = physicalPlan(lp, tid);
+        assertNotNull(findIndexOnlyScan(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIncludedColumns() throws Exception {
+        addIndex("c1");
+        SecondaryIndex covering = addIndex("c2", "c4", "c0");
+
+        // the lookup on c2 is answered by the index that includes c4 and c0,
+        // and the filter on c0 is applied to the tuples it returns
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c2", Predicate.Op.LESS_THAN, "100");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "500");
+        lp.addProjectField("t.c4", null);
+        lp.addProjectField("t.c2", null);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(2) < 100 && t.get(0) > 500)
+                expected.add(Arrays.asList(t.get(4), t.get(2)));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = physicalPlan(lp, tid);
+        IndexOnlyScan scan = findIndexOnlyScan(plan);
+        assertNotNull(scan);
+        assertSame(covering, scan.getIndex());
+        assertNotNull(scan.getPredicate());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNotCovered() throws Exception {
+        addIndex("c1", "c2");
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "7");
+        lp.addProjectField("t.c3", null);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) == 7)
+                expected.add(Collections.singletonList(t.get(3)));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = physicalPlan(lp, tid);
+        assertNull(findIndexOnlyScan(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testDeleteThroughIndexOnlyScan() throws Exception {
+        SecondaryIndex index = addIndex("c1", "c3");
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.LESS_THAN, "10");
+        lp.addProjectField("t.c3", null);
+
+        // the returned tuples carry the RecordIds of the table's tuples
+        TransactionId tid = new TransactionId();
+        OpIterator plan = physicalPlan(lp, tid);
+        assertNotNull(findIndexOnlyScan(plan));
+        Delete delete = new Delete(tid, plan);
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) >= 10)
+                expected.add(t);
+        SystemTestUtil.matchTuples(table, expected);
+
+        List<List<Integer>> entries = new ArrayList<>();
+        for (List<Integer> t : expected)
+            entries.add(Arrays.asList(t.get(1), t.get(3)));
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new IndexOnlyScan(tid, index, "t", null), entries);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexOnlyScanTest.class);
+    }
+}
@@ -11,6 +11,8 @@ import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.execution.Insert;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -26,7 +28,7 @@ public class LogTest extends SimpleDbTestBase {
     HeapFile hf1;
     HeapFile hf2;
 
-    void insertRow(HeapFile hf, Transaction t, int v1)
+    void insertRow(DbFile hf, Transaction t, int v1)
         throws DbException, TransactionAbortedException {
         // Create a row to insert
         TupleDesc twoIntColumns = Utility.getTupleDesc(2);
@@ -435,6 +437,228 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestDeltaLogSize()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // a committed single row insert logs the changed bytes of the
+        // page, not two full page images
+        doInsert(hf1, 1, -1);
+        long size = Database.getLogFile().size();
+        if (size >= BufferPool.getPageSize())
+            throw new RuntimeException("LogTest: log holds " + size + " bytes for a single insert");
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        t.commit();
+    }
+
+    @Test public void TestLongLogAbortCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // write enough update records that the log spills out of its
+        // in-memory buffer several times, then abort and crash: rollback
+        // and recovery must read back records that were buffered
+        for (int i = 0; i < 40; i++)
+            doInsert(hf1, 100 + 2 * i, 101 + 2 * i);
+
+        dontInsert(hf1, 5);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf2, t1, 6);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int v = 100; v < 180; v++)
+            look(hf1, t, v, true);
+        look(hf1, t, 5, false);
+        look(hf2, t, 6, false);
+        t.commit();
+    }
+
+    @Test public void TestCommitNoForceCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // commit does not write the page; redo restores the row
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 7);
+        t1.commit();
+
+        HeapPage onDisk = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        assertFalse(onDisk.iterator().hasNext());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 7, true);
+        t.commit();
+    }
+
+    @Test public void TestStealCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf2, 1, -1);
+        Database.resetBufferPool(1);
+
+        // *** Test:
+        // an uncommitted page evicted to make room for another
+        // transaction is undone at recovery, twice over
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 8);
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf2, t2, 9);
+        t2.commit();
+
+        crash();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 8, false);
+        look(hf2, t, 1, true);
+        look(hf2, t, 9, true);
+        t.commit();
+    }
+
+    @Test public void TestParallelRedoCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        int workers = LogFile.getRecoveryParallelism();
+        LogFile.setRecoveryParallelism(4);
+        try {
+            // *** Test:
+            // redo split over several workers, and two losers undone
+            // in the same backward pass
+            Transaction t1 = new Transaction();
+            t1.start();
+            for (int i = 0; i < 1200; i++) {
+                insertRow(hf1, t1, 1000 + i);
+                insertRow(hf2, t1, 3000 + i);
+            }
+            t1.commit();
+
+            Transaction t2 = new Transaction();
+            t2.start();
+            insertRow(hf1, t2, 7);
+            Transaction t3 = new Transaction();
+            t3.start();
+            insertRow(hf2, t3, 8);
+            Database.getBufferPool().flushAllPages();
+
+            crash();
+
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < 1200; i += 97) {
+                look(hf1, t, 1000 + i, true);
+                look(hf2, t, 3000 + i, true);
+            }
+            look(hf1, t, 1000 + 1199, true);
+            look(hf2, t, 3000 + 1199, true);
+            look(hf1, t, 7, false);
+            look(hf2, t, 8, false);
+            t.commit();
+        } finally {
+            LogFile.setRecoveryParallelism(workers);
+        }
+    }
+
+    @Test public void TestTornRecordCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a record cut short by the crash is dropped, and records
+        // appended after recovery are read back by the next one
+        Database.reset();
+        File[] segments = new File(".").listFiles((dir, name) -> name.matches("log\\.\\d+"));
+        Arrays.sort(segments);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[segments.length - 1], "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(6); // DELTA
+            raf.writeLong(99);
+            raf.writeByte(1); // HeapPageId
+            raf.writeShort(40);
+        }
+        crash();
+        doInsert(hf2, 3, -1);
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf2, t, 3, true);
+        t.commit();
+    }
+
+    @Test public void TestBTreeCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        File file3 = new File("simple3.db");
+        file3.delete();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(file3.getAbsolutePath(), 2, 0);
+
+        // *** Test:
+        // B+ tree pages are logged by their page type tags; recovery
+        // redoes the committed insert and undoes the uncommitted one
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(bf, t1, 5);
+        t1.commit();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(bf, t2, 6);
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        bf = BTreeUtility.openBTreeFile(2, file3, 0);
+        Database.getLogFile().recover();
+
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = bf.iterator(t.getId());
+        it.open();
+        List<Integer> keys = new ArrayList<>();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        t.commit();
+        assertEquals(Collections.singletonList(5), keys);
+        file3.delete();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void TestPageTypeTagTaken() {
+        PageTypes.registerPageId(1, RecordPageId.class, 2, f -> new RecordPageId(f[0], f[1]));
+    }
+
+    /** A page id type that is never registered. */
+    private static class RecordPageId extends HeapPageId {
+        RecordPageId(int tableId, int pgNo) {
+            super(tableId, pgNo);
+        }
+    }
 
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
@@ -0,0 +1,142 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.common.Database;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.ParallelHashEquiJoin;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int MAX_VALUE = 200;
+
+    private final List<List<Integer>> t1Tuples = new ArrayList<>();
+    private final List<List<Integer>> t2Tuples = new ArrayList<>();
+    private HeapFile table1;
+    private HeapFile table2;
+
+    private List<List<Integer>> createTables(int table1Rows, int table2Rows) throws IOException {
+        table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, table1Rows, MAX_VALUE, null, t1Tuples, "c");
+        table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, table2Rows, MAX_VALUE, null, t2Tuples, "c");
+
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+        return expectedResults;
+    }
+
+    private void validateJoin(int table1Rows, int table2Rows, int partitions) throws Exception {
+        List<List<Integer>> expectedResults = createTables(table1Rows, table2Rows);
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ParallelHashEquiJoin joinOp = new ParallelHashEquiJoin(p, ss1, ss2, partitions);
+
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @After public void resetParallelism() {
+        LogicalPlan.setParallelism(1);
+    }
+
+    @Test public void testSinglePartition() throws Exception {
+        validateJoin(500, 700, 1);
+    }
+
+    @Test public void testManyPartitions() throws Exception {
+        validateJoin(1000, 1500, 8);
+    }
+
+    @Test public void testEmptyInput() throws Exception {
+        validateJoin(0, 100, 4);
+    }
+
+    @Test public void testRewind() throws Exception {
+        List<List<Integer>> expectedResults = createTables(300, 300);
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ParallelHashEquiJoin joinOp = new ParallelHashEquiJoin(p,
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), 4);
+        joinOp.open();
+        int count = 0;
+        while (joinOp.hasNext()) {
+            joinOp.next();
+            count++;
+        }
+        assertEquals(expectedResults.size(), count);
+        joinOp.rewind();
+        count = 0;
+        while (joinOp.hasNext()) {
+            joinOp.next();
+            count++;
+        }
+        assertEquals(expectedResults.size(), count);
+        joinOp.close();
+        // rewinding a closed join partitions its children again
+        joinOp.rewind();
+        count = 0;
+        while (joinOp.hasNext()) {
+            joinOp.next();
+            count++;
+        }
+        assertEquals(expectedResults.size(), count);
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlannerChoosesParallelJoin() throws Exception {
+        List<List<Integer>> expectedResults = createTables(800, 600);
+        for (HeapFile f : new HeapFile[]{table1, table2}) {
+            String name = Database.getCatalog().getTableName(f.getId());
+            TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+        }
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table1.getId(), "a");
+        lp.addScan(table2.getId(), "b");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("a.c0", null);
+        lp.addProjectField("a.c1", null);
+        lp.addProjectField("b.c0", null);
+        lp.addProjectField("b.c1", null);
+
+        LogicalPlan.setParallelism(4);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof ParallelHashEquiJoin);
+
+        SystemTestUtil.matchTuples(plan, expectedResults);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelHashJoinTest.class);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+
+/**
+ * Measures how long checkpoints stall the workload and how long recovery
+ * takes after a crash, with and without the buffer pool's background
+ * writer. Each run commits single row inserts into a few tables for a
+ * while, taking a fuzzy checkpoint every so often, then crashes and times
+ * LogFile.recover().
+ * <p>
+ * Usage: RecoveryBenchmark [seconds] [commits per checkpoint] [redo workers]
+ */
+public class RecoveryBenchmark {
+    private static final int TABLES = 4;
+    private static final long[] WRITER_DELAYS = {0, 200, 10};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int checkpointEvery = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        if (args.length > 2)
+            LogFile.setRecoveryParallelism(Integer.parseInt(args[2]));
+        long defaultDelay = BufferPool.getWriterDelay();
+
+        System.out.println("writer delay ms\tcommits\tmax checkpoint ms\tlog bytes\trecovery ms");
+        for (long delay : WRITER_DELAYS) {
+            BufferPool.setWriterDelay(delay);
+            Database.reset();
+            File[] files = GroupCommitTest.createTables(TABLES);
+            HeapFile[] tables = new HeapFile[TABLES];
+            for (int i = 0; i < TABLES; i++)
+                tables[i] = Utility.openHeapFile(2, files[i]);
+
+            int commits = 0;
+            long maxCheckpoint = 0;
+            long stop = System.currentTimeMillis() + seconds * 1000L;
+            while (System.currentTimeMillis() < stop) {
+                GroupCommitTest.commitRow(tables[commits % TABLES], commits);
+                if (++commits % checkpointEvery == 0) {
+                    long start = System.nanoTime();
+                    Database.getLogFile().logCheckpoint();
+                    maxCheckpoint = Math.max(maxCheckpoint, System.nanoTime() - start);
+                }
+            }
+            long logBytes = Database.getLogFile().size();
+
+            // crash and recover
+            Database.reset();
+            for (int i = 0; i < TABLES; i++)
+                Utility.openHeapFile(2, files[i]);
+            long start = System.nanoTime();
+            Database.getLogFile().recover();
+            long recovery = System.nanoTime() - start;
+
+            System.out.printf("%d\t%d\t%.1f\t%d\t%.1f%n", delay, commits, maxCheckpoint / 1e6,
+                    logBytes, recovery / 1e6);
+            for (File f : files)
+                f.delete();
+        }
+        BufferPool.setWriterDelay(defaultDelay);
+    }
+}
@@ -0,0 +1,35 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import simpledb.common.DbException;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/** Runs the filter system tests with the predicate pushed down into the scan. */
+public class ScanPredicateTest extends FilterBase {
+    @Override
+    protected int applyPredicate(HeapFile table, TransactionId tid, Predicate predicate)
+            throws DbException, TransactionAbortedException {
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        ss.addPredicate(predicate);
+        ss.open();
+
+        int resultCount = 0;
+        while (ss.hasNext()) {
+            assertTrue(predicate.filter(ss.next()));
+            resultCount += 1;
+        }
+
+        ss.close();
+        return resultCount;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanPredicateTest.class);
+    }
+}
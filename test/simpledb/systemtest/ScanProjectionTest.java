@@ -0,0 +1,109 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+public class ScanProjectionTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 600;
+    private static final int MAX_VALUE = 50;
+
+    private static void collectScans(OpIterator op, List<SeqScan> scans) {
+        if (op instanceof SeqScan) {
+            scans.add((SeqScan) op);
+        } else if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren())
+                collectScans(child, scans);
+        }
+    }
+
+    @Test public void testScanColumns() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "c");
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 20) {
+                List<Integer> out = new ArrayList<>();
+                out.add(t.get(3));
+                out.add(t.get(1));
+                expected.add(out);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, f.getId(), "t");
+        ss.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20)));
+        ss.setColumns(new int[] { 3, 1 });
+        assertEquals(2, ss.getTupleDesc().numFields());
+        assertEquals("t.c3", ss.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(ss, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlanProjectsJoinInputs() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, t1Tuples, "c");
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, t2Tuples, "c");
+        for (HeapFile f : new HeapFile[]{table1, table2}) {
+            String name = Database.getCatalog().getTableName(f.getId());
+            TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+        }
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            if (t1.get(1) >= 10)
+                continue;
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    List<Integer> out = new ArrayList<>();
+                    out.add(t1.get(2));
+                    out.add(t2.get(3));
+                    expected.add(out);
+                }
+            }
+        }
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table1.getId(), "a");
+        lp.addScan(table2.getId(), "b");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addFilter("a.c1", Predicate.Op.LESS_THAN, "10");
+        lp.addProjectField("a.c2", null);
+        lp.addProjectField("b.c3", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+        // each scan carries only its join field and its output field
+        List<SeqScan> scans = new ArrayList<>();
+        collectScans(plan, scans);
+        assertEquals(2, scans.size());
+        for (SeqScan ss : scans)
+            assertEquals(2, ss.getTupleDesc().numFields());
+
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanProjectionTest.class);
+    }
+}
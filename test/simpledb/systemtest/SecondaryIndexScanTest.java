@@ -0,0 +1,205 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Delete;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+public class SecondaryIndexScanTest extends SimpleDbTestBase {
+    private final static int ROWS = 10000;
+    private final static int MAX_VALUE = 5000;
+    private final static int COLUMNS = 3;
+
+    private HeapFile table;
+    private SecondaryIndex index;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "c");
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        index = Database.getCatalog().addIndex(table.getId(), "c1", SecondaryIndex.openFile(f, Type.INT_TYPE));
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        String tableName = Database.getCatalog().getTableName(table.getId());
+        TableStats.setTableStats(tableName, new TableStats(table.getId(), 1));
+    }
+
+    private LogicalPlan createPlan() {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        return lp;
+    }
+
+    private static boolean containsIndexScan(OpIterator op) {
+        if (op instanceof SecondaryIndexScan)
+            return true;
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren())
+                if (containsIndexScan(child))
+                    return true;
+        }
+        return false;
+    }
+
+    private OpIterator physicalPlan(LogicalPlan lp, TransactionId tid) throws Exception {
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        // the visualizer knows index scans too
+        new QueryPlanVisualizer().getQueryPlanTree(plan);
+        return plan;
+    }
+
+    @Test public void testSelectiveFilter() throws Exception {
+        int key = tuples.get(ROWS / 2).get(1);
+        LogicalPlan lp = createPlan();
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, Integer.toString(key));
+        lp.addFilter("t.c2", Predicate.Op.LESS_THAN, Integer.toString(MAX_VALUE / 2));
+        lp.addProjectField("null.*", null);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) == key && t.get(2) < MAX_VALUE / 2)
+                expected.add(t);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = physicalPlan(lp, tid);
+        assertTrue(containsIndexScan(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testUnselectiveFilter() throws Exception {
+        LogicalPlan lp = createPlan();
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, Integer.toString(MAX_VALUE / 10));
+        lp.addProjectField("null.*", null);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) > MAX_VALUE / 10)
+                expected.add(t);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = physicalPlan(lp, tid);
+        assertFalse(containsIndexScan(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testDeleteThroughIndex() throws Exception {
+        int key = tuples.get(0).get(1);
+        LogicalPlan lp = createPlan();
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, Integer.toString(key));
+        lp.addProjectField("null.*", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = physicalPlan(lp, tid);
+        assertTrue(containsIndexScan(plan));
+        Delete delete = new Delete(tid, plan);
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) != key)
+                expected.add(t);
+        SystemTestUtil.matchTuples(table, expected);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, index, "t", null), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static SecondaryIndexScan findIndexScan(OpIterator op) {
+        if (op instanceof SecondaryIndexScan)
+            return (SecondaryIndexScan) op;
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                SecondaryIndexScan scan = findIndexScan(child);
+                if (scan != null)
+                    return scan;
+            }
+        }
+        return null;
+    }
+
+    private SecondaryIndex addHashIndex(String field) throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        SecondaryIndex hash = Database.getCatalog().addIndex(table.getId(), field,
+                SecondaryIndex.openHashFile(f, Type.INT_TYPE));
+        TransactionId tid = new TransactionId();
+        hash.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return hash;
+    }
+
+    @Test public void testHashIndexForEquality() throws Exception {
+        SecondaryIndex c1 = addHashIndex("c1");
+        SecondaryIndex c2 = addHashIndex("c2");
+
+        // an equality filter is looked up in the hash index, even on c1,
+        // which has a B+ tree index too
+        int key = tuples.get(ROWS / 3).get(1);
+        LogicalPlan lp = createPlan();
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, Integer.toString(key));
+        lp.addProjectField("null.*", null);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) == key)
+                expected.add(t);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = physicalPlan(lp, tid);
+        assertSame(c1, findIndexScan(plan).getIndex());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // but a hash index can't answer a range, however selective
+        lp = createPlan();
+        lp.addFilter("t.c2", Predicate.Op.LESS_THAN, "3");
+        lp.addProjectField("null.*", null);
+        expected.clear();
+        for (List<Integer> t : tuples)
+            if (t.get(2) < 3)
+                expected.add(t);
+        tid = new TransactionId();
+        plan = physicalPlan(lp, tid);
+        assertFalse(containsIndexScan(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        key = tuples.get(ROWS / 4).get(2);
+        lp = createPlan();
+        lp.addFilter("t.c2", Predicate.Op.EQUALS, Integer.toString(key));
+        lp.addProjectField("null.*", null);
+        tid = new TransactionId();
+        assertSame(c2, findIndexScan(physicalPlan(lp, tid)).getIndex());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SecondaryIndexScanTest.class);
+    }
+}